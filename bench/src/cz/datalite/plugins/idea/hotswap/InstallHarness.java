@@ -0,0 +1,571 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Měření celé instalace vydání bez běžícího IDE proti lokální náhradě GITHUB
+ *
+ * Každý běh začíná s prázdným úložištěm a JVM bez agenta a projde stejnou cestou jako instalace
+ * v IDE: zjištění posledního vydání, stažení s rozbalením do úložiště ({@link BundleInstaller})
+ * a nasazení do JVM. Měří se doba do připravené instalace, nejvyšší obsazení haldy a nejvyšší
+ * obsazení disku. Parametry se zadávají jako <code>klíč=hodnota</code>:
+ *
+ * <ul>
+ * <li><code>size</code> - velikost nezkomprimovaného vydání v MB (24)</li>
+ * <li><code>plugins</code> - počet pluginů agenta (60)</li>
+ * <li><code>latency</code> - zpoždění každé odpovědi serveru v ms (0)</li>
+ * <li><code>bandwidth</code> - rychlost posílání vydání v kB/s, 0 bez omezení (0)</li>
+ * <li><code>failures</code> - počet stažení vydání v každém běhu, která selžou (0)</li>
+ * <li><code>failure</code> - způsob selhání, drop nebo error (drop)</li>
+ * <li><code>streaming</code> - rozbalení přímo ze stahovaných dat (true)</li>
+ * <li><code>ranged</code> - stažení jen potřebných položek, pokud vydání nemá otisk (true)</li>
+ * <li><code>digest</code> - zveřejnění otisku vydání (true)</li>
+ * <li><code>platforms</code> - zveřejnění vydání pro jednotlivé platformy (false)</li>
+ * <li><code>warmup</code> - počet běhů, které se nezapočítají (1)</li>
+ * <li><code>runs</code> - počet měřených běhů (5)</li>
+ * </ul>
+ */
+public class InstallHarness
+{
+    /**
+     * Instalované vydání
+     */
+    private final static String TAG = "1.0-bench" ;
+
+    /**
+     * Interval vzorkování obsazení disku v milisekundách
+     */
+    private final static long SAMPLE_INTERVAL = 20 ;
+
+    private final static long MB = 1024L * 1024L ;
+
+    /**
+     * Položka s JVM podle platformy
+     */
+    private final static Map<String, String> PLATFORM_JVMS = new LinkedHashMap<String, String>() ;
+
+    static
+    {
+        PLATFORM_JVMS.put( "linux-x64", "Linux_Amd64bit/libjvm.so" ) ;
+        PLATFORM_JVMS.put( "windows-x64", "Windows 64bit/jvm.dll" ) ;
+    }
+
+    private final Properties parameters ;
+
+    private final StandInServer server ;
+
+    /**
+     * Adresář všech běhů
+     */
+    private final File workDirectory ;
+
+    /**
+     * @param parameters        parametry měření
+     * @param server            spuštěný server
+     * @param workDirectory     adresář všech běhů
+     */
+    private InstallHarness( @NotNull Properties parameters, @NotNull StandInServer server, @NotNull File workDirectory )
+    {
+        this.parameters = parameters ;
+        this.server = server ;
+        this.workDirectory = workDirectory ;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        final Properties parameters = new Properties() ;
+
+        for ( String arg : args )
+        {
+            final int separator = arg.indexOf( '=' ) ;
+
+            if ( separator <= 0 )
+            {
+                throw new IllegalArgumentException( "Expected key=value, was " + arg ) ;
+            }
+
+            parameters.setProperty( arg.substring( 0, separator ), arg.substring( separator + 1 ) ) ;
+        }
+
+        final File workDirectory = ZipExtractorBenchmark.createDirectory( "install" ) ;
+
+        try
+        {
+            final File bundle = new File( workDirectory, LocalReleaseSource.getBundleName( TAG ) ) ;
+
+            final long size = getLong( parameters, "size", 24 ) * MB ;
+            final int plugins = ( int )getLong( parameters, "plugins", 60 ) ;
+
+            createBundle( bundle, size, plugins, null ) ;
+
+            final boolean digest = Boolean.parseBoolean( parameters.getProperty( "digest", "true" ) ) ;
+            final StandInServer server = new StandInServer( TAG, bundle, digest ? BundleVerifier.toHex( BundleVerifier.digest( bundle ).digest() ) : null ) ;
+
+            if ( Boolean.parseBoolean( parameters.getProperty( "platforms", "false" ) ) )
+            {
+                for ( String platform : PLATFORM_JVMS.keySet() )
+                {
+                    final File platformBundle = new File( workDirectory, LocalReleaseSource.getBundleName( TAG, platform ) ) ;
+
+                    createBundle( platformBundle, size, plugins, platform ) ;
+                    server.addPlatformBundle( platform, platformBundle ) ;
+                }
+            }
+
+            server.setLatency( getLong( parameters, "latency", 0 ) ) ;
+            server.setBytesPerSecond( getLong( parameters, "bandwidth", 0 ) * 1024 ) ;
+            server.start() ;
+
+            try
+            {
+                System.out.println( "bundle=" + bundle.length() + " " + parameters ) ;
+
+                new InstallHarness( parameters, server, workDirectory ).run() ;
+            }
+            finally
+            {
+                server.stop() ;
+            }
+        }
+        finally
+        {
+            FileUtil.delete( workDirectory ) ;
+        }
+    }
+
+    /**
+     * Zahřívací a měřené běhy s výpisem výsledků
+     */
+    private void run() throws Exception
+    {
+        final int warmup = ( int )getLong( parameters, "warmup", 1 ) ;
+        final int runs = ( int )getLong( parameters, "runs", 5 ) ;
+        final List<Long> times = new ArrayList<Long>() ;
+        long peakHeap = 0 ;
+        long peakDisk = 0 ;
+        int failed = 0 ;
+
+        for ( int i = 0 ; i < warmup + runs ; i++ )
+        {
+            final Result result = runOnce( new File( workDirectory, "run-" + i ) ) ;
+
+            System.out.println( ( ( i < warmup ) ? "warmup=" : "run=" ) + i + " " + result ) ;
+
+            if ( i >= warmup )
+            {
+                if ( result.ready )
+                {
+                    times.add( result.time ) ;
+                }
+                else
+                {
+                    failed++ ;
+                }
+
+                peakHeap = Math.max( peakHeap, result.heap ) ;
+                peakDisk = Math.max( peakDisk, result.disk ) ;
+            }
+        }
+
+        Collections.sort( times ) ;
+
+        if ( times.isEmpty() )
+        {
+            System.out.println( "summary failed=" + failed ) ;
+        }
+        else
+        {
+            System.out.println( "summary failed=" + failed
+                    + " minMs=" + times.get( 0 )
+                    + " medianMs=" + times.get( times.size() / 2 )
+                    + " maxMs=" + times.get( times.size() - 1 )
+                    + " peakHeapMb=" + peakHeap / MB
+                    + " peakDiskMb=" + peakDisk / MB ) ;
+        }
+
+        System.out.print( PhaseMetrics.getInstance().getSnapshot() ) ;
+    }
+
+    /**
+     * Jeden běh od zjištění vydání po nasazení do JVM
+     *
+     * @param directory     adresář běhu s úložištěm, dočasnými soubory a JVM
+     * @return výsledek běhu
+     */
+    @NotNull
+    private Result runOnce( @NotNull File directory ) throws Exception
+    {
+        final AgentStore store = new AgentStore( new File( directory, "store" ) ) ;
+        final File destination = new File( directory, "download/" + LocalReleaseSource.getBundleName( TAG ) ) ;
+        final File target = new File( directory, "jre/lib/amd64/" + HotswapAgentIntegration.GITHUB_PROJECT ) ;
+        final StandInReleaseSource source = new StandInReleaseSource( server ) ;
+        final DiskSampler sampler = new DiskSampler( directory ) ;
+
+        server.setFailures( ( int )getLong( parameters, "failures", 0 ), StandInServer.Failure.valueOf( parameters.getProperty( "failure", "drop" ).toUpperCase() ) ) ;
+        server.resetRequests() ;
+
+        System.gc() ;
+        resetPeakHeap() ;
+        sampler.start() ;
+
+        final long start = System.nanoTime() ;
+        boolean ready = false ;
+
+        try
+        {
+            ready = install( source, store, destination, target ) ;
+        }
+        finally
+        {
+            sampler.interrupt() ;
+            sampler.join() ;
+        }
+
+        final Result result = new Result( ready, ( System.nanoTime() - start ) / 1000000, getPeakHeap(), sampler.peak, server.resetRequests() ) ;
+
+        FileUtil.delete( directory ) ;
+
+        return result ;
+    }
+
+    /**
+     * @param source        zdroj vydání na lokálním serveru
+     * @param store         prázdné úložiště
+     * @param destination   dočasný soubor pro navazované stahování
+     * @param target        cesta k JVM
+     * @return příznak, zda je vydání nasazeno
+     */
+    private boolean install( @NotNull ReleaseSource source, @NotNull AgentStore store, @NotNull File destination, @NotNull File target ) throws IOException
+    {
+        final PhaseMetrics.Phase check = PhaseMetrics.start( "release check" ) ;
+        final String tag ;
+
+        try
+        {
+            tag = source.getLatestTag() ;
+            check.succeed() ;
+        }
+        finally
+        {
+            check.finish() ;
+        }
+
+        if ( tag == null )
+        {
+            return false ;
+        }
+
+        final ProgressIndicator indicator = new EmptyProgressIndicator() ;
+        final BundleInstaller installer = new BundleInstaller( store, HotswapAgentIntegration.INSTALL_FILTER, new BundleInstaller.Listener()
+        {
+            @Override
+            public void info( @NotNull String message )
+            {
+            }
+
+            @Override
+            public void warn( @NotNull String message )
+            {
+                System.out.println( "warn: " + message ) ;
+            }
+
+            @Override
+            public void error( @NotNull String message )
+            {
+                System.out.println( "error: " + message ) ;
+            }
+        } ) ;
+
+        if ( ! installer.install( source, tag, destination, Boolean.parseBoolean( parameters.getProperty( "streaming", "true" ) ), Boolean.parseBoolean( parameters.getProperty( "ranged", "true" ) ), indicator ) )
+        {
+            return false ;
+        }
+
+        final PhaseMetrics.Phase deploy = PhaseMetrics.start( "deploy" ) ;
+
+        try
+        {
+            final StagedInstall staged = new StagedInstall( new File( target.getPath() + File.separatorChar ) ) ;
+
+            store.deploy( tag, staged.prepare() ) ;
+            staged.verify( tag ) ;
+            staged.activate() ;
+            deploy.succeed() ;
+
+            return true ;
+        }
+        finally
+        {
+            deploy.finish() ;
+        }
+    }
+
+    /**
+     * Vynulování nejvyššího obsazení haldy
+     */
+    private static void resetPeakHeap()
+    {
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP )
+            {
+                pool.resetPeakUsage() ;
+            }
+        }
+    }
+
+    /**
+     * @return součet nejvyššího obsazení oblastí haldy od vynulování
+     */
+    private static long getPeakHeap()
+    {
+        long peak = 0 ;
+
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP )
+            {
+                peak += pool.getPeakUsage().getUsed() ;
+            }
+        }
+
+        return peak ;
+    }
+
+    /**
+     * Vytvoření syntetického vydání se stejnou strukturou jako skutečné vydání
+     *
+     * @param bundle        ZIP soubor
+     * @param size          velikost nezkomprimovaných dat
+     * @param plugins       počet pluginů agenta
+     * @param platform      platforma, jejíž JVM vydání obsahuje, nebo null pro všechny
+     */
+    private static void createBundle( @NotNull File bundle, long size, int plugins, @Nullable String platform ) throws IOException
+    {
+        final Random random = new Random( 42 ) ;
+        final ZipOutputStream out = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( bundle ) ) ) ;
+
+        try
+        {
+            //Společné vydání obsahuje JVM pro všechny OS, instaluje se jen ta pro aktuální
+            for ( Map.Entry<String, String> jvm : PLATFORM_JVMS.entrySet() )
+            {
+                if ( ( platform == null ) || ( platform.equals( jvm.getKey() ) ) )
+                {
+                    ZipExtractorBenchmark.addEntry( out, jvm.getValue(), size * 3 / 8, random ) ;
+                }
+            }
+
+            //Nasazení ověřuje, že JAR agenta jde otevřít
+            final ByteArrayOutputStream jar = new ByteArrayOutputStream() ;
+            final ZipOutputStream jarOut = new ZipOutputStream( jar ) ;
+
+            ZipExtractorBenchmark.addEntry( jarOut, "org/hotswap/agent/HotswapAgent.class", size / 16, random ) ;
+            jarOut.close() ;
+
+            out.putNextEntry( new ZipEntry( "HotswapAgent.jar" ) ) ;
+            out.write( jar.toByteArray() ) ;
+            out.closeEntry() ;
+
+            for ( int i = 0 ; i < plugins ; i++ )
+            {
+                ZipExtractorBenchmark.addEntry( out, "plugin/hotswap-agent-plugin-" + i + ".jar", ( size - size * 3 / 4 - size / 16 ) / plugins, random ) ;
+            }
+        }
+        finally
+        {
+            out.close() ;
+        }
+    }
+
+    private static long getLong( @NotNull Properties parameters, @NotNull String key, long defaultValue )
+    {
+        final String value = parameters.getProperty( key ) ;
+
+        return ( value != null ) ? Long.parseLong( value ) : defaultValue ;
+    }
+
+    /**
+     * Zdroj vydání na lokálním serveru, poslední vydání se zjišťuje přes API bez cache
+     */
+    private static class StandInReleaseSource implements ReleaseSource
+    {
+        private final StandInServer server ;
+
+        /**
+         * Poslední zjištěné vydání, nebo null
+         */
+        private ReleaseClient.Release release ;
+
+        private StandInReleaseSource( @NotNull StandInServer server )
+        {
+            this.server = server ;
+        }
+
+        @Nullable
+        @Override
+        public String getLatestTag() throws IOException
+        {
+            release = new ReleaseClient( server.getUrl() ).getLatest( HotswapAgentIntegration.GITHUB_REPOSITORY, null ) ;
+
+            return ( release != null ) ? release.getTag() : null ;
+        }
+
+        @Nullable
+        @Override
+        public String getPlatformBundleUrl( @NotNull String tagName )
+        {
+            final String platform = HotswapAgentIntegration.getPlatform() ;
+
+            if ( ( platform == null ) || ( release == null ) || ( ! release.getTag().equals( tagName ) ) )
+            {
+                return null ;
+            }
+
+            return release.getAssets().get( LocalReleaseSource.getBundleName( tagName, platform ) ) ;
+        }
+
+        @NotNull
+        @Override
+        public String getBundleUrl( @NotNull String tagName )
+        {
+            return server.getUrl() + String.format( HotswapAgentIntegration.ZIP_PATH_PATTERN, tagName, tagName ) ;
+        }
+
+        @Nullable
+        @Override
+        public File getLocalBundle( @NotNull String tagName )
+        {
+            return null ;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "stand-in " + server.getUrl() ;
+        }
+    }
+
+    /**
+     * Průběžné zjišťování obsazení adresáře běhu
+     */
+    private static class DiskSampler extends Thread
+    {
+        private final File directory ;
+
+        /**
+         * Nejvyšší zjištěné obsazení v bajtech
+         */
+        private volatile long peak ;
+
+        private DiskSampler( @NotNull File directory )
+        {
+            super( "disk sampler" ) ;
+
+            this.directory = directory ;
+
+            setDaemon( true ) ;
+        }
+
+        @Override
+        public void run()
+        {
+            while ( true )
+            {
+                peak = Math.max( peak, size( directory ) ) ;
+
+                try
+                {
+                    Thread.sleep( SAMPLE_INTERVAL ) ;
+                }
+                catch ( InterruptedException e )
+                {
+                    //Poslední vzorek po dokončení instalace
+                    peak = Math.max( peak, size( directory ) ) ;
+
+                    return ;
+                }
+            }
+        }
+
+        /**
+         * @param file      soubor nebo adresář
+         * @return velikost všech souborů, soubory smazané během procházení se nepočítají
+         */
+        private static long size( @NotNull File file )
+        {
+            final File[] children = file.listFiles() ;
+
+            if ( children == null )
+            {
+                return file.length() ;
+            }
+
+            long size = 0 ;
+
+            for ( File child : children )
+            {
+                size += size( child ) ;
+            }
+
+            return size ;
+        }
+    }
+
+    /**
+     * Výsledek jednoho běhu
+     */
+    private static class Result
+    {
+        private final boolean ready ;
+
+        /**
+         * Doba do připravené instalace v milisekundách
+         */
+        private final long time ;
+
+        private final long heap ;
+
+        private final long disk ;
+
+        private final int requests ;
+
+        private Result( boolean ready, long time, long heap, long disk, int requests )
+        {
+            this.ready = ready ;
+            this.time = time ;
+            this.heap = heap ;
+            this.disk = disk ;
+            this.requests = requests ;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ready=" + ready + " timeToReadyMs=" + time + " peakHeapMb=" + heap / MB + " peakDiskMb=" + disk / MB + " requests=" + requests ;
+        }
+    }
+}
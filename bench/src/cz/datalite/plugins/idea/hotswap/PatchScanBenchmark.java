@@ -0,0 +1,132 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Průchod všemi konfiguracemi projektu při otevření projektu a po instalaci agenta
+ *
+ * Konfigurace jsou syntetické, třetina spouští aplikaci s agentem, ostatní jsou sestavení a testy.
+ * Měří se první úprava bez uložených otisků a opakovaný průchod, kdy se nic nezměnilo.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class PatchScanBenchmark
+{
+    /**
+     * Počet konfigurací
+     */
+    @Param( { "100", "1000", "10000" } )
+    public int configurations ;
+
+    private boolean[] enabled ;
+
+    /**
+     * Parametry před první úpravou
+     */
+    private String[] original ;
+
+    /**
+     * Parametry po první úpravě
+     */
+    private String[] options ;
+
+    private String[] states ;
+
+    /**
+     * Otisky uložené po první úpravě
+     */
+    private String[] fingerprints ;
+
+    @Setup
+    public void setUp()
+    {
+        final Random random = new Random( 42 ) ;
+
+        enabled = new boolean[ configurations ] ;
+        original = new String[ configurations ] ;
+        options = new String[ configurations ] ;
+        states = new String[ configurations ] ;
+        fingerprints = new String[ configurations ] ;
+
+        for ( int i = 0 ; i < configurations ; i++ )
+        {
+            enabled[ i ] = ( i % 3 == 0 ) ;
+            states[ i ] = enabled[ i ] ? "[jetty:run]" : "[clean, install, -Dmodule=" + i + "]" ;
+
+            switch ( random.nextInt( 3 ) )
+            {
+                case 0:
+                    original[ i ] = "-Xmx" + ( 256 + random.nextInt( 4 ) * 256 ) + "m -Dconfiguration=" + i ;
+                    break ;
+                case 1:
+                    original[ i ] = VmOptionsBenchmark.PLAIN + " -Dconfiguration=" + i ;
+                    break ;
+                default:
+                    original[ i ] = VmOptionsBenchmark.LEGACY + " -Dconfiguration=" + i ;
+            }
+
+            final VmOptionsPatch patch = VmOptionsPatch.compute( null, enabled[ i ], original[ i ], VmOptionsBenchmark.JRE, VmOptionsBenchmark.AGENT_OPTIONS, states[ i ] ) ;
+
+            fingerprints[ i ] = patch.getFingerprint() ;
+            options[ i ] = patch.getOptions() ;
+        }
+    }
+
+    /**
+     * @return počet změněných konfigurací
+     */
+    @Benchmark
+    public int firstScan()
+    {
+        int changed = 0 ;
+
+        for ( int i = 0 ; i < configurations ; i++ )
+        {
+            final VmOptionsPatch patch = VmOptionsPatch.compute( null, enabled[ i ], original[ i ], VmOptionsBenchmark.JRE, VmOptionsBenchmark.AGENT_OPTIONS, states[ i ] ) ;
+
+            if ( ( patch != null ) && ( patch.isChanged() ) )
+            {
+                changed++ ;
+            }
+        }
+
+        return changed ;
+    }
+
+    /**
+     * @return počet změněných konfigurací
+     */
+    @Benchmark
+    public int unchangedScan()
+    {
+        int changed = 0 ;
+
+        for ( int i = 0 ; i < configurations ; i++ )
+        {
+            if ( VmOptionsPatch.compute( fingerprints[ i ], enabled[ i ], options[ i ], VmOptionsBenchmark.JRE, VmOptionsBenchmark.AGENT_OPTIONS, states[ i ] ) != null )
+            {
+                changed++ ;
+            }
+        }
+
+        return changed ;
+    }
+}
@@ -0,0 +1,468 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Lokální náhrada GITHUB pro benchmark instalace
+ *
+ * Server odpovídá na dotaz na poslední vydání stejně jako API GITHUB, včetně ETag a odpovědi 304,
+ * a vydává ZIP soubor vydání a jeho otisk na cestě {@link HotswapAgentIntegration#ZIP_PATH_PATTERN}.
+ * Vedle něj mohou ležet vydání pro jednotlivé platformy pojmenovaná podle
+ * {@link LocalReleaseSource#getBundleName(String, String)}. Každá odpověď se zpozdí o nastavenou
+ * latenci, vydání se posílá omezenou rychlostí s podporou dotazů <code>Range</code> (od pozice,
+ * rozsah i konec souboru) a zadaný počet stažení vydání selže.
+ */
+class StandInServer
+{
+    /**
+     * Způsob selhání stahování vydání
+     */
+    enum Failure
+    {
+        /**
+         * Spojení se ukončí v polovině dat
+         */
+        DROP,
+
+        /**
+         * Server odpoví chybou 503
+         */
+        ERROR
+    }
+
+    private final static int BUFFER_SIZE = 16 * 1024 ;
+
+    /**
+     * Poslední vydání
+     */
+    private final String tag ;
+
+    /**
+     * ZIP soubor vydání
+     */
+    private final File bundle ;
+
+    /**
+     * Otisk SHA-256 vydání, nebo null pokud ho vydání nezveřejňuje
+     */
+    private final String digest ;
+
+    /**
+     * ZIP soubory vydání pro jednotlivé platformy podle názvu souboru
+     */
+    private final Map<String, File> platformBundles = new TreeMap<String, File>() ;
+
+    /**
+     * Zpoždění každé odpovědi v milisekundách
+     */
+    private volatile long latency ;
+
+    /**
+     * Rychlost posílání vydání v bajtech za sekundu, nula bez omezení
+     */
+    private final AtomicLong bytesPerSecond = new AtomicLong() ;
+
+    /**
+     * Počet zbývajících stažení vydání, která selžou
+     */
+    private final AtomicInteger failures = new AtomicInteger() ;
+
+    private volatile Failure failure = Failure.DROP ;
+
+    /**
+     * Počet obsloužených dotazů
+     */
+    private final AtomicInteger requests = new AtomicInteger() ;
+
+    private HttpServer server ;
+
+    private ExecutorService executor ;
+
+    /**
+     * @param tag       poslední vydání
+     * @param bundle    ZIP soubor vydání
+     * @param digest    otisk SHA-256 vydání, nebo null
+     */
+    StandInServer( String tag, File bundle, String digest )
+    {
+        this.tag = tag ;
+        this.bundle = bundle ;
+        this.digest = digest ;
+    }
+
+    /**
+     * @param platform  platforma, viz {@link HotswapAgentIntegration#getPlatform()}
+     * @param bundle    ZIP soubor vydání jen pro tuto platformu
+     */
+    void addPlatformBundle( String platform, File bundle )
+    {
+        platformBundles.put( LocalReleaseSource.getBundleName( tag, platform ), bundle ) ;
+    }
+
+    /**
+     * @param latency   zpoždění každé odpovědi v milisekundách
+     */
+    void setLatency( long latency )
+    {
+        this.latency = latency ;
+    }
+
+    /**
+     * @param bytesPerSecond    rychlost posílání vydání, nula bez omezení
+     */
+    void setBytesPerSecond( long bytesPerSecond )
+    {
+        this.bytesPerSecond.set( bytesPerSecond ) ;
+    }
+
+    /**
+     * @param count     počet následujících stažení vydání, která selžou
+     * @param failure   způsob selhání
+     */
+    void setFailures( int count, Failure failure )
+    {
+        this.failures.set( count ) ;
+        this.failure = failure ;
+    }
+
+    /**
+     * @return počet obsloužených dotazů od posledního volání
+     */
+    int resetRequests()
+    {
+        return requests.getAndSet( 0 ) ;
+    }
+
+    void start() throws IOException
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ), 0 ) ;
+        executor = Executors.newCachedThreadPool() ;
+
+        server.createContext( "/repos/", new HttpHandler()
+        {
+            @Override
+            public void handle( HttpExchange exchange ) throws IOException
+            {
+                try
+                {
+                    delay() ;
+                    sendReleases( exchange ) ;
+                }
+                finally
+                {
+                    exchange.close() ;
+                }
+            }
+        } ) ;
+
+        server.createContext( "/" + HotswapAgentIntegration.GITHUB_OWNER + "/", new HttpHandler()
+        {
+            @Override
+            public void handle( HttpExchange exchange ) throws IOException
+            {
+                try
+                {
+                    delay() ;
+                    sendAsset( exchange ) ;
+                }
+                finally
+                {
+                    exchange.close() ;
+                }
+            }
+        } ) ;
+
+        server.setExecutor( executor ) ;
+        server.start() ;
+    }
+
+    void stop()
+    {
+        server.stop( 0 ) ;
+        executor.shutdownNow() ;
+    }
+
+    /**
+     * @return adresa serveru bez koncového lomítka, nahrazuje API i stránky GITHUB
+     */
+    String getUrl()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() ;
+    }
+
+    /**
+     * @return adresa vydání
+     */
+    String getBundleUrl()
+    {
+        return getUrl() + String.format( HotswapAgentIntegration.ZIP_PATH_PATTERN, tag, tag ) ;
+    }
+
+    /**
+     * @param name      název souboru vydání
+     * @return adresa souboru ve stejném adresáři jako vydání
+     */
+    private String getAssetUrl( String name )
+    {
+        final String bundleUrl = getBundleUrl() ;
+
+        return bundleUrl.substring( 0, bundleUrl.lastIndexOf( '/' ) + 1 ) + name ;
+    }
+
+    /**
+     * Odpověď na dotaz na poslední vydání
+     */
+    private void sendReleases( HttpExchange exchange ) throws IOException
+    {
+        requests.incrementAndGet() ;
+
+        final String path = exchange.getRequestURI().getPath() ;
+        final String etag = "\"" + tag + "\"" ;
+
+        if ( ! path.equals( String.format( ReleaseClient.LATEST_RELEASE_PATH_PATTERN, HotswapAgentIntegration.GITHUB_REPOSITORY ) ) )
+        {
+            exchange.sendResponseHeaders( 404, -1 ) ;
+
+            return ;
+        }
+
+        exchange.getResponseHeaders().set( "ETag", etag ) ;
+
+        if ( etag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) )
+        {
+            exchange.sendResponseHeaders( 304, -1 ) ;
+
+            return ;
+        }
+
+        final String name = LocalReleaseSource.getBundleName( tag ) ;
+        final StringBuilder json = new StringBuilder() ;
+
+        json.append( "{\"url\":\"" ).append( getUrl() ).append( "/repos/" ).append( HotswapAgentIntegration.GITHUB_REPOSITORY ).append( "/releases/1\"," )
+                .append( "\"id\":1,\"tag_name\":\"" ).append( tag ).append( "\",\"name\":\"" ).append( tag ).append( "\",\"draft\":false,\"prerelease\":false," )
+                .append( "\"author\":{\"login\":\"" ).append( HotswapAgentIntegration.GITHUB_OWNER ).append( "\",\"id\":1,\"site_admin\":false}," )
+                .append( "\"assets\":[{\"name\":\"" ).append( name ).append( "\",\"size\":" ).append( bundle.length() ).append( "," )
+                .append( "\"browser_download_url\":\"" ).append( getBundleUrl() ).append( "\"}" ) ;
+
+        for ( Map.Entry<String, File> platformBundle : platformBundles.entrySet() )
+        {
+            json.append( ",{\"name\":\"" ).append( platformBundle.getKey() ).append( "\",\"size\":" ).append( platformBundle.getValue().length() ).append( "," )
+                    .append( "\"browser_download_url\":\"" ).append( getAssetUrl( platformBundle.getKey() ) ).append( "\"}" ) ;
+        }
+
+        json.append( "],\"body\":\"" ) ;
+
+        //Popis vydání bývá delší než zbytek odpovědi
+        for ( int i = 0 ; i < 200 ; i++ )
+        {
+            json.append( "* Fixed issue #" ).append( i ).append( " in \\\"plugin\\\" loading\\r\\n" ) ;
+        }
+
+        final byte[] body = json.append( "\"}" ).toString().getBytes( "UTF-8" ) ;
+        final String acceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" ) ;
+
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" ) ;
+
+        if ( ( acceptEncoding != null ) && ( acceptEncoding.contains( "gzip" ) ) )
+        {
+            exchange.getResponseHeaders().set( "Content-Encoding", "gzip" ) ;
+            exchange.sendResponseHeaders( 200, 0 ) ;
+
+            final GZIPOutputStream out = new GZIPOutputStream( exchange.getResponseBody() ) ;
+
+            out.write( body ) ;
+            out.finish() ;
+        }
+        else
+        {
+            exchange.sendResponseHeaders( 200, body.length ) ;
+            exchange.getResponseBody().write( body ) ;
+        }
+    }
+
+    /**
+     * Odpověď na stažení vydání nebo jeho otisku
+     */
+    private void sendAsset( HttpExchange exchange ) throws IOException
+    {
+        requests.incrementAndGet() ;
+
+        final String path = exchange.getRequestURI().getPath() ;
+        final String bundlePath = String.format( HotswapAgentIntegration.ZIP_PATH_PATTERN, tag, tag ) ;
+
+        if ( path.equals( bundlePath + BundleVerifier.DIGEST_SUFFIX ) && ( digest != null ) )
+        {
+            final byte[] body = ( digest + "  " + LocalReleaseSource.getBundleName( tag ) + "\n" ).getBytes( "US-ASCII" ) ;
+
+            exchange.sendResponseHeaders( 200, body.length ) ;
+            exchange.getResponseBody().write( body ) ;
+        }
+        else if ( path.equals( bundlePath ) )
+        {
+            sendBundle( exchange, bundle ) ;
+        }
+        else if ( ( path.startsWith( bundlePath.substring( 0, bundlePath.lastIndexOf( '/' ) + 1 ) ) ) && ( platformBundles.containsKey( path.substring( path.lastIndexOf( '/' ) + 1 ) ) ) )
+        {
+            //Vydání pro platformu se zveřejňuje bez otisku
+            sendBundle( exchange, platformBundles.get( path.substring( path.lastIndexOf( '/' ) + 1 ) ) ) ;
+        }
+        else
+        {
+            exchange.sendResponseHeaders( 404, -1 ) ;
+        }
+    }
+
+    /**
+     * Poslání vydání nebo požadované části
+     *
+     * @param bundle    posílaný ZIP soubor
+     */
+    private void sendBundle( HttpExchange exchange, File bundle ) throws IOException
+    {
+        final String etag = "\"" + bundle.getName() + "-" + bundle.length() + "\"" ;
+        final String range = exchange.getRequestHeaders().getFirst( "Range" ) ;
+        final String ifRange = exchange.getRequestHeaders().getFirst( "If-Range" ) ;
+        final long length = bundle.length() ;
+        final boolean fail = failures.getAndDecrement() > 0 ;
+
+        if ( ( fail ) && ( failure == Failure.ERROR ) )
+        {
+            exchange.sendResponseHeaders( 503, -1 ) ;
+
+            return ;
+        }
+
+        long offset = 0 ;
+        long last = length - 1 ;
+        boolean partial = false ;
+
+        if ( ( range != null ) && ( range.startsWith( "bytes=" ) ) && ( ( ifRange == null ) || ( ifRange.equals( etag ) ) ) )
+        {
+            final String spec = range.substring( "bytes=".length() ) ;
+            final int dash = spec.indexOf( '-' ) ;
+
+            if ( dash == 0 )
+            {
+                //Konec souboru
+                offset = Math.max( 0, length - Long.parseLong( spec.substring( 1 ) ) ) ;
+            }
+            else
+            {
+                offset = Long.parseLong( spec.substring( 0, dash ) ) ;
+
+                if ( dash < spec.length() - 1 )
+                {
+                    last = Math.min( last, Long.parseLong( spec.substring( dash + 1 ) ) ) ;
+                }
+            }
+
+            partial = true ;
+        }
+
+        exchange.getResponseHeaders().set( "ETag", etag ) ;
+        exchange.getResponseHeaders().set( "Accept-Ranges", "bytes" ) ;
+        exchange.getResponseHeaders().set( "Content-Type", "application/zip" ) ;
+
+        if ( ( offset >= length ) || ( offset > last ) )
+        {
+            exchange.getResponseHeaders().set( "Content-Range", "bytes */" + length ) ;
+            exchange.sendResponseHeaders( 416, -1 ) ;
+
+            return ;
+        }
+
+        if ( partial )
+        {
+            exchange.getResponseHeaders().set( "Content-Range", "bytes " + offset + "-" + last + "/" + length ) ;
+            exchange.sendResponseHeaders( 206, last + 1 - offset ) ;
+        }
+        else
+        {
+            exchange.sendResponseHeaders( 200, length ) ;
+        }
+
+        //Přerušené spojení pošle jen polovinu zbývajících dat
+        final long limit = fail ? ( last + 1 - offset ) / 2 : last + 1 - offset ;
+        final InputStream file = new FileInputStream( bundle ) ;
+        final OutputStream out = exchange.getResponseBody() ;
+
+        try
+        {
+            skip( file, offset ) ;
+
+            final InputStream in = new ThrottledInputStream( file, bytesPerSecond ) ;
+            final byte[] buffer = new byte[ BUFFER_SIZE ] ;
+            long sent = 0 ;
+            int count ;
+
+            while ( ( sent < limit ) && ( ( count = in.read( buffer, 0, ( int )Math.min( buffer.length, limit - sent ) ) ) >= 0 ) )
+            {
+                out.write( buffer, 0, count ) ;
+                sent += count ;
+            }
+
+            out.flush() ;
+        }
+        finally
+        {
+            file.close() ;
+        }
+    }
+
+    /**
+     * Čekání podle nastavené latence
+     */
+    private void delay() throws IOException
+    {
+        if ( latency > 0 )
+        {
+            try
+            {
+                Thread.sleep( latency ) ;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt() ;
+
+                throw new IOException( "Interrupted" ) ;
+            }
+        }
+    }
+
+    /**
+     * @param in        vstupní data
+     * @param count     počet přeskakovaných bajtů
+     */
+    private static void skip( InputStream in, long count ) throws IOException
+    {
+        while ( count > 0 )
+        {
+            final long skipped = in.skip( count ) ;
+
+            if ( skipped <= 0 )
+            {
+                throw new IOException( "Unexpected end of bundle" ) ;
+            }
+
+            count -= skipped ;
+        }
+    }
+}
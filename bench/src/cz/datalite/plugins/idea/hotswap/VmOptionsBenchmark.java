@@ -0,0 +1,102 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Úprava parametrů JVM jedné konfigurace
+ *
+ * Parametry odpovídají běžné webové aplikaci spouštěné z IDE: původní bez agenta, již upravené
+ * (úprava nic nemění) a poškozené dřívějšími verzemi pluginu s duplicitními položkami.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class VmOptionsBenchmark
+{
+    /**
+     * Cesta k JVM s nainstalovaným agentem
+     */
+    final static String JRE = "/usr/lib/jvm/java-7-oracle/jre/lib/amd64/HotswapAgent/" ;
+
+    /**
+     * Parametry agenta s vygenerovanou konfigurací
+     */
+    final static String AGENT_OPTIONS = "propertiesFilePath=/home/developer/.IntelliJIdea13/system/hotswap/7c3a51f2/web-app/hotswap-agent.properties" ;
+
+    /**
+     * Parametry bez agenta
+     */
+    final static String PLAIN = "-Xms512m -Xmx2g -XX:MaxPermSize=512m -XX:+HeapDumpOnOutOfMemoryError -Dfile.encoding=UTF-8"
+            + " -Duser.timezone=Europe/Prague -Dspring.profiles.active=dev"
+            + " \"-Djava.util.logging.config.file=/home/developer/My Projects/web-app/conf/logging.properties\""
+            + " -agentlib:jdwp=transport=dt_socket,server=y,suspend=n,address=5005 -Djava.awt.headless=true" ;
+
+    /**
+     * Parametry poškozené dřívějšími verzemi pluginu
+     */
+    final static String LEGACY = PLAIN + " -XXaltjvm=null/usr/lib/jvm/java-7-oracle/jre/lib/amd64/HotswapAgent/"
+            + " -javaagent:null/usr/lib/jvm/java-7-oracle/jre/lib/amd64/HotswapAgent/HotswapAgent.jar"
+            + " -XXaltjvm=" + JRE + " -javaagent:" + JRE + "HotswapAgent.jar" ;
+
+    /**
+     * Druh parametrů
+     */
+    @Param( { "plain", "patched", "legacy" } )
+    public String kind ;
+
+    /**
+     * Upravované parametry
+     */
+    private String options ;
+
+    @Setup
+    public void setUp()
+    {
+        if ( "plain".equals( kind ) )
+        {
+            options = PLAIN ;
+        }
+        else if ( "patched".equals( kind ) )
+        {
+            options = VmOptionsPatch.patch( PLAIN, JRE, AGENT_OPTIONS ) ;
+        }
+        else
+        {
+            options = LEGACY ;
+        }
+    }
+
+    @Benchmark
+    public String patch()
+    {
+        return VmOptionsPatch.patch( options, JRE, AGENT_OPTIONS ) ;
+    }
+
+    @Benchmark
+    public String unpatch()
+    {
+        return VmOptionsPatch.unpatch( options ) ;
+    }
+
+    @Benchmark
+    public boolean parse()
+    {
+        return VmOptions.parse( options ).hasHotswapAgent() ;
+    }
+}
@@ -0,0 +1,212 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Rozbalení syntetického vydání velikosti skutečného vydání DCEVM s Hotswap agentem
+ *
+ * Vydání obsahuje knihovnu JVM, JAR agenta a adresář s pluginy. Měří se souběžné rozbalení ze
+ * ZIP souboru, rozbalení přímo ze stahovaných dat a opakovaná instalace stejného vydání, kdy
+ * se nezměněné soubory přeskočí podle manifestu.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ZipExtractorBenchmark
+{
+    /**
+     * Velikost nezkomprimovaného vydání v MB
+     */
+    @Param( { "24" } )
+    public int size ;
+
+    /**
+     * Počet pluginů agenta
+     */
+    @Param( { "60" } )
+    public int plugins ;
+
+    private File bundle ;
+
+    /**
+     * Prázdný výstupní adresář pro každé rozbalení
+     */
+    private File output ;
+
+    /**
+     * Výstupní adresář s již rozbaleným vydáním
+     */
+    private File installed ;
+
+    @Setup( Level.Trial )
+    public void createBundle() throws IOException
+    {
+        bundle = File.createTempFile( "hotswap-bench", ".zip" ) ;
+
+        final Random random = new Random( 42 ) ;
+        final ZipOutputStream out = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( bundle ) ) ) ;
+        final long total = size * 1024L * 1024L ;
+
+        try
+        {
+            addEntry( out, "Linux_Amd64bit/libjvm.so", total * 3 / 4, random ) ;
+            addEntry( out, "HotswapAgent.jar", total / 16, random ) ;
+
+            for ( int i = 0 ; i < plugins ; i++ )
+            {
+                addEntry( out, "plugin/hotswap-agent-plugin-" + i + ".jar", ( total - total * 3 / 4 - total / 16 ) / plugins, random ) ;
+            }
+        }
+        finally
+        {
+            out.close() ;
+        }
+
+        installed = createDirectory( "installed" ) ;
+        extract( installed ) ;
+    }
+
+    @Setup( Level.Invocation )
+    public void createOutput() throws IOException
+    {
+        output = createDirectory( "output" ) ;
+    }
+
+    @TearDown( Level.Invocation )
+    public void deleteOutput()
+    {
+        FileUtil.delete( output ) ;
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteBundle()
+    {
+        FileUtil.delete( installed ) ;
+        FileUtil.delete( bundle ) ;
+    }
+
+    @Benchmark
+    public long extractZipFile() throws IOException
+    {
+        return extract( output ) ;
+    }
+
+    @Benchmark
+    public long extractStream() throws IOException
+    {
+        final ZipExtractor extractor = new ZipExtractor( output, null, true ) ;
+        final InputStream in = new BufferedInputStream( new FileInputStream( bundle ) ) ;
+
+        try
+        {
+            extractor.extract( new ZipInputStream( in ) ) ;
+        }
+        finally
+        {
+            in.close() ;
+        }
+
+        return extractor.getBytes() ;
+    }
+
+    @Benchmark
+    public long extractUnchanged() throws IOException
+    {
+        return extract( installed ) ;
+    }
+
+    /**
+     * @param directory     výstupní adresář
+     * @return počet zapsaných bajtů
+     */
+    private long extract( File directory ) throws IOException
+    {
+        final ZipExtractor extractor = new ZipExtractor( directory, null, true ) ;
+        final ZipFile zipFile = new ZipFile( bundle ) ;
+
+        try
+        {
+            extractor.extract( zipFile ) ;
+        }
+        finally
+        {
+            zipFile.close() ;
+        }
+
+        return extractor.getBytes() ;
+    }
+
+    /**
+     * Přidání položky s daty komprimovatelnými přibližně jako nativní knihovny
+     *
+     * @param out       ZIP soubor
+     * @param name      název položky
+     * @param length    délka dat
+     * @param random    generátor dat
+     */
+    static void addEntry( ZipOutputStream out, String name, long length, Random random ) throws IOException
+    {
+        final byte[] buffer = new byte[ 64 * 1024 ] ;
+
+        out.putNextEntry( new ZipEntry( name ) ) ;
+
+        for ( long written = 0 ; written < length ; written += buffer.length )
+        {
+            for ( int i = 0 ; i < buffer.length ; i++ )
+            {
+                buffer[ i ] = ( byte )( ( random.nextInt( 4 ) == 0 ) ? random.nextInt() : i % 64 ) ;
+            }
+
+            out.write( buffer, 0, ( int )Math.min( buffer.length, length - written ) ) ;
+        }
+
+        out.closeEntry() ;
+    }
+
+    /**
+     * @param prefix    prefix názvu
+     * @return nový prázdný dočasný adresář
+     */
+    static File createDirectory( String prefix ) throws IOException
+    {
+        final File directory = File.createTempFile( "hotswap-bench-" + prefix, "" ) ;
+
+        if ( ( ! directory.delete() ) || ( ! directory.mkdir() ) )
+        {
+            throw new IOException( "Can`t create directory " + directory ) ;
+        }
+
+        return directory ;
+    }
+}
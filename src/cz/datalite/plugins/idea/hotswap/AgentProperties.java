@@ -0,0 +1,263 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.CompilerModuleExtension;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.model.java.JavaResourceRootType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Generované hotswap-agent.properties pro moduly projektu
+ *
+ * Agent dostane výstupní adresáře překladu modulu a jeho závislostí jako <code>extraClasspath</code>
+ * a adresáře zdrojů jako <code>watchResources</code>, takže změny načítá přímo z výstupu překladu.
+ * Pluginy agenta pro frameworky, které Maven moduly nepoužívají, se vypnou v <code>disabledPlugins</code>.
+ * Soubory jsou v systémovém adresáři IDE a přepisují se jen při změně obsahu. Modul s vlastním
+ * hotswap-agent.properties ve zdrojích se nemění. Cesta k souboru se zjistí bez jeho generování,
+ * soubor se generuje jen při úpravě konfigurace a při změně struktury projektu.
+ */
+public class AgentProperties
+{
+    /**
+     * Název konfiguračního souboru agenta
+     */
+    public final static String FILE_NAME = "hotswap-agent.properties" ;
+
+    /**
+     * Aktuální projekt
+     */
+    private final Project project ;
+
+    /**
+     * Jména modulů s vygenerovaným souborem
+     */
+    private final Set<String> generated = new LinkedHashSet<String>() ;
+
+    /**
+     * @param project   aktuální projekt
+     */
+    public AgentProperties( @NotNull Project project )
+    {
+        this.project = project ;
+    }
+
+    /**
+     * Parametry agenta pro modul, soubor se negeneruje, volá se v read action
+     *
+     * @param module    modul spouštěné konfigurace
+     * @return parametry agenta s cestou k souboru, nebo null pokud má modul vlastní soubor
+     */
+    @Nullable
+    public String getAgentOptions( @NotNull Module module )
+    {
+        for ( Module dependency : getModules( module ) )
+        {
+            for ( VirtualFile root : ModuleRootManager.getInstance( dependency ).getSourceRoots( JavaResourceRootType.RESOURCE ) )
+            {
+                if ( root.findChild( FILE_NAME ) != null )
+                {
+                    //Konfiguraci agenta spravuje projekt
+                    return null ;
+                }
+            }
+        }
+
+        return "propertiesFilePath=" + FileUtil.toSystemIndependentName( getFile( module ).getAbsolutePath() ) ;
+    }
+
+    /**
+     * Vygenerování souboru pro modul, volá se v read action
+     *
+     * @param module    modul spouštěné konfigurace
+     */
+    public void generate( @NotNull Module module ) throws IOException
+    {
+        generate( module, getModules( module ) ) ;
+    }
+
+    /**
+     * Vygenerování souboru jen pokud chybí, existující soubor se přegeneruje až při změně
+     * struktury projektu
+     *
+     * @param module    modul již upravené konfigurace
+     */
+    public void ensure( @NotNull Module module ) throws IOException
+    {
+        if ( getFile( module ).isFile() )
+        {
+            synchronized ( generated )
+            {
+                generated.add( module.getName() ) ;
+            }
+        }
+        else
+        {
+            generate( module ) ;
+        }
+    }
+
+    /**
+     * Přegenerování souborů všech dříve použitých modulů po změně struktury projektu
+     */
+    public void regenerate() throws IOException
+    {
+        final ModuleManager moduleManager = ModuleManager.getInstance( project ) ;
+
+        synchronized ( generated )
+        {
+            for ( String name : generated.toArray( new String[ generated.size() ] ) )
+            {
+                final Module module = moduleManager.findModuleByName( name ) ;
+
+                if ( module != null )
+                {
+                    generate( module, getModules( module ) ) ;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param module    modul spouštěné konfigurace
+     * @param modules   modul a jeho závislosti
+     */
+    private void generate( @NotNull Module module, @NotNull Set<Module> modules ) throws IOException
+    {
+        final Set<String> extraClasspath = new LinkedHashSet<String>() ;
+        final Set<String> watchResources = new LinkedHashSet<String>() ;
+
+        for ( Module dependency : modules )
+        {
+            final CompilerModuleExtension extension = CompilerModuleExtension.getInstance( dependency ) ;
+
+            if ( ( extension != null ) && ( extension.getCompilerOutputUrl() != null ) )
+            {
+                extraClasspath.add( VfsUtilCore.urlToPath( extension.getCompilerOutputUrl() ) ) ;
+            }
+
+            for ( VirtualFile root : ModuleRootManager.getInstance( dependency ).getSourceRoots( JavaResourceRootType.RESOURCE ) )
+            {
+                watchResources.add( root.getPath() ) ;
+            }
+        }
+
+        final String disabledPlugins = DisabledPlugins.getDisabledPlugins( project, modules ) ;
+        final String content = "# Generated by " + HotswapAgentIntegration.GITHUB_PROJECT + " IntelliJ plugin for module " + module.getName() + ", changes will be overwritten\n"
+                + "extraClasspath=" + join( extraClasspath ) + "\n"
+                + "watchResources=" + join( watchResources ) + "\n"
+                + ( ( disabledPlugins != null ) ? "disabledPlugins=" + disabledPlugins + "\n" : "" ) ;
+
+        final File file = getFile( module ) ;
+
+        synchronized ( generated )
+        {
+            generated.add( module.getName() ) ;
+
+            if ( ( ! file.isFile() ) || ( ! content.equals( FileUtil.loadFile( file ) ) ) )
+            {
+                FileUtil.createParentDirs( file ) ;
+                FileUtil.writeToFile( file, content ) ;
+            }
+        }
+    }
+
+    /**
+     * @param module    modul
+     * @return soubor modulu v systémovém adresáři IDE
+     */
+    @NotNull
+    private File getFile( @NotNull Module module )
+    {
+        return new File( PathManager.getSystemPath(), "hotswap" + File.separatorChar + project.getLocationHash() + File.separatorChar
+                + module.getName().replaceAll( "[^A-Za-z0-9._-]", "_" ) + File.separatorChar + FILE_NAME ) ;
+    }
+
+    /**
+     * @param module    modul
+     * @return modul a všechny jeho závislosti
+     */
+    @NotNull
+    private static Set<Module> getModules( @NotNull Module module )
+    {
+        final Set<Module> modules = new LinkedHashSet<Module>() ;
+
+        collect( module, modules ) ;
+
+        return modules ;
+    }
+
+    private static void collect( @NotNull Module module, @NotNull Set<Module> modules )
+    {
+        if ( modules.add( module ) )
+        {
+            for ( Module dependency : ModuleRootManager.getInstance( module ).getDependencies() )
+            {
+                collect( dependency, modules ) ;
+            }
+        }
+    }
+
+    /**
+     * @param paths     cesty
+     * @return cesty oddělené čárkou s oddělovači '/'
+     */
+    @NotNull
+    private static String join( @NotNull Set<String> paths )
+    {
+        final StringBuilder builder = new StringBuilder() ;
+
+        for ( String path : paths )
+        {
+            if ( builder.length() > 0 )
+            {
+                builder.append( ',' ) ;
+            }
+
+            builder.append( FileUtil.toSystemIndependentName( path ) ) ;
+        }
+
+        return builder.toString() ;
+    }
+
+    /**
+     * @param project   aktuální projekt
+     * @param path      adresář, například pracovní adresář Mavenu
+     * @return modul s kořenem v adresáři, nebo null
+     */
+    @Nullable
+    public static Module findModule( @NotNull Project project, @Nullable String path )
+    {
+        if ( path == null )
+        {
+            return null ;
+        }
+
+        final String normalized = FileUtil.toSystemIndependentName( new File( path ).getAbsolutePath() ) ;
+
+        for ( Module module : ModuleManager.getInstance( project ).getModules() )
+        {
+            for ( VirtualFile root : ModuleRootManager.getInstance( module ).getContentRoots() )
+            {
+                if ( normalized.equals( root.getPath() ) )
+                {
+                    return module ;
+                }
+            }
+        }
+
+        return null ;
+    }
+}
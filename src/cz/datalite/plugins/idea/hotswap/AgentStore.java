@@ -0,0 +1,456 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Sdílené úložiště rozbalených vydání v domovském adresáři uživatele
+ *
+ * Každé vydání se rozbalí jen jednou do <code>~/.hotswap/agents/&lt;vydání&gt;/</code> a do adresářů
+ * jednotlivých JDK se nasazuje pevnými odkazy, pokud to souborový systém nedovolí, tak kopií.
+ * Soubory v úložišti se po dokončení rozbalení již nemění, takže je odkazy mohou bezpečně sdílet.
+ * Nejdéle nepoužitá vydání se odstraňují. Adresář úložiště lze nastavit, odstraňují se proto jen
+ * adresáře, které úložiště samo vytvořilo.
+ *
+ * Nové vydání se rozbaluje do adresáře předem naplněného odkazy na soubory naposledy použitého
+ * vydání i s jejich {@link InstallManifest}. Rozbalení tak přeskočí nezměněné položky a vzdálený
+ * ZIP soubor stáhne jen změněné.
+ */
+public class AgentStore
+{
+    /**
+     * Klíč nastavení s vlastním adresářem úložiště
+     */
+    public final static String ROOT_KEY = "cz.datalite.plugins.idea.hotswap.store" ;
+
+    /**
+     * Klíč nastavení s počtem ponechaných vydání
+     */
+    public final static String KEEP_KEY = "cz.datalite.plugins.idea.hotswap.store.keep" ;
+
+    /**
+     * Výchozí počet ponechaných vydání
+     */
+    private final static int DEFAULT_KEEP = 3 ;
+
+    /**
+     * Soubor označující úplně rozbalené vydání, čas jeho změny je čas posledního použití
+     */
+    private final static String COMPLETE_FILE = ".hotswap-complete" ;
+
+    /**
+     * Soubor označující adresář vytvořený úložištěm
+     */
+    private final static String STORE_FILE = ".hotswap-store" ;
+
+    /**
+     * Přípona adresáře s rozbalovaným vydáním
+     */
+    private final static String TMP_SUFFIX = ".tmp" ;
+
+    /**
+     * Files.createLink(Path, Path), nebo null na Javě 6
+     */
+    private final static Method CREATE_LINK ;
+
+    /**
+     * File.toPath(), nebo null na Javě 6
+     */
+    private final static Method TO_PATH ;
+
+    static
+    {
+        Method createLink = null ;
+        Method toPath = null ;
+
+        try
+        {
+            final Class<?> pathClass = Class.forName( "java.nio.file.Path" ) ;
+
+            toPath = File.class.getMethod( "toPath" ) ;
+            createLink = Class.forName( "java.nio.file.Files" ).getMethod( "createLink", pathClass, pathClass ) ;
+        }
+        catch ( Exception e )
+        {
+            //Java 6 pevné odkazy nepodporuje, nasazuje se kopií
+            createLink = null ;
+        }
+
+        CREATE_LINK = createLink ;
+        TO_PATH = toPath ;
+    }
+
+    /**
+     * Adresář úložiště
+     */
+    private final File root ;
+
+    /**
+     * @param root  adresář úložiště
+     */
+    public AgentStore( @NotNull File root )
+    {
+        this.root = root ;
+    }
+
+    /**
+     * @return úložiště podle nastavení, výchozí je <code>~/.hotswap/agents</code>
+     */
+    @NotNull
+    public static AgentStore getDefault()
+    {
+        final String path = PropertiesComponent.getInstance().getValue( ROOT_KEY ) ;
+
+        if ( ( path != null ) && ( path.trim().length() > 0 ) )
+        {
+            return new AgentStore( new File( path.trim() ) ) ;
+        }
+
+        return new AgentStore( new File( System.getProperty( "user.home" ), ".hotswap" + File.separatorChar + "agents" ) ) ;
+    }
+
+    /**
+     * @return adresář úložiště
+     */
+    @NotNull
+    public File getRoot()
+    {
+        return root ;
+    }
+
+    /**
+     * @param tagName   vydání
+     * @return adresář vydání
+     */
+    @NotNull
+    public File getDirectory( @NotNull String tagName )
+    {
+        return new File( root, tagName.replaceAll( "[^A-Za-z0-9._-]", "_" ) ) ;
+    }
+
+    /**
+     * @param tagName   vydání
+     * @return příznak, zda je vydání úplně rozbaleno
+     */
+    public boolean contains( @NotNull String tagName )
+    {
+        final File directory = getDirectory( tagName ) ;
+
+        return ( new File( directory, COMPLETE_FILE ).isFile() ) && ( InstallManifest.load( directory ).isInstalled( directory ) ) ;
+    }
+
+    /**
+     * Příprava adresáře pro rozbalení vydání, naplněného soubory naposledy použitého vydání
+     *
+     * @param tagName   vydání
+     * @return adresář pro rozbalení
+     */
+    @NotNull
+    public File prepare( @NotNull String tagName ) throws IOException
+    {
+        final File directory = new File( getDirectory( tagName ).getPath() + TMP_SUFFIX ) ;
+
+        create( directory, tagName ) ;
+
+        final List<File> versions = getVersions() ;
+
+        versions.remove( getDirectory( tagName ) ) ;
+
+        if ( ! versions.isEmpty() )
+        {
+            try
+            {
+                seed( directory, versions.get( 0 ) ) ;
+            }
+            catch ( IOException e )
+            {
+                //Rozbalí se celé vydání
+                create( directory, tagName ) ;
+            }
+        }
+
+        return directory ;
+    }
+
+    /**
+     * Vytvoření prázdného adresáře úložiště
+     *
+     * @param directory     vytvářený adresář
+     * @param tagName       vydání
+     */
+    private static void create( @NotNull File directory, @NotNull String tagName ) throws IOException
+    {
+        FileUtil.delete( directory ) ;
+
+        if ( ( ! directory.mkdirs() ) && ( ! directory.isDirectory() ) )
+        {
+            throw new IOException( "Can`t create " + directory.getAbsolutePath() ) ;
+        }
+
+        FileUtil.writeToFile( new File( directory, STORE_FILE ), tagName ) ;
+    }
+
+    /**
+     * Naplnění adresáře odkazy na soubory úplného vydání a jeho seznamem souborů
+     *
+     * Rozbalení změněné soubory nahrazuje přejmenováním, soubory sdíleného vydání se tak nezmění.
+     *
+     * @param directory     připravovaný adresář
+     * @param version       adresář úplného vydání
+     */
+    private static void seed( @NotNull File directory, @NotNull File version ) throws IOException
+    {
+        final InstallManifest manifest = InstallManifest.load( version ) ;
+
+        if ( ! manifest.isInstalled( version ) )
+        {
+            return ;
+        }
+
+        for ( String path : manifest.getPaths() )
+        {
+            final File file = new File( version, path ) ;
+            final File target = new File( directory, path ) ;
+
+            FileUtil.createParentDirs( target ) ;
+
+            if ( ! createLink( target, file ) )
+            {
+                FileUtil.copy( file, target ) ;
+            }
+        }
+
+        manifest.save( directory ) ;
+    }
+
+    /**
+     * Dokončení rozbalení, od této chvíle se soubory vydání nemění
+     *
+     * @param tagName   vydání
+     */
+    public void commit( @NotNull String tagName ) throws IOException
+    {
+        final File directory = getDirectory( tagName ) ;
+        final File prepared = new File( directory.getPath() + TMP_SUFFIX ) ;
+        final InstallManifest manifest = InstallManifest.load( prepared ) ;
+
+        if ( ( manifest.isEmpty() ) || ( ! manifest.isInstalled( prepared ) ) )
+        {
+            throw new IOException( "Extraction to " + prepared.getAbsolutePath() + " is incomplete" ) ;
+        }
+
+        FileUtil.writeToFile( new File( prepared, COMPLETE_FILE ), tagName ) ;
+        FileUtil.delete( directory ) ;
+
+        if ( ! prepared.renameTo( directory ) )
+        {
+            throw new IOException( "Can`t move " + prepared.getAbsolutePath() + " to " + directory.getAbsolutePath() ) ;
+        }
+    }
+
+    /**
+     * Nasazení vydání do adresáře, nezměněné soubory se přeskočí
+     *
+     * @param tagName       vydání
+     * @param directory     cílový adresář
+     */
+    public void deploy( @NotNull String tagName, @NotNull File directory ) throws IOException
+    {
+        final File source = getDirectory( tagName ) ;
+        final InstallManifest manifest = InstallManifest.load( source ) ;
+        final InstallManifest installed = InstallManifest.load( directory ) ;
+
+        if ( manifest.isEmpty() )
+        {
+            throw new IOException( "Release '" + tagName + "' is not available in " + root.getAbsolutePath() ) ;
+        }
+
+        for ( String path : manifest.getPaths() )
+        {
+            final File file = new File( source, path ) ;
+            final File target = new File( directory, path ) ;
+
+            if ( ( ! installed.matches( path, manifest ) ) || ( target.length() != file.length() ) )
+            {
+                link( file, target ) ;
+            }
+        }
+
+        for ( String path : installed.getPaths() )
+        {
+            if ( ! manifest.getPaths().contains( path ) )
+            {
+                FileUtil.delete( new File( directory, path ) ) ;
+            }
+        }
+
+        manifest.save( directory ) ;
+
+        touch( tagName ) ;
+    }
+
+    /**
+     * Zaznamenání použití vydání
+     *
+     * @param tagName   vydání
+     */
+    public void touch( @NotNull String tagName )
+    {
+        final File complete = new File( getDirectory( tagName ), COMPLETE_FILE ) ;
+
+        if ( complete.isFile() )
+        {
+            //noinspection ResultOfMethodCallIgnored
+            complete.setLastModified( System.currentTimeMillis() ) ;
+        }
+    }
+
+    /**
+     * Odstranění nejdéle nepoužitých a poškozených vydání, ostatní adresáře se ponechají
+     *
+     * @param keep      počet ponechaných vydání, nebo -1 podle nastavení
+     */
+    public void collect( int keep )
+    {
+        final int count = ( keep >= 0 ) ? keep : getKeep() ;
+        final File[] files = root.listFiles() ;
+
+        if ( files == null )
+        {
+            return ;
+        }
+
+        for ( File file : files )
+        {
+            if ( ( ! new File( file, COMPLETE_FILE ).isFile() ) && ( new File( file, STORE_FILE ).isFile() ) && ( ! file.getName().endsWith( TMP_SUFFIX ) ) )
+            {
+                //Poškozené vydání, rozbalované vydání se ponechá jeho instalaci
+                FileUtil.delete( file ) ;
+            }
+        }
+
+        final List<File> versions = getVersions() ;
+
+        for ( File version : versions.subList( Math.min( count, versions.size() ), versions.size() ) )
+        {
+            FileUtil.delete( version ) ;
+        }
+    }
+
+    /**
+     * @return adresáře úplně rozbalených vydání od naposledy použitého
+     */
+    @NotNull
+    private List<File> getVersions()
+    {
+        final File[] files = root.listFiles() ;
+        final List<File> versions = new ArrayList<File>() ;
+
+        if ( files == null )
+        {
+            return versions ;
+        }
+
+        for ( File file : files )
+        {
+            if ( new File( file, COMPLETE_FILE ).isFile() )
+            {
+                versions.add( file ) ;
+            }
+        }
+
+        Collections.sort( versions, new Comparator<File>()
+        {
+            @Override
+            public int compare( File o1, File o2 )
+            {
+                final long used1 = new File( o1, COMPLETE_FILE ).lastModified() ;
+                final long used2 = new File( o2, COMPLETE_FILE ).lastModified() ;
+
+                return ( used1 < used2 ) ? 1 : ( ( used1 == used2 ) ? 0 : -1 ) ;
+            }
+        } ) ;
+
+        return versions ;
+    }
+
+    /**
+     * @return počet ponechaných vydání podle nastavení
+     */
+    private static int getKeep()
+    {
+        try
+        {
+            return Math.max( 1, Integer.parseInt( PropertiesComponent.getInstance().getValue( KEEP_KEY, String.valueOf( DEFAULT_KEEP ) ) ) ) ;
+        }
+        catch ( NumberFormatException e )
+        {
+            return DEFAULT_KEEP ;
+        }
+    }
+
+    /**
+     * Vytvoření pevného odkazu, nebo kopie, nahrazovaný soubor se vymění až po vytvoření
+     *
+     * Symbolické odkazy se nepoužívají, HotSpot k <code>-XXaltjvm</code> knihovně hledá JRE podle
+     * skutečné cesty a odstraněním vydání z úložiště by odkazy přestaly fungovat.
+     *
+     * @param source    soubor v úložišti
+     * @param target    cílový soubor
+     */
+    private static void link( @NotNull File source, @NotNull File target ) throws IOException
+    {
+        final File tmp = new File( target.getPath() + TMP_SUFFIX ) ;
+
+        FileUtil.createParentDirs( target ) ;
+        FileUtil.delete( tmp ) ;
+
+        if ( ! createLink( tmp, source ) )
+        {
+            FileUtil.copy( source, tmp ) ;
+        }
+
+        InstallManifest.replace( tmp, target ) ;
+    }
+
+    /**
+     * @param link          vytvářený odkaz
+     * @param existing      existující soubor
+     * @return příznak, zda byl odkaz vytvořen
+     */
+    private static boolean createLink( @NotNull File link, @NotNull File existing )
+    {
+        if ( CREATE_LINK == null )
+        {
+            return false ;
+        }
+
+        try
+        {
+            CREATE_LINK.invoke( null, TO_PATH.invoke( link ), TO_PATH.invoke( existing ) ) ;
+
+            return true ;
+        }
+        catch ( Exception e )
+        {
+            //Jiný svazek, FAT nebo chybějící oprávnění
+            return false ;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return root.getAbsolutePath() ;
+    }
+}
@@ -0,0 +1,411 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtilRt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+
+/**
+ * Stažení vydání ze zdroje a jeho rozbalení do úložiště
+ *
+ * Vydání se rozbaluje přímo ze stahovaných dat, po přerušení spojení se stahování dokončí do
+ * dočasného souboru s navazováním. Zprávy pro uživatele se předávají posluchači, třída tak
+ * nepoužívá API IDE a benchmark instalace ji spouští proti lokálnímu serveru.
+ */
+public class BundleInstaller
+{
+    /**
+     * Příjemce zpráv o průběhu instalace
+     */
+    public interface Listener
+    {
+        void info( @NotNull String message ) ;
+
+        void warn( @NotNull String message ) ;
+
+        void error( @NotNull String message ) ;
+    }
+
+    /**
+     * Úložiště vydání
+     */
+    private final AgentStore store ;
+
+    /**
+     * Filtr instalovaných položek
+     */
+    private final FilenameFilter filter ;
+
+    private final Listener listener ;
+
+    /**
+     * @param store         úložiště vydání
+     * @param filter        filtr instalovaných položek
+     * @param listener      příjemce zpráv
+     */
+    public BundleInstaller( @NotNull AgentStore store, @NotNull FilenameFilter filter, @NotNull Listener listener )
+    {
+        this.store = store ;
+        this.filter = filter ;
+        this.listener = listener ;
+    }
+
+    /**
+     * Stažení souboru ze zdroje vydání a jeho rozbalení do úložiště
+     *
+     * Zveřejňuje-li zdroj vydání pro tuto platformu, stáhne se místo společného. Bez otisku celého
+     * souboru se ze serveru podporujícího dotazy <code>Range</code> stáhnou jen potřebné položky,
+     * jinak se vydání stahuje celé, aby bylo možné otisk ověřit.
+     *
+     * @param source            zdroj vydání
+     * @param tagName           stahované vydání
+     * @param destination       dočasný soubor pro navazované stahování
+     * @param streaming         příznak, zda se má rozbalovat přímo ze stahovaných dat
+     * @param ranged            příznak, zda se mají stahovat jen potřebné položky
+     * @param indicator         indikátor průběhu stahování
+     * @return příznak, zda je vydání v úložišti
+     */
+    public boolean install( @NotNull ReleaseSource source, @NotNull String tagName, @NotNull File destination, boolean streaming, boolean ranged, @NotNull ProgressIndicator indicator )
+    {
+        final File localBundle = source.getLocalBundle( tagName ) ;
+        final String url ;
+        final String expectedDigest ;
+
+        try
+        {
+            if ( localBundle != null )
+            {
+                //Vydání je ve sdíleném adresáři, nic se nestahuje
+                BundleVerifier.verify( localBundle, BundleVerifier.getExpectedDigest( tagName, source ) ) ;
+                install( localBundle, tagName, indicator ) ;
+
+                return true ;
+            }
+
+            //Připnutý otisk platí pro společné vydání
+            final String pinnedDigest = BundleVerifier.getPinnedDigest( tagName ) ;
+            final String platformUrl = ( pinnedDigest == null ) ? source.getPlatformBundleUrl( tagName ) : null ;
+
+            url = ( platformUrl != null ) ? platformUrl : source.getBundleUrl( tagName ) ;
+            expectedDigest = ( pinnedDigest != null ) ? pinnedDigest : BundleVerifier.getPublishedDigest( url ) ;
+
+            if ( ( ranged ) && ( platformUrl == null ) && ( expectedDigest == null ) )
+            {
+                try
+                {
+                    if ( fetchEntries( url, tagName, indicator ) )
+                    {
+                        //Položky ověřilo jen CRC
+                        BundleVerifier.unverified() ;
+
+                        return true ;
+                    }
+                }
+                catch ( IOException e )
+                {
+                    listener.warn( "Partial download of " + HotswapAgentIntegration.GITHUB_PROJECT + " failed, downloading the whole release: " + e.getMessage() ) ;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            listener.error( e.getMessage() ) ;
+
+            return false ;
+        }
+
+        if ( streaming )
+        {
+            try
+            {
+                return stream( url, tagName, expectedDigest, indicator ) ;
+            }
+            catch ( BundleVerifier.ChecksumMismatchException e )
+            {
+                listener.error( e.getMessage() ) ;
+
+                return false ;
+            }
+            catch ( IOException e )
+            {
+                listener.warn( "Download of " + HotswapAgentIntegration.GITHUB_PROJECT + " interrupted, continuing with resumable download: " + e.getMessage() ) ;
+            }
+        }
+
+        try
+        {
+            final MessageDigest digest = BundleVerifier.createDigest() ;
+            final PhaseMetrics.Phase phase = PhaseMetrics.start( "download" ).set( "streaming", 0 ) ;
+            final File file ;
+
+            try
+            {
+                file = new ResumableDownloader( HotswapAgentIntegration.DOWNLOAD_RETRIES, HotswapAgentIntegration.DOWNLOAD_BACKOFF ).download( url, destination, indicator, digest ) ;
+                phase.set( "bytes", file.length() ).succeed() ;
+            }
+            finally
+            {
+                phase.finish() ;
+            }
+
+            try
+            {
+                //Otisk se spočítal při stahování, do JRE se nic nezapíše před ověřením
+                BundleVerifier.verify( digest, expectedDigest ) ;
+            }
+            catch ( IOException e )
+            {
+                ResumableDownloader.discard( destination ) ;
+
+                throw e ;
+            }
+
+            listener.info( String.format( "Release '%s' downloaded to '%s'", tagName, file.getAbsolutePath() ) ) ;
+
+            try
+            {
+                install( file, tagName, indicator ) ;
+            }
+            finally
+            {
+                FileUtilRt.delete( file ) ;
+            }
+
+            return true ;
+        }
+        catch ( IOException e )
+        {
+            listener.error( e.getMessage() ) ;
+
+            return false ;
+        }
+    }
+
+    /**
+     * Stažení jen potřebných položek podle centrálního adresáře
+     *
+     * @param url               adresa vydání
+     * @param tagName           stahované vydání
+     * @param indicator         indikátor průběhu stahování
+     * @return příznak, zda je vydání v úložišti, false pokud server nepodporuje dotazy <code>Range</code>
+     *         nebo neposílá ETag ani Last-Modified
+     * @throws IOException pokud se stahování nebo rozbalení nepodařilo
+     */
+    private boolean fetchEntries( @NotNull String url, @NotNull String tagName, @NotNull ProgressIndicator indicator ) throws IOException
+    {
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "download" ).set( "ranged", 1 ) ;
+        RemoteZip zip = null ;
+
+        try
+        {
+            zip = RemoteZip.open( url ) ;
+
+            if ( zip == null )
+            {
+                phase.setOutcome( "unsupported" ) ;
+
+                return false ;
+            }
+
+            install( zip, tagName, indicator ) ;
+            phase.succeed() ;
+
+            return true ;
+        }
+        finally
+        {
+            phase.set( "bytes", ( zip != null ) ? zip.getTransferred() : 0 ).finish() ;
+        }
+    }
+
+    /**
+     * Rozbalení přímo ze spojení, nepotřebné položky se jen přečtou
+     *
+     * @param url               adresa vydání
+     * @param tagName           stahované vydání
+     * @param expectedDigest    očekávaný otisk SHA-256, nebo null
+     * @param indicator         indikátor průběhu stahování
+     * @return příznak, zda je vydání v úložišti, false pokud server stahování odmítl
+     * @throws IOException pokud se stahování přerušilo
+     */
+    private boolean stream( @NotNull String url, @NotNull String tagName, @Nullable String expectedDigest, @NotNull ProgressIndicator indicator ) throws IOException
+    {
+        final HttpURLConnection connection = HttpConnections.open( url ) ;
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "download" ).set( "streaming", 1 ) ;
+
+        ProgressInputStream progress = null ;
+
+        try
+        {
+            //Surprisingly Dropbox can return instead some 5** error.
+            if ( connection.getResponseCode() != HttpURLConnection.HTTP_OK )
+            {
+                listener.error( "Error download " + HotswapAgentIntegration.GITHUB_PROJECT + " - Server error\n" + connection.getResponseMessage() ) ;
+
+                return false ;
+            }
+
+            final InputStream in = HttpConnections.getInputStream( connection, indicator ) ;
+
+            try
+            {
+                progress = new ProgressInputStream( in, indicator, connection.getContentLength() ) ;
+                install( progress, tagName, expectedDigest ) ;
+                phase.succeed() ;
+
+                return true ;
+            }
+            finally
+            {
+                closeQuietly( in ) ;
+            }
+        }
+        finally
+        {
+            phase.set( "bytes", ( progress != null ) ? progress.getRead() : 0 ).finish() ;
+            connection.disconnect() ;
+        }
+    }
+
+    /**
+     * Rozbalení DCEVM a Hotswap agenta do úložiště
+     *
+     * @param source        zdrojový soubor
+     * @param tagName       instalovaná verze
+     * @param indicator     indikátor průběhu instalace
+     */
+    public void install( @NotNull File source, @NotNull String tagName, @NotNull ProgressIndicator indicator ) throws IOException
+    {
+        listener.info( String.format( "Extract '%s' to '%s'", source.getAbsolutePath(), store ) ) ;
+
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "extract" ) ;
+        final ZipFile zipFile = new ZipFile( source ) ;
+
+        try
+        {
+            indicator.setText( "Extracting " + HotswapAgentIntegration.GITHUB_PROJECT + " " + tagName ) ;
+
+            final ZipExtractor extractor = new ZipExtractor( store.prepare( tagName ), filter, true ) ;
+
+            extractor.extract( zipFile, indicator ) ;
+            store.commit( tagName ) ;
+
+            setCounters( phase, extractor ).succeed() ;
+        }
+        finally
+        {
+            zipFile.close() ;
+            phase.finish() ;
+        }
+    }
+
+    /**
+     * Rozbalení DCEVM a Hotswap agenta do úložiště ze vzdáleného ZIP souboru
+     *
+     * Stahují se jen položky, které se liší od naposledy použitého vydání v úložišti.
+     *
+     * @param source        vzdálený soubor s načteným centrálním adresářem
+     * @param tagName       instalovaná verze
+     * @param indicator     indikátor průběhu instalace
+     */
+    public void install( @NotNull RemoteZip source, @NotNull String tagName, @NotNull ProgressIndicator indicator ) throws IOException
+    {
+        listener.info( String.format( "Extract '%s' to '%s'", tagName, store ) ) ;
+
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "extract" ).set( "ranged", 1 ) ;
+
+        try
+        {
+            indicator.setText( "Downloading " + HotswapAgentIntegration.GITHUB_PROJECT + " " + tagName ) ;
+
+            final ZipExtractor extractor = new ZipExtractor( store.prepare( tagName ), filter, true ) ;
+
+            extractor.extract( source, indicator ) ;
+            store.commit( tagName ) ;
+
+            setCounters( phase, extractor ).succeed() ;
+        }
+        finally
+        {
+            phase.finish() ;
+        }
+    }
+
+    /**
+     * Rozbalení DCEVM a Hotswap agenta do úložiště přímo ze stahovaných dat
+     *
+     * @param source            stahovaná data
+     * @param tagName           instalovaná verze
+     * @param expectedDigest    očekávaný otisk SHA-256, nebo null
+     */
+    public void install( @NotNull InputStream source, @NotNull String tagName, @Nullable String expectedDigest ) throws IOException
+    {
+        listener.info( String.format( "Extract '%s' to '%s'", tagName, store ) ) ;
+
+        final MessageDigest digest = BundleVerifier.createDigest() ;
+        final InputStream in = new DigestInputStream( source, digest ) ;
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "extract" ).set( "streaming", 1 ) ;
+
+        try
+        {
+            final ZipExtractor extractor = new ZipExtractor( store.prepare( tagName ), filter, true ) ;
+
+            extractor.extract( new ZipInputStream( new BufferedInputStream( in ) ) ) ;
+
+            //Dočtení centrálního adresáře, aby otisk zahrnoval celý soubor
+            final byte[] buffer = new byte[ 8192 ] ;
+
+            //noinspection StatementWithEmptyBody
+            while ( in.read( buffer ) >= 0 ) ;
+
+            //Rozbaleno je jen do připravovaného adresáře, při neshodě se do úložiště nepřesune
+            BundleVerifier.verify( digest, expectedDigest ) ;
+
+            store.commit( tagName ) ;
+
+            setCounters( phase, extractor ).succeed() ;
+        }
+        finally
+        {
+            phase.finish() ;
+        }
+    }
+
+    /**
+     * @param phase         měřená fáze
+     * @param extractor     dokončené rozbalení
+     * @return fáze s počty položek a zapsaných bajtů
+     */
+    @NotNull
+    private static PhaseMetrics.Phase setCounters( @NotNull PhaseMetrics.Phase phase, @NotNull ZipExtractor extractor )
+    {
+        return phase.set( "written", extractor.getWritten() ).set( "skipped", extractor.getSkipped() ).set( "bytes", extractor.getBytes() ) ;
+    }
+
+    /**
+     * @param in    uzavíraná data
+     */
+    private static void closeQuietly( @NotNull InputStream in )
+    {
+        try
+        {
+            in.close() ;
+        }
+        catch ( IOException e )
+        {
+            // Ignore
+        }
+    }
+}
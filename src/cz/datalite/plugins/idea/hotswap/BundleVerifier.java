@@ -0,0 +1,286 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Ověření SHA-256 stahovaného vydání
+ *
+ * Otisk se počítá průběžně při kopírování dat, takže ověření nevyžaduje další čtení souboru.
+ * Očekávaná hodnota se bere z nastavení, nebo ze souboru <code>.sha256</code> zveřejněného
+ * u vydání. Vydání bez otisku se nainstaluje, do logu se ale zapíše varování a do měření fáze
+ * <code>verify</code> s výsledkem <code>unverified</code>.
+ */
+public class BundleVerifier
+{
+    private final static Logger LOG = Logger.getInstance( BundleVerifier.class ) ;
+
+    /**
+     * Prefix klíče s pevně nastaveným otiskem vydání, za prefix se doplní název vydání
+     */
+    public final static String DIGEST_KEY_PREFIX = "cz.datalite.plugins.idea.hotswap.sha256." ;
+
+    /**
+     * Přípona souboru s otiskem zveřejněného u vydání
+     */
+    public final static String DIGEST_SUFFIX = ".sha256" ;
+
+    /**
+     * Použitý algoritmus
+     */
+    private final static String ALGORITHM = "SHA-256" ;
+
+    /**
+     * Maximální délka souboru s otiskem
+     */
+    private final static int MAX_DIGEST_FILE_LENGTH = 1024 ;
+
+    /**
+     * @return nový výpočet otisku
+     */
+    @NotNull
+    public static MessageDigest createDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( ALGORITHM ) ;
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e ) ;
+        }
+    }
+
+    /**
+     * Zjištění očekávaného otisku vydání
+     *
+     * @param tagName   stahované vydání
+     * @param source    zdroj vydání
+     * @return otisk v šestnáctkovém tvaru, nebo null pokud není k dispozici
+     */
+    @Nullable
+    public static String getExpectedDigest( @NotNull String tagName, @NotNull ReleaseSource source ) throws IOException
+    {
+        final String pinned = getPinnedDigest( tagName ) ;
+
+        if ( pinned != null )
+        {
+            return pinned ;
+        }
+
+        final File localBundle = source.getLocalBundle( tagName ) ;
+
+        if ( localBundle != null )
+        {
+            final File digestFile = new File( localBundle.getPath() + DIGEST_SUFFIX ) ;
+
+            return digestFile.isFile() ? parse( FileUtil.loadFile( digestFile ) ) : null ;
+        }
+
+        return getPublishedDigest( source.getBundleUrl( tagName ) ) ;
+    }
+
+    /**
+     * @param tagName   stahované vydání
+     * @return otisk souhrnného vydání pevně zadaný v nastavení, nebo null
+     */
+    @Nullable
+    public static String getPinnedDigest( @NotNull String tagName )
+    {
+        //Bez běžícího IDE (benchmarky) nejsou nastavení k dispozici
+        final String pinned = ( ApplicationManager.getApplication() != null ) ? PropertiesComponent.getInstance().getValue( DIGEST_KEY_PREFIX + tagName ) : null ;
+
+        return ( ( pinned != null ) && ( pinned.trim().length() > 0 ) ) ? pinned.trim().toLowerCase() : null ;
+    }
+
+    /**
+     * @param bundleUrl     adresa ZIP souboru
+     * @return otisk zveřejněný vedle ZIP souboru, nebo null pokud ho server nemá
+     */
+    @Nullable
+    public static String getPublishedDigest( @NotNull String bundleUrl ) throws IOException
+    {
+        final HttpURLConnection connection = HttpConnections.open( bundleUrl + DIGEST_SUFFIX ) ;
+
+        try
+        {
+            if ( connection.getResponseCode() != HttpURLConnection.HTTP_OK )
+            {
+                //Vydání otisk nezveřejňuje
+                return null ;
+            }
+
+            final InputStream in = connection.getInputStream() ;
+
+            try
+            {
+                final char[] buffer = new char[ MAX_DIGEST_FILE_LENGTH ] ;
+                final int read = new BufferedReader( new InputStreamReader( in, "US-ASCII" ) ).read( buffer ) ;
+
+                return parse( ( read > 0 ) ? new String( buffer, 0, read ) : "" ) ;
+            }
+            finally
+            {
+                in.close() ;
+            }
+        }
+        finally
+        {
+            connection.disconnect() ;
+        }
+    }
+
+    /**
+     * @param content   obsah souboru s otiskem ve formátu sha256sum: "&lt;otisk&gt;  &lt;soubor&gt;"
+     * @return otisk v šestnáctkovém tvaru, nebo null pokud soubor otisk neobsahuje
+     */
+    @Nullable
+    private static String parse( @NotNull String content )
+    {
+        final String digest = content.trim().split( "\\s+" )[ 0 ].toLowerCase() ;
+
+        return digest.matches( "[0-9a-f]{64}" ) ? digest : null ;
+    }
+
+    /**
+     * Výpočet otisku souboru, který již je v souborovém systému
+     *
+     * @param file      soubor
+     * @return otisk souboru
+     */
+    @NotNull
+    public static MessageDigest digest( @NotNull File file ) throws IOException
+    {
+        final MessageDigest digest = createDigest() ;
+        final InputStream in = new FileInputStream( file ) ;
+
+        try
+        {
+            final byte[] buffer = new byte[ 64 * 1024 ] ;
+            int count ;
+
+            while ( ( count = in.read( buffer ) ) >= 0 )
+            {
+                digest.update( buffer, 0, count ) ;
+            }
+        }
+        finally
+        {
+            in.close() ;
+        }
+
+        return digest ;
+    }
+
+    /**
+     * Porovnání otisku souboru s očekávaným, soubor se čte jen pokud je otisk k dispozici
+     *
+     * @param file          soubor vydání
+     * @param expected      očekávaný otisk, nebo null pokud není k dispozici
+     * @throws IOException pokud se otisky liší
+     */
+    public static void verify( @NotNull File file, @Nullable String expected ) throws IOException
+    {
+        if ( expected == null )
+        {
+            unverified() ;
+
+            return ;
+        }
+
+        verify( digest( file ), expected ) ;
+    }
+
+    /**
+     * Porovnání vypočteného otisku s očekávaným
+     *
+     * @param digest        vypočtený otisk
+     * @param expected      očekávaný otisk, nebo null pokud není k dispozici
+     * @throws IOException pokud se otisky liší
+     */
+    public static void verify( @NotNull MessageDigest digest, @Nullable String expected ) throws IOException
+    {
+        if ( expected == null )
+        {
+            unverified() ;
+
+            return ;
+        }
+
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "verify" ) ;
+
+        try
+        {
+            final String actual = toHex( digest.digest() ) ;
+
+            if ( ! actual.equals( expected ) )
+            {
+                throw new ChecksumMismatchException( String.format( "Checksum mismatch of downloaded " + HotswapAgentIntegration.GITHUB_PROJECT + ", expected %s but was %s", expected, actual ) ) ;
+            }
+
+            phase.succeed() ;
+        }
+        finally
+        {
+            phase.finish() ;
+        }
+    }
+
+    /**
+     * Záznam vydání nainstalovaného bez ověření otisku
+     *
+     * GitHub k vydáním soubor s otiskem nezveřejňuje, ověřit lze jen vydání s otiskem připnutým
+     * v nastavení nebo ze zrcadla, které otisk zveřejňuje.
+     */
+    public static void unverified()
+    {
+        //Bez běžícího IDE (benchmarky) se výsledek jen započítá do měření
+        if ( ApplicationManager.getApplication() != null )
+        {
+            LOG.warn( "No SHA-256 digest available for " + HotswapAgentIntegration.GITHUB_PROJECT + " release, installing it unverified. Pin the digest with " + DIGEST_KEY_PREFIX + "<tag>" ) ;
+        }
+
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "verify" ) ;
+
+        phase.setOutcome( "unverified" ) ;
+        phase.finish() ;
+    }
+
+    /**
+     * @param bytes     data
+     * @return data v šestnáctkovém tvaru
+     */
+    @NotNull
+    public static String toHex( @NotNull byte[] bytes )
+    {
+        final StringBuilder builder = new StringBuilder( bytes.length * 2 ) ;
+
+        for ( byte b : bytes )
+        {
+            builder.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) ) ;
+        }
+
+        return builder.toString() ;
+    }
+
+    /**
+     * Stažená data neodpovídají očekávanému otisku, opakované stažení nepomůže
+     */
+    public static class ChecksumMismatchException extends IOException
+    {
+        public ChecksumMismatchException( String message )
+        {
+            super( message ) ;
+        }
+    }
+}
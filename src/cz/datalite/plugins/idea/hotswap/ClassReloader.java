@@ -0,0 +1,299 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ProjectTopics;
+import com.intellij.debugger.DebuggerManagerEx;
+import com.intellij.debugger.impl.DebuggerSession;
+import com.intellij.debugger.ui.HotSwapUI;
+import com.intellij.execution.ExecutionAdapter;
+import com.intellij.execution.ExecutionManager;
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.execution.configurations.RunProfile;
+import com.intellij.execution.executors.DefaultDebugExecutor;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.runners.ExecutionEnvironment;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.CompilerModuleExtension;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.Alarm;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Dávkové načtení změněných tříd do laděných aplikací
+ *
+ * Sledují se změny class souborů ve výstupních adresářích překladu, ať je zapíše překlad IDE
+ * nebo externí sestavení. Změny se sbírají, dokud nenastane klid po dobu nastavené prodlevy,
+ * a potom se změněné třídy načtou jedním předefinováním do každé ladicí relace spuštěné
+ * z konfigurace s Hotswap agentem. Rychle po sobě uložené změny tak cílovou JVM zastaví jen jednou.
+ */
+public class ClassReloader
+{
+    /**
+     * Klíč nastavení s prodlevou v milisekundách, nula vypíná automatické načítání
+     */
+    public final static String RELOAD_DELAY_KEY = "cz.datalite.plugins.idea.hotswap.reload.delay" ;
+
+    /**
+     * Výchozí prodleva v milisekundách
+     */
+    public final static int DEFAULT_RELOAD_DELAY = 500 ;
+
+    /**
+     * Aktuální projekt
+     */
+    private final Project project ;
+
+    /**
+     * Procesy ladicích relací spuštěných s Hotswap agentem
+     */
+    private final Set<ProcessHandler> handlers = Collections.synchronizedSet( new HashSet<ProcessHandler>() ) ;
+
+    /**
+     * Odložené načtení změněných tříd
+     */
+    private final Alarm alarm ;
+
+    /**
+     * Výstupní adresáře překladu, nebo null pokud se mají znovu zjistit
+     */
+    private volatile List<String> outputs ;
+
+    /**
+     * Příznak, zda se již sledují změny
+     */
+    private boolean listening ;
+
+    /**
+     * @param project   aktuální projekt
+     */
+    public ClassReloader( @NotNull Project project )
+    {
+        this.project = project ;
+        this.alarm = new Alarm( Alarm.ThreadToUse.SWING_THREAD, project ) ;
+    }
+
+    /**
+     * @param project   aktuální projekt
+     * @return instance pro projekt
+     */
+    public static ClassReloader getInstance( @NotNull Project project )
+    {
+        return ServiceManager.getService( project, ClassReloader.class ) ;
+    }
+
+    /**
+     * Zahájení sledování ladicích relací a výstupu překladu, volá se v UI vlákně
+     */
+    public void listen()
+    {
+        if ( listening )
+        {
+            return ;
+        }
+
+        final MessageBusConnection connection = project.getMessageBus().connect( project ) ;
+
+        connection.subscribe( ExecutionManager.EXECUTION_TOPIC, new ExecutionAdapter()
+        {
+            @Override
+            public void processStarted( @NotNull String executorId, @NotNull ExecutionEnvironment env, @NotNull ProcessHandler handler )
+            {
+                if ( ( DefaultDebugExecutor.EXECUTOR_ID.equals( executorId ) ) && ( isPatched( env ) ) )
+                {
+                    handlers.add( handler ) ;
+                }
+            }
+
+            @Override
+            public void processTerminated( @NotNull RunProfile profile, @NotNull ProcessHandler handler )
+            {
+                handlers.remove( handler ) ;
+            }
+        } ) ;
+
+        connection.subscribe( ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter()
+        {
+            @Override
+            public void rootsChanged( ModuleRootEvent event )
+            {
+                outputs = null ;
+            }
+        } ) ;
+
+        ApplicationManager.getApplication().getMessageBus().connect( project ).subscribe( VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter()
+        {
+            @Override
+            public void after( @NotNull List<? extends VFileEvent> events )
+            {
+                if ( ( ! handlers.isEmpty() ) && ( containsClasses( events ) ) )
+                {
+                    schedule() ;
+                }
+            }
+        } ) ;
+
+        listening = true ;
+    }
+
+    /**
+     * @param env   prostředí spuštění
+     * @return příznak, zda byla spuštěna konfigurace s Hotswap agentem
+     */
+    private static boolean isPatched( @NotNull ExecutionEnvironment env )
+    {
+        if ( ! ( env.getRunProfile() instanceof RunConfiguration ) )
+        {
+            return false ;
+        }
+
+        final RunConfiguration configuration = ( RunConfiguration )env.getRunProfile() ;
+        final ConfigurationPatcher patcher = RunConfigurationPatcher.findPatcher( configuration ) ;
+
+        return ( patcher != null ) && ( patcher.isEnabled( configuration ) ) && ( VmOptions.parse( patcher.getVmOptions( configuration ) ).hasHotswapAgent() ) ;
+    }
+
+    /**
+     * @param events    změny souborů
+     * @return příznak, zda se změnil některý class soubor ve výstupu překladu
+     */
+    private boolean containsClasses( @NotNull List<? extends VFileEvent> events )
+    {
+        final List<String> roots = getOutputs() ;
+
+        for ( VFileEvent event : events )
+        {
+            final String path = event.getPath() ;
+
+            if ( path.endsWith( ".class" ) )
+            {
+                for ( String root : roots )
+                {
+                    if ( path.startsWith( root ) )
+                    {
+                        return true ;
+                    }
+                }
+            }
+        }
+
+        return false ;
+    }
+
+    /**
+     * Odložení načtení o prodlevu, každá další změna prodlevu prodlouží
+     */
+    private void schedule()
+    {
+        final int delay = getDelay() ;
+
+        if ( delay <= 0 )
+        {
+            return ;
+        }
+
+        alarm.cancelAllRequests() ;
+        alarm.addRequest( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                reload() ;
+            }
+        }, delay ) ;
+    }
+
+    /**
+     * Načtení všech tříd změněných od posledního načtení do ladicích relací s Hotswap agentem
+     */
+    private void reload()
+    {
+        if ( project.isDisposed() )
+        {
+            return ;
+        }
+
+        for ( DebuggerSession session : DebuggerManagerEx.getInstanceEx( project ).getSessions() )
+        {
+            if ( ( session.isAttached() ) && ( handlers.contains( session.getProcess().getProcessHandler() ) ) )
+            {
+                //Bez překladu, třídy již zapsalo sestavení
+                HotSwapUI.getInstance( project ).reloadChangedClasses( session, false ) ;
+            }
+        }
+    }
+
+    /**
+     * @return výstupní adresáře překladu všech modulů ukončené '/'
+     */
+    @NotNull
+    private List<String> getOutputs()
+    {
+        List<String> result = outputs ;
+
+        if ( result == null )
+        {
+            result = new ArrayList<String>() ;
+
+            for ( Module module : ModuleManager.getInstance( project ).getModules() )
+            {
+                final CompilerModuleExtension extension = CompilerModuleExtension.getInstance( module ) ;
+
+                if ( extension != null )
+                {
+                    addOutput( result, extension.getCompilerOutputUrl() ) ;
+                    addOutput( result, extension.getCompilerOutputUrlForTests() ) ;
+                }
+            }
+
+            outputs = result ;
+        }
+
+        return result ;
+    }
+
+    /**
+     * @param result    výstupní adresáře
+     * @param url       URL výstupního adresáře, nebo null
+     */
+    private static void addOutput( @NotNull List<String> result, @Nullable String url )
+    {
+        if ( url != null )
+        {
+            result.add( FileUtil.toSystemIndependentName( VfsUtilCore.urlToPath( url ) ) + "/" ) ;
+        }
+    }
+
+    /**
+     * @return prodleva v milisekundách
+     */
+    private static int getDelay()
+    {
+        try
+        {
+            return Integer.parseInt( PropertiesComponent.getInstance().getValue( RELOAD_DELAY_KEY, String.valueOf( DEFAULT_RELOAD_DELAY ) ) ) ;
+        }
+        catch ( NumberFormatException e )
+        {
+            return DEFAULT_RELOAD_DELAY ;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+/**
+ * Přístup k parametrům JVM jednoho typu spouštěcí konfigurace
+ *
+ * Implementace se registrují v plugin.xml do <code>cz.datalite.plugins.idea.hotswap.configurationPatcher</code>,
+ * konfiguraci upravuje první implementace, která ji podporuje.
+ */
+public interface ConfigurationPatcher
+{
+    ExtensionPointName<ConfigurationPatcher> EP_NAME = ExtensionPointName.create( "cz.datalite.plugins.idea.hotswap.configurationPatcher" ) ;
+
+    /**
+     * @param configuration     konfigurace
+     * @return příznak, zda implementace konfiguraci upravuje
+     */
+    boolean isSupported( @NotNull RunConfiguration configuration ) ;
+
+    /**
+     * @param configuration     konfigurace
+     * @return příznak, zda se má použít Hotswap agent, jinak se z konfigurace odstraní
+     */
+    boolean isEnabled( @NotNull RunConfiguration configuration ) ;
+
+    /**
+     * @param configuration     konfigurace
+     * @return parametry JVM konfigurace
+     */
+    @Nullable
+    String getVmOptions( @NotNull RunConfiguration configuration ) ;
+
+    /**
+     * @param configuration     konfigurace
+     * @param options           nové parametry JVM
+     */
+    void setVmOptions( @NotNull RunConfiguration configuration, @NotNull String options ) ;
+
+    /**
+     * @param configuration     konfigurace
+     * @return další stav konfigurace, na kterém závisí {@link #isEnabled}, nebo null
+     */
+    @Nullable
+    String getState( @NotNull RunConfiguration configuration ) ;
+
+    /**
+     * @param project           aktuální projekt
+     * @param configuration     konfigurace
+     * @return domovský adresář JDK konfigurace, nebo null pro JDK projektu
+     */
+    @Nullable
+    String getJdkHome( @NotNull Project project, @NotNull RunConfiguration configuration ) ;
+
+    /**
+     * @param project           aktuální projekt
+     * @param configuration     konfigurace
+     * @return spouštěný modul pro vygenerování konfigurace agenta, nebo null
+     */
+    @Nullable
+    Module getModule( @NotNull Project project, @NotNull RunConfiguration configuration ) ;
+}
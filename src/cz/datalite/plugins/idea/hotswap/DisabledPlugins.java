@@ -0,0 +1,159 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.maven.model.MavenArtifact;
+import org.jetbrains.idea.maven.model.MavenPlugin;
+import org.jetbrains.idea.maven.project.MavenProject;
+import org.jetbrains.idea.maven.project.MavenProjectsManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * Zjištění pluginů Hotswap agenta, které spouštěná aplikace nepotřebuje
+ *
+ * Agent při startu inicializuje všechny pluginy pro podporované frameworky. Podle závislostí
+ * a pluginů sestavení z Maven modelu se vypnou pluginy frameworků, které moduly nepoužívají.
+ * Kontejner spouštěný cílem <code>jetty:run</code> nebo <code>tomcat7:run</code> pochází z pluginu
+ * sestavení, ne ze závislostí. Pro moduly mimo Maven se nevypíná nic, jejich závislosti nejsou známé.
+ */
+public class DisabledPlugins
+{
+    /**
+     * Plugin agenta a knihovny, které plugin potřebuje, zadané prefixem groupId nebo přesně
+     * jako groupId:artifactId
+     */
+    private final static Map<String, String[]> PLUGINS = new LinkedHashMap<String, String[]>() ;
+
+    static
+    {
+        PLUGINS.put( "Hibernate", new String[] { "org.hibernate" } ) ;
+        PLUGINS.put( "Hibernate3", new String[] { "org.hibernate" } ) ;
+        PLUGINS.put( "Spring", new String[] { "org.springframework" } ) ;
+        PLUGINS.put( "Seam", new String[] { "org.jboss.seam" } ) ;
+        PLUGINS.put( "ZK", new String[] { "org.zkoss" } ) ;
+        PLUGINS.put( "Jetty", new String[] { "org.eclipse.jetty", "org.mortbay.jetty" } ) ;
+        PLUGINS.put( "Tomcat", new String[] { "org.apache.tomcat", "org.codehaus.mojo:tomcat-maven-plugin" } ) ;
+        PLUGINS.put( "Weld", new String[] { "org.jboss.weld" } ) ;
+        PLUGINS.put( "OWB", new String[] { "org.apache.openwebbeans" } ) ;
+        PLUGINS.put( "Deltaspike", new String[] { "org.apache.deltaspike" } ) ;
+        PLUGINS.put( "Jersey1", new String[] { "com.sun.jersey" } ) ;
+        PLUGINS.put( "Jersey2", new String[] { "org.glassfish.jersey" } ) ;
+        PLUGINS.put( "RestEasy", new String[] { "org.jboss.resteasy" } ) ;
+        PLUGINS.put( "Logback", new String[] { "ch.qos.logback" } ) ;
+        PLUGINS.put( "Log4j2", new String[] { "org.apache.logging.log4j" } ) ;
+        PLUGINS.put( "Velocity", new String[] { "org.apache.velocity" } ) ;
+        PLUGINS.put( "Freemarker", new String[] { "org.freemarker" } ) ;
+        PLUGINS.put( "MyFaces", new String[] { "org.apache.myfaces" } ) ;
+        PLUGINS.put( "Mojarra", new String[] { "com.sun.faces", "org.glassfish:javax.faces" } ) ;
+        PLUGINS.put( "Wicket", new String[] { "org.apache.wicket" } ) ;
+        PLUGINS.put( "Vaadin", new String[] { "com.vaadin" } ) ;
+        PLUGINS.put( "MyBatis", new String[] { "org.mybatis" } ) ;
+        PLUGINS.put( "IBatis", new String[] { "org.apache.ibatis" } ) ;
+        PLUGINS.put( "Undertow", new String[] { "io.undertow" } ) ;
+    }
+
+    /**
+     * @param project   aktuální projekt
+     * @param modules   spouštěný modul a jeho závislosti
+     * @return pluginy agenta oddělené čárkou, nebo null pokud závislosti nejsou známé
+     */
+    @Nullable
+    public static String getDisabledPlugins( @NotNull Project project, @NotNull Set<Module> modules )
+    {
+        final MavenProjectsManager manager = MavenProjectsManager.getInstance( project ) ;
+        final SortedSet<String> coordinates = new TreeSet<String>() ;
+
+        for ( Module module : modules )
+        {
+            final MavenProject mavenProject = manager.findProject( module ) ;
+
+            if ( mavenProject == null )
+            {
+                return null ;
+            }
+
+            for ( MavenArtifact artifact : mavenProject.getDependencies() )
+            {
+                coordinates.add( artifact.getGroupId() + ":" + artifact.getArtifactId() ) ;
+            }
+
+            //Kontejnery spouštěné cíli Mavenu
+            for ( MavenPlugin plugin : mavenProject.getPlugins() )
+            {
+                coordinates.add( plugin.getGroupId() + ":" + plugin.getArtifactId() ) ;
+            }
+        }
+
+        return getDisabledPlugins( coordinates ) ;
+    }
+
+    /**
+     * @param coordinates   groupId:artifactId všech závislostí a pluginů sestavení
+     * @return pluginy agenta oddělené čárkou
+     */
+    @NotNull
+    static String getDisabledPlugins( @NotNull SortedSet<String> coordinates )
+    {
+        final StringBuilder disabled = new StringBuilder() ;
+
+        for ( Map.Entry<String, String[]> plugin : PLUGINS.entrySet() )
+        {
+            if ( ! uses( coordinates, plugin.getValue() ) )
+            {
+                if ( disabled.length() > 0 )
+                {
+                    disabled.append( ',' ) ;
+                }
+
+                disabled.append( plugin.getKey() ) ;
+            }
+        }
+
+        return disabled.toString() ;
+    }
+
+    /**
+     * @param coordinates   groupId:artifactId všech závislostí a pluginů sestavení
+     * @param libraries     knihovny pluginu
+     * @return příznak, zda některá závislost patří pluginu (včetně podřízených groupId)
+     */
+    private static boolean uses( @NotNull SortedSet<String> coordinates, @NotNull String[] libraries )
+    {
+        for ( String library : libraries )
+        {
+            if ( library.indexOf( ':' ) >= 0 )
+            {
+                if ( coordinates.contains( library ) )
+                {
+                    return true ;
+                }
+
+                continue ;
+            }
+
+            //Seřazená množina, stačí hledat od prefixu
+            for ( String coordinate : coordinates.tailSet( library ) )
+            {
+                if ( ( coordinate.startsWith( library + ":" ) ) || ( coordinate.startsWith( library + "." ) ) )
+                {
+                    return true ;
+                }
+
+                if ( ! coordinate.startsWith( library ) )
+                {
+                    break ;
+                }
+            }
+        }
+
+        return false ;
+    }
+}
@@ -0,0 +1,50 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Vydání zveřejněná na GITHUB
+ */
+public class GitHubReleaseSource implements ReleaseSource
+{
+    @Nullable
+    @Override
+    public String getLatestTag() throws IOException
+    {
+        return ReleaseCache.getInstance().getLatestTag( HotswapAgentIntegration.GITHUB_REPOSITORY ) ;
+    }
+
+    @NotNull
+    @Override
+    public String getBundleUrl( @NotNull String tagName )
+    {
+        return String.format( HotswapAgentIntegration.ZIP_URL_PATTERN, tagName, tagName ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getPlatformBundleUrl( @NotNull String tagName )
+    {
+        final String platform = HotswapAgentIntegration.getPlatform() ;
+
+        return ( platform != null ) ? ReleaseCache.getInstance().getAssetUrl( HotswapAgentIntegration.GITHUB_REPOSITORY, tagName, LocalReleaseSource.getBundleName( tagName, platform ) ) : null ;
+    }
+
+    @Nullable
+    @Override
+    public File getLocalBundle( @NotNull String tagName )
+    {
+        return null ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GitHub " + HotswapAgentIntegration.GITHUB_REPOSITORY ;
+    }
+}
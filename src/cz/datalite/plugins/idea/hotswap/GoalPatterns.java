@@ -0,0 +1,66 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ide.util.PropertiesComponent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * Výběr cílů sestavení, které spouštějí aplikaci a mají běžet s Hotswap agentem
+ */
+public class GoalPatterns
+{
+    /**
+     * @param goals         cíle konfigurace
+     * @param key           klíč nastavení se vzory oddělenými čárkou, '*' zastupuje libovolný text
+     * @param defaults      výchozí vzory
+     * @return příznak, zda některý cíl odpovídá některému vzoru
+     */
+    public static boolean matches( @Nullable List<String> goals, @NotNull String key, @NotNull String defaults )
+    {
+        if ( goals == null )
+        {
+            return false ;
+        }
+
+        final String[] patterns = PropertiesComponent.getInstance().getValue( key, defaults ).split( "," ) ;
+
+        for ( String goal : goals )
+        {
+            for ( String pattern : patterns )
+            {
+                if ( ( pattern.trim().length() > 0 ) && ( goal.matches( toRegex( pattern.trim() ) ) ) )
+                {
+                    return true ;
+                }
+            }
+        }
+
+        return false ;
+    }
+
+    /**
+     * @param pattern   vzor cíle, '*' zastupuje libovolný text
+     * @return regulární výraz
+     */
+    @NotNull
+    private static String toRegex( @NotNull String pattern )
+    {
+        final StringBuilder regex = new StringBuilder() ;
+
+        for ( String part : pattern.split( "\\*", -1 ) )
+        {
+            if ( regex.length() > 0 )
+            {
+                regex.append( ".*" ) ;
+            }
+
+            regex.append( Pattern.quote( part ) ) ;
+        }
+
+        return regex.toString() ;
+    }
+}
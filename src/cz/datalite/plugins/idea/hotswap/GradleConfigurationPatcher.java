@@ -0,0 +1,92 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.openapi.externalSystem.model.execution.ExternalSystemTaskExecutionSettings;
+import com.intellij.openapi.externalSystem.service.execution.ExternalSystemRunConfiguration;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+/**
+ * Gradle konfigurace, registruje se jen s nainstalovaným Gradle pluginem (gradle-patcher.xml)
+ *
+ * Parametry JVM Gradle konfigurace platí pro JVM, ve které běží Gradle. Agent se proto používá
+ * jen pro úlohy spouštějící aplikaci přímo v ní (jettyRun, tomcatRun), úlohy se samostatnou JVM
+ * jako bootRun nebo test parametry nepřevezmou.
+ */
+public class GradleConfigurationPatcher implements ConfigurationPatcher
+{
+    /**
+     * Klíč nastavení se vzory úloh Gradle, pro které se použije Hotswap agent, oddělené čárkou
+     */
+    public final static String GRADLE_TASKS_KEY = "cz.datalite.plugins.idea.hotswap.gradle.tasks" ;
+
+    /**
+     * Výchozí vzory úloh Gradle, které spouštějí aplikaci v JVM Gradle
+     */
+    public final static String DEFAULT_GRADLE_TASKS = "jettyRun*,tomcatRun*,*:jettyRun*,*:tomcatRun*" ;
+
+    /**
+     * Identifikátor Gradle mezi externími systémy
+     */
+    private final static String GRADLE_SYSTEM_ID = "GRADLE" ;
+
+    @Override
+    public boolean isSupported( @NotNull RunConfiguration configuration )
+    {
+        return ( configuration instanceof ExternalSystemRunConfiguration )
+                && ( GRADLE_SYSTEM_ID.equals( ( ( ExternalSystemRunConfiguration )configuration ).getSettings().getExternalSystemIdString() ) ) ;
+    }
+
+    @Override
+    public boolean isEnabled( @NotNull RunConfiguration configuration )
+    {
+        return GoalPatterns.matches( getSettings( configuration ).getTaskNames(), GRADLE_TASKS_KEY, DEFAULT_GRADLE_TASKS ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getVmOptions( @NotNull RunConfiguration configuration )
+    {
+        return getSettings( configuration ).getVmOptions() ;
+    }
+
+    @Override
+    public void setVmOptions( @NotNull RunConfiguration configuration, @NotNull String options )
+    {
+        getSettings( configuration ).setVmOptions( options ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getState( @NotNull RunConfiguration configuration )
+    {
+        return String.valueOf( getSettings( configuration ).getTaskNames() ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getJdkHome( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        return null ;
+    }
+
+    @Nullable
+    @Override
+    public Module getModule( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        return AgentProperties.findModule( project, getSettings( configuration ).getExternalProjectPath() ) ;
+    }
+
+    /**
+     * @param configuration     konfigurace
+     * @return nastavení spuštění Gradle
+     */
+    @NotNull
+    private static ExternalSystemTaskExecutionSettings getSettings( @NotNull RunConfiguration configuration )
+    {
+        return ( ( ExternalSystemRunConfiguration )configuration ).getSettings() ;
+    }
+}
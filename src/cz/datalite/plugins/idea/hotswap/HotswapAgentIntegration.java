@@ -1,18 +1,11 @@
 package cz.datalite.plugins.idea.hotswap;
 
-import com.intellij.execution.RunManager;
-import com.intellij.execution.application.ApplicationConfiguration;
-import com.intellij.execution.configurations.ConfigurationFactory;
-import com.intellij.execution.configurations.ConfigurationType;
-import com.intellij.execution.configurations.RunConfiguration;
-import com.intellij.execution.impl.RunManagerImpl;
 import com.intellij.ide.plugins.IdeaPluginDescriptor;
 import com.intellij.ide.plugins.PluginManager;
 import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
-import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.extensions.PluginId;
@@ -28,29 +21,29 @@ import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.ui.popup.Balloon;
 import com.intellij.openapi.ui.popup.BalloonBuilder;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
-import com.intellij.util.Consumer;
-import com.intellij.util.io.UrlConnectionUtil;
-import com.intellij.util.net.HttpConfigurable;
-import com.intellij.util.net.NetUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.idea.maven.execution.MavenRunConfiguration;
-import org.jetbrains.idea.maven.execution.MavenRunner;
-import org.jetbrains.idea.maven.execution.MavenRunnerSettings;
-import org.kohsuke.github.GHRelease;
-import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GitHub;
 
 import javax.swing.event.HyperlinkEvent;
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -78,60 +71,304 @@ public class HotswapAgentIntegration implements StartupActivity
      */
     public final static String GITHUB_REPOSITORY = GITHUB_OWNER + "/" + GITHUB_PROJECT ;
 
+    /**
+     * Adresa GITHUB
+     */
+    public final static String GITHUB_URL = "https://github.com" ;
+
+    /**
+     * Cesta pro stažení vůči adrese GITHUB
+     */
+    public final static String ZIP_PATH_PATTERN = "/" + GITHUB_OWNER + "/" + GITHUB_PROJECT + "/releases/download/%s/" + GITHUB_PROJECT + "-%s.zip" ;
+
     /**
      * URL pro stažení
      */
-    public final static String ZIP_URL_PATTERN = "https://github.com/" + GITHUB_OWNER + "/" + GITHUB_PROJECT + "/releases/download/%s/" + GITHUB_PROJECT + "-%s.zip" ;
+    public final static String ZIP_URL_PATTERN = GITHUB_URL + ZIP_PATH_PATTERN ;
 
 
 
     /**
      * Klíč pro určení alternativního JVM
      */
-    public final static String ALT_JVM = "-XXaltjvm" ;
+    public final static String ALT_JVM = VmOptions.ALT_JVM ;
 
     /**
      * Klíč pro přidání agenta
      */
-    public final static String JAVA_AGENT = "-javaagent" ;
+    public final static String JAVA_AGENT = VmOptions.JAVA_AGENT ;
+
+    /**
+     * Klíč, který určuje zda se má vydání rozbalovat přímo při stahování bez dočasného souboru
+     */
+    public final static String STREAMING_INSTALL_KEY = "cz.datalite.plugins.idea.hotswap.install.streaming" ;
+
+    /**
+     * Klíč, který určuje zda se mají ze souhrnného vydání stahovat jen položky pro aktuální OS
+     */
+    public final static String RANGED_INSTALL_KEY = "cz.datalite.plugins.idea.hotswap.install.ranged" ;
+
+    /**
+     * Maximální počet opakování přerušeného stahování
+     */
+    public final static int DOWNLOAD_RETRIES = 5 ;
+
+    /**
+     * Čekání před prvním opakováním stahování v milisekundách
+     */
+    public final static long DOWNLOAD_BACKOFF = 1000 ;
+
+    /**
+     * Filtr položek instalovaných pro aktuální OS
+     */
+    final static FilenameFilter INSTALL_FILTER = new FilenameFilter()
+    {
+        @Override
+        public boolean accept(File dir, String name)
+        {
+            return (
+                    ((dir.getName().endsWith("Linux_Amd64bit")) && (SystemInfo.isAMD64) && (SystemInfo.isLinux))
+                            || ((dir.getName().endsWith("Windows 64bit")) && (SystemInfo.is64Bit) && (SystemInfo.isWindows))
+                            || (dir.getName().equals("plugin"))
+                            || (name.equals("HotswapAgent.jar"))
+            );
+        }
+    } ;
+
+    /**
+     * Označení OS v názvu souboru vydání, které obsahuje jen soubory pro daný OS
+     *
+     * @return označení aktuálního OS, nebo null pokud pro něj agent není
+     */
+    @Nullable
+    static String getPlatform()
+    {
+        if ( ( SystemInfo.isLinux ) && ( SystemInfo.isAMD64 ) )
+        {
+            return "linux-x64" ;
+        }
+
+        if ( ( SystemInfo.isWindows ) && ( SystemInfo.is64Bit ) )
+        {
+            return "windows-x64" ;
+        }
+
+        return null ;
+    }
 
     /**
      * Aktuální popis pluginu
      */
     private IdeaPluginDescriptor pluginDescriptor;
 
+    /**
+     * Maximální doba trvání jednoho kroku při spuštění v milisekundách
+     */
+    public final static long STAGE_TIMEOUT = 30000 ;
+
     @Override
     public void runActivity(final @NotNull Project project)
     {
-        final Application application = ApplicationManager.getApplication();
-        final String newRelease = getLastRelease() ;
-        final String jre = getJrePath() ;
-
         //Pokud se jedná o 64 bit windows nebo linux
-        if ( ( newRelease != null) && (((SystemInfo.isLinux) && (SystemInfo.isAMD64)) || ((SystemInfo.isWindows) && (SystemInfo.is64Bit))))
+        if ( ((SystemInfo.isLinux) && (SystemInfo.isAMD64)) || ((SystemInfo.isWindows) && (SystemInfo.is64Bit)) )
+        {
+            final StartupPipeline pipeline = new StartupPipeline( project, STAGE_TIMEOUT ) ;
+
+            pipeline.start( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runPipeline( project, pipeline ) ;
+                }
+            } ) ;
+
+            //Dlouho otevřené IDE se o nových vydáních dozví průběžně
+            UpdateScheduler.getInstance().start( this ) ;
+        }
+        else
+        {
+           new Notification(getPluginDescriptor().getName(), getPluginDescriptor().getName(), "Hotswap Agent for current OS is unavailable.", NotificationType.WARNING).notify(project);
+        }
+    }
+
+    /**
+     * Nalezení JRE, úprava konfigurací a zjištění poslední verze na pozadí
+     *
+     * Nainstalovaný agent se aktivuje a konfigurace se upraví bez ohledu na dostupnost sítě,
+     * nedostupné vydání jen přeskočí aktualizaci.
+     *
+     * @param project   aktuální projekt
+     * @param pipeline  řetězec kroků
+     */
+    private void runPipeline( final @NotNull Project project, final @NotNull StartupPipeline pipeline )
+    {
+        final ReleaseSource source = ReleaseSources.getConfigured() ;
+        final String jre ;
+        final Map<String, String> installs ;
+
+        try
         {
-            if ( jre != null )
+            jre = pipeline.stage( "SDK resolution", new Callable<String>()
             {
-                application.executeOnPooledThread(
-                        new Runnable()
+                @Override
+                public String call()
+                {
+                    return ApplicationManager.getApplication().runReadAction( new Computable<String>()
+                    {
+                        @Override
+                        public String compute()
                         {
-                            @Override
-                            public void run()
-                            {
-                                checkForUpdate(project, newRelease, jre);
-                            }
+                            return getJrePath() ;
                         }
-                );
+                    } ) ;
+                }
+            } ) ;
+
+            if ( jre == null )
+            {
+                error( project, "Can`t find directory with JRE for store hotswap Agent." ) ;
+
+                return ;
             }
-            else
+
+            installs = pipeline.stage( "SDK discovery", new Callable<Map<String, String>>()
+            {
+                @Override
+                public Map<String, String> call()
+                {
+                    return ApplicationManager.getApplication().runReadAction( new Computable<Map<String, String>>()
+                    {
+                        @Override
+                        public Map<String, String> compute()
+                        {
+                            return getInstallPaths( project ) ;
+                        }
+                    } ) ;
+                }
+            } ) ;
+
+            pipeline.checkCanceled() ;
+        }
+        catch ( CancellationException e )
+        {
+            //Projekt byl zavřen
+            return ;
+        }
+        catch ( TimeoutException e )
+        {
+            warn( project, e.getMessage() ) ;
+
+            return ;
+        }
+        catch ( ExecutionException e )
+        {
+            error( project, "Can`t find directory with JRE for store hotswap Agent: " + e.getCause().getMessage() ) ;
+
+            return ;
+        }
+
+        final boolean patched = patchInstalled( project, jre, installs ) ;
+
+        try
+        {
+            final String newRelease = pipeline.stage( "release check", new Callable<String>()
+            {
+                @Override
+                public String call() throws IOException
+                {
+                    return source.getLatestTag() ;
+                }
+            } ) ;
+
+            if ( newRelease == null )
             {
-                new Notification(getPluginDescriptor().getName(), getPluginDescriptor().getName(), "Can`t find directory with JRE for store hotswap Agent.", NotificationType.ERROR).notify(project);
+                warn( project, "Can`t find any release of " + GITHUB_PROJECT + " in " + source + "." ) ;
+
+                return ;
             }
+
+            pipeline.checkCanceled() ;
+
+            checkForUpdate( project, source, newRelease, jre, installs, patched ) ;
         }
-        else
+        catch ( CancellationException e )
         {
-           new Notification(getPluginDescriptor().getName(), getPluginDescriptor().getName(), "Hotswap Agent for current OS is unavailable.", NotificationType.WARNING).notify(project);
+            //Projekt byl zavřen
         }
+        catch ( TimeoutException e )
+        {
+            warn( project, e.getMessage() ) ;
+        }
+        catch ( ExecutionException e )
+        {
+            warn( project, "Can`t check for new release of " + GITHUB_PROJECT + " in " + source + ": " + e.getCause().getMessage() ) ;
+        }
+    }
+
+    /**
+     * Aktivace odložených instalací a úprava konfigurací pro nainstalovaného agenta, bez sítě
+     *
+     * @param project   aktuální projekt
+     * @param jre       výchozí cesta k JVM
+     * @param installs  cesty k JVM podle domovského adresáře JDK
+     * @return příznak, zda byly upraveny konfigurace pro všechny JVM
+     */
+    private boolean patchInstalled( final @NotNull Project project, final @NotNull String jre, final @NotNull Map<String, String> installs )
+    {
+        final PropertiesComponent propertiesComponent = PropertiesComponent.getInstance() ;
+
+        for ( String target : getTargets( jre, installs ) )
+        {
+            final String pendingRelease = new StagedInstall( new File( target ) ).activatePending() ;
+
+            //Dokončení instalace, kterou blokovala běžící JVM
+            if ( pendingRelease != null )
+            {
+                propertiesComponent.setValue( AGENT_VERSION_KEY, pendingRelease ) ;
+            }
+        }
+
+        //Konfigurace JDK bez instalace se upraví až po nasazení
+        if ( ( "".equals( propertiesComponent.getValue( AGENT_VERSION_KEY, "" ) ) ) || ( ! new File( jre ).exists() ) )
+        {
+            return false ;
+        }
+
+        invokeLater( project, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                patchIfNecessary( project, jre, installs ) ;
+            }
+        } ) ;
+
+        for ( String install : installs.values() )
+        {
+            if ( ! new File( install ).exists() )
+            {
+                return false ;
+            }
+        }
+
+        return true ;
+    }
+
+    /**
+     * @param jre       výchozí cesta k JVM
+     * @param installs  cesty k JVM podle domovského adresáře JDK
+     * @return všechny cesty k JVM
+     */
+    @NotNull
+    private static Set<String> getTargets( @NotNull String jre, @NotNull Map<String, String> installs )
+    {
+        final Set<String> targets = new LinkedHashSet<String>() ;
+
+        targets.add( jre ) ;
+        targets.addAll( installs.values() ) ;
+
+        return targets ;
     }
 
     /**
@@ -155,25 +392,67 @@ public class HotswapAgentIntegration implements StartupActivity
      * Zjištění zda existuje novější verze
      *
      * @param project aktuální projekt
+     * @param source zdroj vydání
      * @param newRelease nový release
+     * @param jre výchozí cesta k JVM
+     * @param installs cesty k JVM podle domovského adresáře JDK
+     * @param patched příznak, zda již byly konfigurace upraveny pro všechny JVM
      */
-    private void checkForUpdate(final @NotNull Project project, final @NotNull String newRelease, final @NotNull String jre )
+    private void checkForUpdate(final @NotNull Project project, final @NotNull ReleaseSource source, final @NotNull String newRelease, final @NotNull String jre, final @NotNull Map<String, String> installs, boolean patched )
     {
         final PropertiesComponent propertiesComponent = PropertiesComponent.getInstance() ;
+        final AgentStore store = AgentStore.getDefault() ;
+        final List<String> outdated = new ArrayList<String>() ;
+
+        for ( String target : getTargets( jre, installs ) )
+        {
+            //Instalace z verzí bez souboru s verzí mají verzi jen v nastavení
+            final String installedRelease = new StagedInstall( new File( target ) ).getVersion() ;
+
+            if ( ( ! new File( target ).exists() ) || ( ! newRelease.equals( installedRelease != null ? installedRelease : propertiesComponent.getValue( AGENT_VERSION_KEY, "" ) ) ) )
+            {
+                outdated.add( target ) ;
+            }
+            else
+            {
+                //Používané vydání se v úložišti neodstraní
+                store.touch( newRelease ) ;
+            }
+        }
+
         final String currentRelease = propertiesComponent.getValue(AGENT_VERSION_KEY, "") ;
 
-        if ( ( ! new File( jre ).exists() ) || ( ! currentRelease.equals( newRelease ) ) )
+        if ( ! outdated.isEmpty() )
         {
-            if ( "".equals( currentRelease ) )
+            if ( ( store.contains( newRelease ) ) && ( newRelease.equals( currentRelease ) ) )
             {
-                installWithAsk(project, new Runnable()
+                //Vydání je již potvrzené a rozbalené, nasazení do dalších JDK nic nestahuje
+                invokeLater( project, new Runnable()
                 {
                     @Override
                     public void run()
                     {
-                        download(project, newRelease, jre);
+                        download(project, source, newRelease, jre, installs, outdated);
                     }
-                });
+                } ) ;
+            }
+            else if ( "".equals( currentRelease ) )
+            {
+                invokeLater( project, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        installWithAsk(project, new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                download(project, source, newRelease, jre, installs, outdated);
+                            }
+                        });
+                    }
+                } ) ;
             }
             else
             {
@@ -182,35 +461,85 @@ public class HotswapAgentIntegration implements StartupActivity
                     @Override
                     public void run()
                     {
-                        download(project, newRelease, jre);
+                        download(project, source, newRelease, jre, installs, outdated);
                     }
                 });
             }
         }
-        else
+        else if ( ! patched )
         {
-            patchIfNecessary( project, jre ) ;
+            invokeLater( project, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    patchIfNecessary( project, jre, installs ) ;
+                }
+            } ) ;
         }
     }
 
+    /**
+     * Provedení akce v UI vlákně, pokud mezitím nebyl projekt zavřen
+     *
+     * @param project   aktuální projekt
+     * @param runnable  prováděná akce
+     */
+    private void invokeLater( final @NotNull Project project, final @NotNull Runnable runnable )
+    {
+        ApplicationManager.getApplication().invokeLater( runnable, project.getDisposed() ) ;
+    }
+
     /**
      * Stažení hotswap agenta
      *
      * @param project   aktuální projekt
+     * @param source    zdroj vydání
      * @param newRelease nový release
+     * @param jre       výchozí cesta k JVM
+     * @param installs  cesty k JVM podle domovského adresáře JDK
+     * @param targets   cesty k JVM, do kterých se instaluje
      */
-    private void download(final @NotNull Project project, final @NotNull String newRelease, final @NotNull String jre )
+    private void download(final @NotNull Project project, final @NotNull ReleaseSource source, final @NotNull String newRelease, final @NotNull String jre, final @NotNull Map<String, String> installs, final @NotNull List<String> targets )
     {
         ProgressManager.getInstance().run( new Task.Backgroundable(project, "Downloading " + getPluginDescriptor().getName(), true)
         {
             @Override
-            public void run(@NotNull ProgressIndicator indicator)
+            public void run(final @NotNull ProgressIndicator indicator)
             {
                 final File tmpFile = new File(FileUtilRt.getTempDirectory(), getPluginDescriptor().getName() + "/" + newRelease + ".zip" ) ;
+                final AgentStore store = AgentStore.getDefault() ;
+
+                //Potvrzené stahování může čekat na přípravu na pozadí, ta se dokončí plnou rychlostí
+                UpdateScheduler.getInstance().unthrottle() ;
 
-                FileUtilRt.delete(tmpFile);
+                //Stejné vydání stahuje do úložiště jen jeden projekt, ostatní čekají na výsledek
+                final boolean stored = ( store.contains( newRelease ) ) || ( InstallCoordinator.getInstance().install( newRelease, store.getRoot().getPath(), indicator, new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        FileUtilRt.delete(tmpFile);
+
+                        final PropertiesComponent properties = PropertiesComponent.getInstance() ;
+
+                        return createInstaller( project, store ).install( source, newRelease, tmpFile, properties.getBoolean( STREAMING_INSTALL_KEY, true ), properties.getBoolean( RANGED_INSTALL_KEY, true ), indicator ) ;
+                    }
+                } ) ) ;
 
-                download(project, tmpFile, newRelease, jre, indicator) ;
+                if ( ( stored ) && ( deploy( project, store, newRelease, targets, indicator ) ) )
+                {
+                    invokeLater( project, new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            patchIfNecessary( project, jre, installs ) ;
+                        }
+                    } ) ;
+                }
+
+                store.collect( -1 ) ;
             }
         });
     }
@@ -258,232 +587,234 @@ public class HotswapAgentIntegration implements StartupActivity
 
 
     /**
-     * @return poslední platné vydání
-     */
-    private String getLastRelease()
-    {
-        try
-        {
-            GitHub github = GitHub.connectAnonymously() ;
-            GHRepository repo = github.getRepository(GITHUB_REPOSITORY);
-
-            final List<GHRelease> releases = repo.getReleases();
-
-            return (!releases.isEmpty()) ? releases.get(0).getTagName() : null ;
-        }
-        catch (IOException e)
-        {
-            throw new IllegalStateException(e);
-        }
-    }
-
-    /**
-     * Stažení souboru z GITHUB
+     * Stažení a rozbalení vydání do úložiště bez nasazení do JVM, pro přípravu na pozadí
      *
-     * @param project           aktuální projekt
-     * @param destination       cílový soubor
-     * @param taqName           stahované vydání
-     * @param indicator         indikátor průběhu stahování
+     * @param source            zdroj vydání
+     * @param tagName           stahované vydání
+     * @param bytesPerSecond    maximální rychlost stahování, nula bez omezení
+     * @param indicator         indikátor průběhu
+     * @return příznak, zda je vydání v úložišti
      */
-    private void download( @NotNull final Project project, final @NotNull File destination, final @NotNull String taqName, final @NotNull String jre,  @NotNull final ProgressIndicator indicator )
+    boolean prefetch( final @NotNull ReleaseSource source, final @NotNull String tagName, final @NotNull AtomicLong bytesPerSecond, final @NotNull ProgressIndicator indicator )
     {
-        execute( project, taqName, new Consumer<HttpURLConnection>()
+        final AgentStore store = AgentStore.getDefault() ;
+
+        //Souběžně s potvrzeným stažením se stejné vydání nerozbaluje
+        return ( store.contains( tagName ) ) || ( InstallCoordinator.getInstance().install( tagName, store.getRoot().getPath(), indicator, new Callable<Boolean>()
         {
             @Override
-            public void consume(HttpURLConnection connection)
+            public Boolean call() throws IOException
             {
-                final int contentLength = connection.getContentLength();
-
-                boolean ok = false;
-                InputStream in = null;
-                OutputStream out = null;
+                final BundleInstaller installer = createInstaller( null, store ) ;
+                final String expectedDigest = BundleVerifier.getExpectedDigest( tagName, source ) ;
+                final File localBundle = source.getLocalBundle( tagName ) ;
 
-                try
+                if ( localBundle != null )
                 {
-                    //Surprisingly Dropbox can return instead some 5** error.
-                    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
-                    {
-                        error(project, "Error download " + GITHUB_PROJECT + " - Server error\n" + connection.getResponseMessage());
-
-                        return;
-                    }
+                    BundleVerifier.verify( localBundle, expectedDigest ) ;
 
-                    in = UrlConnectionUtil.getConnectionInputStreamWithException(connection, indicator);
+                    installer.install( localBundle, tagName, indicator ) ;
 
-                    indicator.setIndeterminate(contentLength <= 0);
+                    return true ;
+                }
 
-                    File parent =  destination.getParentFile() ;
+                final HttpURLConnection connection = HttpConnections.open( source.getBundleUrl( tagName ) ) ;
 
-                    if ( ! parent.exists() )
+                try
+                {
+                    if ( connection.getResponseCode() != HttpURLConnection.HTTP_OK )
                     {
-                        info(project, "Create target temp directory: " + parent.getAbsolutePath() ) ;
-
-                        //noinspection ResultOfMethodCallIgnored
-                        parent.mkdirs(); //Založení adresářů pokud je potřeba
+                        throw new IOException( "Server error " + connection.getResponseCode() + " " + connection.getResponseMessage() ) ;
                     }
 
-                    out = new BufferedOutputStream(new FileOutputStream(destination, false));
-                    NetUtils.copyStreamContent(indicator, in, out, contentLength);
-                    ok = true;
-                }
-                catch (IOException e)
-                {
-                    error( project, e.getMessage() ) ;
-                }
-                finally
-                {
-                    if (in != null)
+                    final InputStream in = HttpConnections.getInputStream( connection, indicator ) ;
+
+                    try
                     {
-                        try
-                        {
-                            in.close();
-                        }
-                        catch (IOException e)
-                        {
-                            // Ignore
-                        }
+                        installer.install( new ThrottledInputStream( new ProgressInputStream( in, indicator, connection.getContentLength() ), bytesPerSecond ), tagName, expectedDigest ) ;
                     }
-                    if (out != null)
+                    finally
                     {
-                        try
-                        {
-                            out.close();
-                        }
-                        catch (IOException e)
-                        {
-                            e.printStackTrace();
-                        }
+                        in.close() ;
                     }
-                }
 
-                if (ok)
+                    return true ;
+                }
+                finally
                 {
-                    info(project, String.format("Release '%s' downloaded to '%s'", taqName, destination.getAbsolutePath()));
-                    install(project, destination, new File( jre + File.separatorChar ), taqName ) ;
-
+                    connection.disconnect() ;
                 }
-
-                FileUtilRt.delete( destination ) ;
             }
-        } ) ;
+        } ) ) ;
     }
 
-
     /**
-     * Instalace DCEVM a Hotswap agenta
+     * Souběžné nasazení DCEVM a Hotswap agenta z úložiště do všech JVM
      *
      * @param project       aktuální projekt
-     * @param source        zdrojový soubor
-     * @param target        cílový adresář
-     * @param tagName       instalovaná verze
+     * @param store         úložiště vydání
+     * @param tagName       nasazovaná verze
+     * @param targets       cesty k JVM
+     * @param indicator     indikátor průběhu instalace
+     * @return příznak, zda bylo vydání nasazeno alespoň do jedné JVM
      */
-    private void install( @NotNull Project project, @NotNull File source, @NotNull File target, String tagName )
+    private boolean deploy( final @NotNull Project project, final @NotNull AgentStore store, final @NotNull String tagName, @NotNull List<String> targets, final @NotNull ProgressIndicator indicator )
     {
-        info(project, String.format("Install '%s' to '%s'", source.getAbsolutePath(), target.getAbsolutePath()));
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>() ;
 
-        try
-        {
-            //noinspection ResultOfMethodCallIgnored
-            target.mkdirs() ;
+        indicator.setText( "Installing " + GITHUB_PROJECT + " " + tagName ) ;
 
-            extract(new ZipFile( source ), target, new FilenameFilter()
+        for ( final String target : targets )
+        {
+            futures.add( ApplicationManager.getApplication().executeOnPooledThread( new Callable<Boolean>()
             {
                 @Override
-                public boolean accept(File dir, String name)
+                public Boolean call()
                 {
-                    return (
-                            ((dir.getName().endsWith("Linux_Amd64bit")) && (SystemInfo.isAMD64) && (SystemInfo.isLinux))
-                                    || ((dir.getName().endsWith("Windows 64bit")) && (SystemInfo.is64Bit) && (SystemInfo.isWindows))
-                                    || (dir.getName().equals("plugin"))
-                                    || (name.equals("HotswapAgent.jar"))
-                    );
-                }
-            }, true);
+                    //Do stejné JVM nasazuje jen jeden projekt
+                    return InstallCoordinator.getInstance().install( tagName, target, indicator, new Callable<Boolean>()
+                    {
+                        @Override
+                        public Boolean call()
+                        {
+                            final PhaseMetrics.Phase phase = PhaseMetrics.start( "deploy" ) ;
 
-            patchIfNecessary( project, target.getParent() ) ;
+                            try
+                            {
+                                final StagedInstall staged = new StagedInstall( new File( target + File.separatorChar ) ) ;
 
-            PropertiesComponent propertiesComponent = PropertiesComponent.getInstance();
+                                info( project, String.format( "Install '%s' to '%s'", tagName, target ) ) ;
+
+                                store.deploy( tagName, staged.prepare() ) ;
+                                activate( project, staged, tagName ) ;
+                                phase.succeed() ;
+
+                                return true ;
+                            }
+                            catch ( IOException e )
+                            {
+                                error( project, e.getMessage() ) ;
 
-            propertiesComponent.setValue( AGENT_VERSION_KEY, tagName ) ;
+                                return false ;
+                            }
+                            finally
+                            {
+                                phase.finish() ;
+                            }
+                        }
+                    } ) ;
+                }
+            } ) ) ;
         }
-        catch ( IOException e )
+
+        boolean installed = false ;
+
+        for ( Future<Boolean> future : futures )
         {
-            throw new IllegalStateException( e ) ;
+            try
+            {
+                installed |= future.get() ;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt() ;
+
+                return false ;
+            }
+            catch ( ExecutionException e )
+            {
+                error( project, String.valueOf( e.getCause().getMessage() ) ) ;
+            }
         }
+
+        return installed ;
     }
 
     /**
-     *
-     * @param zipFile           aktuální soubor
-     * @param outputDir         výstupní adresář
-     * @param filenameFilter    filtr
-     * @param overwrite         příznak zda přepsat existeujicí
+     * @param project       aktuální projekt, nebo null při stahování na pozadí
+     * @param store         úložiště vydání
+     * @return instalace vydání ohlašující průběh notifikacemi
      */
-    private void extract(final @NotNull ZipFile zipFile, @NotNull File outputDir, @Nullable FilenameFilter filenameFilter, boolean overwrite) throws IOException
+    @NotNull
+    private BundleInstaller createInstaller( final @Nullable Project project, @NotNull AgentStore store )
     {
-        final Enumeration entries = zipFile.entries();
-
-        while ( entries.hasMoreElements() )
+        return new BundleInstaller( store, INSTALL_FILTER, new BundleInstaller.Listener()
         {
-            ZipEntry entry = (ZipEntry)entries.nextElement();
-            File file = new File(outputDir, entry.getName());
+            @Override
+            public void info( @NotNull String message )
+            {
+                HotswapAgentIntegration.this.info( project, message ) ;
+            }
 
-            if (filenameFilter == null || filenameFilter.accept(file.getParentFile(), file.getName()))
+            @Override
+            public void warn( @NotNull String message )
             {
-                extractEntry(entry, zipFile.getInputStream(entry), outputDir, overwrite);
+                HotswapAgentIntegration.this.warn( project, message ) ;
             }
-        }
+
+            @Override
+            public void error( @NotNull String message )
+            {
+                HotswapAgentIntegration.this.error( project, message ) ;
+            }
+        } ) ;
     }
 
     /**
-     * Extrahování položky ze ZIP souboru
+     * Ověření připravené instalace a její výměna za používanou
      *
-     * @param entry             položka
-     * @param inputStream       vstupní data
-     * @param outputDir         výstupní adresář
-     * @param overwrite         příznak zda přepsat existeujicí
+     * @param project       aktuální projekt
+     * @param staged        připravená instalace
+     * @param tagName       instalovaná verze
      */
-    private void extractEntry(ZipEntry entry, final InputStream inputStream, File outputDir, boolean overwrite) throws IOException
+    private void activate( final @NotNull Project project, final @NotNull StagedInstall staged, @NotNull String tagName ) throws IOException
     {
-        final boolean isDirectory = entry.isDirectory();
-        final String relativeName = entry.getName();
-        File file = new File(outputDir, relativeName);
+        staged.verify( tagName ) ;
 
-        if ( ! relativeName.startsWith( "plugin" ) )
+        try
         {
-             file = new File( outputDir, file.getName() ) ;
+            staged.activate() ;
         }
-
-        if ( ( file.exists() ) && ( ! overwrite ) )
+        catch ( IOException e )
         {
-            return;
+            //Připravená instalace se aktivuje při příštím spuštění
+            warn( project, e.getMessage() ) ;
+
+            return ;
         }
 
-        FileUtil.createParentDirs(file);
+        PropertiesComponent.getInstance().setValue( AGENT_VERSION_KEY, tagName ) ;
 
-        if (isDirectory)
-        {
-            //noinspection ResultOfMethodCallIgnored
-            file.mkdir() ;
-        }
-        else
+        final String previousVersion = staged.getPreviousVersion() ;
+
+        if ( previousVersion != null )
         {
-            final BufferedInputStream is = new BufferedInputStream(inputStream);
-            final BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            new Notification(
+                    getPluginDescriptor().getName(),
+                    getPluginDescriptor().getName(),
+                    String.format( "Version '%s' activated <html><a href=''>roll back</a> to '%s' ?", tagName, previousVersion ),
+                    NotificationType.INFORMATION,
+                    new NotificationListener()
+                    {
+                        @Override
+                        public void hyperlinkUpdate(@NotNull Notification notification, @NotNull HyperlinkEvent event)
+                        {
+                            notification.expire();
 
-            try
-            {
-                FileUtil.copy(is, os);
-            }
-            finally
-            {
-                os.close();
-                is.close();
-            }
+                            if ( staged.rollback() )
+                            {
+                                PropertiesComponent.getInstance().setValue( AGENT_VERSION_KEY, previousVersion ) ;
+                            }
+                            else
+                            {
+                                error( project, "Can`t roll back to version '" + previousVersion + "'" ) ;
+                            }
+                        }
+                    }
+            ).notify( project ) ;
         }
     }
 
-
     /**
      * @return cesta k JRE
      */
@@ -506,248 +837,95 @@ public class HotswapAgentIntegration implements StartupActivity
 
 
     /**
-     * Modifikace cesty k JRE
-     *
-     * @param original      originální cesta k JRE
-     * @return modifikovaná cesta
-     */
-    private String modifyForAlternativeJvm( String original )
-    {
-        if ( SystemInfo.isLinux )
-        {
-            if ( SystemInfo.isAMD64 )
-            {
-                return original + File.separatorChar + "jre" + File.separatorChar + "lib" + File.separatorChar + "amd64" + File.separatorChar + GITHUB_PROJECT + File.separatorChar ;
-            }
-        }
-        else if ( SystemInfo.isWindows )
-        {
-            return original + File.separatorChar + "jre" + File.separatorChar + "bin" + File.separatorChar + GITHUB_PROJECT + File.separatorChar ;
-        }
-
-        return null ;
-    }
-
-
-
-    /**
-     * Modifikace spouštěcí konfigurace pokud je potřeba
+     * Zjištění cest k JVM pro všechna JDK používaná konfiguracemi projektu, volá se v read action
      *
      * @param project   aktuální projekt
+     * @return cesty k JVM podle domovského adresáře JDK
      */
-    private void patchIfNecessary( final @NotNull Project project, final @NotNull String jre )
-    {
-        configurationTypePatchIfNecessary(project, jre) ;
-        configurationPatchIfNecessary( project, jre ) ;
-    }
-
-    /**
-     * Aplikování patche na budoucí konfigurace
-     *
-     * @param project       aktuální projekt
-     * @param jre           cesta k JVM
-     */
-    private void configurationPatchIfNecessary( final @NotNull Project project, final @NotNull String jre )
+    @NotNull
+    private Map<String, String> getInstallPaths( @NotNull Project project )
     {
-        // Template configuration.
-        RunManager runManager = RunManagerImpl.getInstance(project) ;
+        final Map<String, String> installs = new LinkedHashMap<String, String>() ;
 
-        //Modifikace akutální konfigurací
-        for ( RunConfiguration configuration : runManager.getAllConfigurationsList() )
+        for ( String homePath : SdkResolver.getHomePaths( project ) )
         {
-            if (configuration instanceof ApplicationConfiguration)
-            {
-                patchConfiguration((ApplicationConfiguration) configuration, jre);
-            }
-            else if (configuration instanceof MavenRunConfiguration )
+            final String install = getInstallPath( homePath ) ;
+
+            if ( install != null )
             {
-                patchConfiguration((MavenRunConfiguration) configuration, jre);
+                installs.put( homePath, install ) ;
             }
         }
-    }
 
-    /**
-     * Aplikování patche na budoucí konfigurace
-     *
-     * @param project       aktuální projekt
-     * @param jre           cesta k JVM
-     */
-    private void configurationTypePatchIfNecessary( final @NotNull Project project, final @NotNull String jre )
-    {
-        // Template configuration.
-        RunManager runManager = RunManagerImpl.getInstance(project) ;
-
-        //Modifikace akutální konfigurací
-        for ( ConfigurationType configurationType : runManager.getConfigurationFactories() )
-        {
-            configurationTypePatchIfNecessary(project, configurationType, jre);
-        }
+        return installs ;
     }
 
     /**
-     * Aplikování patche na budoucí konfigurace
-     *
-     * @param project               aktuální projekt
-     * @param configurationType     typ konfigurace
-     * @param jre                   cesta k JVM
+     * @param homePath  domovský adresář JDK
+     * @return cesta k JVM v JDK, nebo null pro nepodporovaný systém
      */
-    private void configurationTypePatchIfNecessary( final @NotNull Project project, @NotNull ConfigurationType configurationType, final @NotNull String jre )
+    @Nullable
+    static String getInstallPath( @NotNull String homePath )
     {
-        RunManager runManager = RunManagerImpl.getInstance(project) ;
-
-        //Modifikace továrních konfigurací pro pozdější použití
-        for( ConfigurationFactory factory : configurationType.getConfigurationFactories() )
-        {
-            RunConfiguration templateApplicationConfig = runManager.getConfigurationTemplate(factory).getConfiguration() ;
-
-            patchTemplateConfiguration(templateApplicationConfig, jre) ;
-        }
+        return modifyForAlternativeJvm( homePath + File.separatorChar ) ;
     }
 
     /**
-     * Odstranění parametru
-     *
-     * @param name      jméno odstraňovaného parametru včetně pomlčky
-     * @param value     řetezec ze kterého se parametr odstraňuje
+     * Modifikace cesty k JRE
      *
-     * @return hodnota bez odstraňovaného parametru
+     * @param original      originální cesta k JRE
+     * @return modifikovaná cesta
      */
-    private String removeParameters( @NotNull String name, @NotNull String value )
+    private static String modifyForAlternativeJvm( String original )
     {
-        String vmParameters = value ;
-
-        while ( vmParameters.contains( name ) )
+        if ( SystemInfo.isLinux )
         {
-            String prefix = vmParameters.substring( 0, vmParameters.indexOf( name ) ) ;
-
-            vmParameters = vmParameters.substring( vmParameters.indexOf( name ) + name.length() ) ;
-
-            if ( vmParameters.indexOf( " -" ) > 0 )
-            {
-                vmParameters = prefix + vmParameters.substring(vmParameters.indexOf(" -"));
-            }
-            else
+            if ( SystemInfo.isAMD64 )
             {
-                vmParameters = prefix ;
+                return original + File.separatorChar + "jre" + File.separatorChar + "lib" + File.separatorChar + "amd64" + File.separatorChar + GITHUB_PROJECT + File.separatorChar ;
             }
         }
-
-        return vmParameters.trim() ;
-    }
-
-
-    /**
-     * Změna konfigurace
-     *
-     * @param original      originální konfigurace
-     * @param jre           cesta k JVM
-     * @return změněná konfigurace
-     */
-    private String patchVmParameters( String original, @NotNull String jre )
-    {
-        String vmParameters = original ;
-
-        if ( vmParameters != null )
-        {
-            vmParameters = vmParameters.replace( "null" + JAVA_AGENT, JAVA_AGENT ) ;
-        }
-
-        if ( vmParameters != null )
-        {
-            vmParameters = removeParameters( ALT_JVM, vmParameters ) ;
-            vmParameters = removeParameters( JAVA_AGENT, vmParameters ) ;
-        }
-
-        if ( vmParameters == null )
-        {
-            vmParameters = ALT_JVM + "=" + jre ;
-        }
-        else if ( ! vmParameters.contains( ALT_JVM ) )
+        else if ( SystemInfo.isWindows )
         {
-            vmParameters = vmParameters +  " " + ALT_JVM + "=" + jre ;
+            return original + File.separatorChar + "jre" + File.separatorChar + "bin" + File.separatorChar + GITHUB_PROJECT + File.separatorChar ;
         }
 
-        vmParameters = vmParameters +  " " + JAVA_AGENT + ":" + jre + "HotswapAgent.jar" ;
-
-        return vmParameters ;
+        return null ;
     }
 
-    /**
-     * Nastavení použití Hotswap agenta
-     *
-     * @param configuration     aktuální konfigurace
-     */
-    private void patchTemplateConfiguration( RunConfiguration configuration, String jre )
-    {
-        if ( configuration instanceof ApplicationConfiguration )
-        {
-            patchConfiguration((ApplicationConfiguration) configuration, jre) ;
-        }
-        else if ( configuration instanceof MavenRunConfiguration )
-        {
-            patchConfiguration( (MavenRunConfiguration)configuration, jre ) ;
-        }
-    }
 
 
     /**
-     * Nastavení použití Hotswap agenta
+     * Modifikace spouštěcí konfigurace pokud je potřeba
      *
-     * @param configuration     aktuální konfigurace
-     */
-    private void patchConfiguration( ApplicationConfiguration configuration, String jre )
-    {
-        configuration.setVMParameters( patchVmParameters( configuration.getVMParameters(), jre ) ) ;
-    }
-
-    /**
-     * Nastavení použití Hotswap agenta
+     * Konfigurace s JDK, které při spuštění projektu nebylo známo, se upraví až po nasazení
+     * nainstalované verze do tohoto JDK.
      *
-     * @param configuration     aktuální konfigurace
+     * @param project   aktuální projekt
+     * @param jre       výchozí cesta k JVM
+     * @param installs  cesty k JVM podle domovského adresáře JDK
      */
-    private void patchConfiguration( MavenRunConfiguration configuration, String jre )
+    private void patchIfNecessary( final @NotNull Project project, final @NotNull String jre, final @NotNull Map<String, String> installs )
     {
-        MavenRunnerSettings settings  = MavenRunner.getInstance(configuration.getProject()).getSettings() ;
-
-        if ( settings != null )
+        RunConfigurationPatcher.getInstance( project ).patchAll( installs, jre, new RunConfigurationPatcher.Deployer()
         {
-            settings.setVmOptions( patchVmParameters( settings.getVmOptions(), jre ) ) ;
-        }
+            @Override
+            public void deploy( @NotNull String homePath, @NotNull String install )
+            {
+                final String release = PropertiesComponent.getInstance().getValue( AGENT_VERSION_KEY, "" ) ;
 
-        if ( configuration.getRunnerSettings() == null )
-        {
-            configuration.setRunnerSettings(new MavenRunnerSettings());
-        }
+                if ( "".equals( release ) )
+                {
+                    return ;
+                }
 
-        configuration.getRunnerSettings().setVmOptions( patchVmParameters( configuration.getRunnerSettings().getVmOptions(), jre ) ) ;
-    }
+                final Map<String, String> all = new LinkedHashMap<String, String>( installs ) ;
 
-    /**
-     * Spuštění stahování
-     *
-     * @param project       aktuální projekt
-     * @param tagName       aktuální release
-     * @param task          akce, která se spustí při stahování
-     */
-    private void execute( @NotNull Project project, @NotNull String tagName, @NotNull Consumer<HttpURLConnection> task)
-    {
-        HttpURLConnection connection = null;
-        try
-        {
-            connection = HttpConfigurable.getInstance().openHttpConnection( String.format( ZIP_URL_PATTERN, tagName, tagName ) );
-            task.consume(connection);
-        }
-        catch (IOException e)
-        {
-            warn(project, e.getMessage()) ;
-        }
-        finally
-        {
-            if (connection != null)
-            {
-                connection.disconnect();
+                all.put( homePath, install ) ;
+
+                download( project, ReleaseSources.getConfigured(), release, jre, all, Collections.singletonList( install ) ) ;
             }
-        }
+        } ) ;
     }
 
     /**
@@ -780,7 +958,12 @@ public class HotswapAgentIntegration implements StartupActivity
      */
     private void info(Project project, String message)
     {
+        //Stahování na pozadí bez projektu se neohlašuje
+        if ( project == null )
+        {
+            return ;
+        }
+
         new Notification( getPluginDescriptor().getName(), getPluginDescriptor().getName(), message, NotificationType.INFORMATION ).notify( project ) ;
     }
-
 }
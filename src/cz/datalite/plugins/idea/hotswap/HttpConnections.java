@@ -0,0 +1,73 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.io.UrlConnectionUtil;
+import com.intellij.util.net.HttpConfigurable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+
+/**
+ * Otevírání HTTP spojení
+ *
+ * V běžícím IDE se použije nastavení proxy IDE a čtení lze zrušit indikátorem průběhu. Bez IDE
+ * (benchmarky v adresáři bench) se otevře přímé spojení. Každé spojení má časový limit navázání
+ * i čtení, zaseknutý proxy server nebo GITHUB tak neblokuje vlákno natrvalo.
+ */
+public class HttpConnections
+{
+    /**
+     * Časový limit navázání spojení v milisekundách
+     */
+    public final static int CONNECT_TIMEOUT = 10000 ;
+
+    /**
+     * Časový limit jednoho čtení v milisekundách
+     */
+    public final static int READ_TIMEOUT = 20000 ;
+
+    /**
+     * @param url       adresa
+     * @return otevřené spojení s časovými limity
+     */
+    @NotNull
+    public static HttpURLConnection open( @NotNull String url ) throws IOException
+    {
+        final HttpURLConnection connection ;
+
+        if ( ApplicationManager.getApplication() == null )
+        {
+            connection = ( HttpURLConnection )new URL( url ).openConnection() ;
+        }
+        else
+        {
+            connection = HttpConfigurable.getInstance().openHttpConnection( url ) ;
+        }
+
+        connection.setConnectTimeout( CONNECT_TIMEOUT ) ;
+        connection.setReadTimeout( READ_TIMEOUT ) ;
+
+        return connection ;
+    }
+
+    /**
+     * @param connection    otevřené spojení
+     * @param indicator     indikátor průběhu
+     * @return data odpovědi
+     */
+    @NotNull
+    public static InputStream getInputStream( @NotNull HttpURLConnection connection, @NotNull ProgressIndicator indicator ) throws IOException
+    {
+        if ( ApplicationManager.getApplication() == null )
+        {
+            return connection.getInputStream() ;
+        }
+
+        return UrlConnectionUtil.getConnectionInputStreamWithException( connection, indicator ) ;
+    }
+}
@@ -0,0 +1,111 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+
+
+/**
+ * Koordinace instalací mezi současně otevíranými projekty
+ *
+ * Pro jedno vydání a cílový adresář proběhne vždy jen jedno stažení a rozbalení. Ostatní projekty
+ * čekají na stejný výsledek a pak si upraví jen své spouštěcí konfigurace. Dokončené instalace se
+ * nepamatují, vydání mohlo být mezitím odstraněno (návrat na předchozí verzi, úklid úložiště),
+ * proto volající před instalací vždy ověří úložiště.
+ */
+public class InstallCoordinator
+{
+    /**
+     * Interval kontroly zrušení při čekání na instalaci v milisekundách
+     */
+    private final static long POLL_INTERVAL = 100 ;
+
+    /**
+     * Probíhající instalace podle vydání a cíle
+     */
+    private final ConcurrentMap<String, FutureTask<Boolean>> installations = new ConcurrentHashMap<String, FutureTask<Boolean>>() ;
+
+    /**
+     * @return instance sdílená celou aplikací
+     */
+    public static InstallCoordinator getInstance()
+    {
+        return ServiceManager.getService( InstallCoordinator.class ) ;
+    }
+
+    /**
+     * Provedení instalace, pokud již neprobíhá
+     *
+     * @param tagName       instalované vydání
+     * @param target        cílový adresář
+     * @param indicator     indikátor průběhu volajícího
+     * @param installation  vlastní instalace, vrací příznak úspěchu
+     * @return příznak, zda je vydání nainstalováno
+     */
+    public boolean install( @NotNull String tagName, @NotNull String target, @NotNull ProgressIndicator indicator, @NotNull Callable<Boolean> installation )
+    {
+        final String key = tagName + "@" + target ;
+        final FutureTask<Boolean> task = new FutureTask<Boolean>( installation ) ;
+        final FutureTask<Boolean> running = installations.putIfAbsent( key, task ) ;
+
+        if ( running == null )
+        {
+            task.run() ;
+
+            //Čekající projekty drží úlohu, nové volání už spustí instalaci znovu
+            installations.remove( key, task ) ;
+
+            return await( task, indicator ) ;
+        }
+
+        indicator.setText( "Waiting for installation of " + tagName ) ;
+
+        return await( running, indicator ) ;
+    }
+
+    /**
+     * Čekání na dokončení instalace
+     *
+     * @param task          instalace
+     * @param indicator     indikátor průběhu volajícího
+     * @return příznak úspěchu
+     */
+    private boolean await( @NotNull FutureTask<Boolean> task, @NotNull ProgressIndicator indicator )
+    {
+        try
+        {
+            while ( true )
+            {
+                indicator.checkCanceled() ;
+
+                try
+                {
+                    return Boolean.TRUE.equals( task.get( POLL_INTERVAL, TimeUnit.MILLISECONDS ) ) ;
+                }
+                catch ( TimeoutException e )
+                {
+                    //Instalace ještě běží
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt() ;
+
+            return false ;
+        }
+        catch ( ExecutionException e )
+        {
+            final Throwable cause = e.getCause() ;
+
+            if ( cause instanceof RuntimeException )
+            {
+                throw ( RuntimeException )cause ;
+            }
+
+            throw new IllegalStateException( cause ) ;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * Seznam nainstalovaných souborů s jejich CRC a velikostí
+ *
+ * Ukládá se do instalačního adresáře a při další instalaci podle něj lze přeskočit nezměněné soubory
+ * a odstranit soubory, které nové vydání již neobsahuje.
+ */
+public class InstallManifest
+{
+    /**
+     * Název souboru se seznamem v instalačním adresáři
+     */
+    public final static String FILE_NAME = ".hotswap-manifest" ;
+
+    /**
+     * Relativní cesta souboru (oddělovač '/') a jeho CRC s velikostí
+     */
+    private final Map<String, String> files = new TreeMap<String, String>() ;
+
+    /**
+     * Načtení seznamu z instalačního adresáře
+     *
+     * @param directory     instalační adresář
+     * @return uložený seznam, nebo prázdný seznam pokud neexistuje nebo je poškozený
+     */
+    @NotNull
+    public static InstallManifest load( @NotNull File directory )
+    {
+        final InstallManifest manifest = new InstallManifest() ;
+        final File file = new File( directory, FILE_NAME ) ;
+
+        if ( file.isFile() )
+        {
+            try
+            {
+                final InputStream in = new FileInputStream( file ) ;
+
+                try
+                {
+                    final Properties properties = new Properties() ;
+
+                    properties.load( in ) ;
+
+                    for ( String path : properties.stringPropertyNames() )
+                    {
+                        manifest.files.put( path, properties.getProperty( path ) ) ;
+                    }
+                }
+                finally
+                {
+                    in.close() ;
+                }
+            }
+            catch ( IOException e )
+            {
+                //Poškozený seznam znamená úplnou instalaci
+                manifest.files.clear() ;
+            }
+            catch ( IllegalArgumentException e )
+            {
+                //Neplatná escape sekvence
+                manifest.files.clear() ;
+            }
+        }
+
+        return manifest ;
+    }
+
+    /**
+     * Uložení seznamu do instalačního adresáře, soubor se nahradí až po úplném zapsání
+     *
+     * @param directory     instalační adresář
+     */
+    public void save( @NotNull File directory ) throws IOException
+    {
+        final Properties properties = new Properties() ;
+
+        properties.putAll( files ) ;
+
+        final File file = new File( directory, FILE_NAME ) ;
+        final File tmp = new File( directory, FILE_NAME + ".tmp" ) ;
+        final OutputStream out = new FileOutputStream( tmp ) ;
+
+        try
+        {
+            properties.store( out, "Installed files: crc,size" ) ;
+        }
+        finally
+        {
+            out.close() ;
+        }
+
+        replace( tmp, file ) ;
+    }
+
+    /**
+     * @param path      relativní cesta souboru
+     * @param crc       CRC obsahu
+     * @param size      velikost obsahu
+     * @return příznak, zda je soubor nainstalován se stejným obsahem
+     */
+    public boolean matches( @NotNull String path, long crc, long size )
+    {
+        return value( crc, size ).equals( files.get( path ) ) ;
+    }
+
+    /**
+     * @param path      relativní cesta souboru
+     * @param other     jiný seznam
+     * @return příznak, zda je soubor v obou seznamech se stejným obsahem
+     */
+    public boolean matches( @NotNull String path, @NotNull InstallManifest other )
+    {
+        final String value = files.get( path ) ;
+
+        return ( value != null ) && ( value.equals( other.files.get( path ) ) ) ;
+    }
+
+    /**
+     * Zapsání souboru do seznamu
+     *
+     * @param path      relativní cesta souboru
+     * @param crc       CRC obsahu
+     * @param size      velikost obsahu
+     */
+    public void put( @NotNull String path, long crc, long size )
+    {
+        files.put( path, value( crc, size ) ) ;
+    }
+
+    /**
+     * Převzetí záznamu souboru z jiného seznamu
+     *
+     * @param path      relativní cesta souboru
+     * @param source    zdrojový seznam
+     */
+    public void copy( @NotNull String path, @NotNull InstallManifest source )
+    {
+        final String value = source.files.get( path ) ;
+
+        if ( value != null )
+        {
+            files.put( path, value ) ;
+        }
+    }
+
+    /**
+     * @return relativní cesty všech souborů
+     */
+    @NotNull
+    public Set<String> getPaths()
+    {
+        return Collections.unmodifiableSet( files.keySet() ) ;
+    }
+
+    /**
+     * Kontrola, že všechny soubory ze seznamu existují se zapsanou velikostí
+     *
+     * @param directory     instalační adresář
+     * @return příznak úplné instalace
+     */
+    public boolean isInstalled( @NotNull File directory )
+    {
+        for ( Map.Entry<String, String> entry : files.entrySet() )
+        {
+            final String value = entry.getValue() ;
+            final File file = new File( directory, entry.getKey() ) ;
+
+            if ( ( ! file.isFile() ) || ( ! value.substring( value.indexOf( ',' ) + 1 ).equals( String.valueOf( file.length() ) ) ) )
+            {
+                return false ;
+            }
+        }
+
+        return true ;
+    }
+
+    /**
+     * @return příznak, zda je seznam prázdný
+     */
+    public boolean isEmpty()
+    {
+        return files.isEmpty() ;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return ( o instanceof InstallManifest ) && ( files.equals( ( ( InstallManifest )o ).files ) ) ;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return files.hashCode() ;
+    }
+
+    private static String value( long crc, long size )
+    {
+        return Long.toHexString( crc ) + "," + size ;
+    }
+
+    /**
+     * Nahrazení souboru úplně zapsaným dočasným souborem
+     *
+     * Na POSIX systémech je přejmenování atomické a již spuštěná JVM si ponechá původní obsah.
+     *
+     * @param tmp       dočasný soubor
+     * @param target    nahrazovaný soubor
+     */
+    public static void replace( @NotNull File tmp, @NotNull File target ) throws IOException
+    {
+        if ( ! tmp.renameTo( target ) )
+        {
+            //Windows nepřejmenuje na existující soubor
+            if ( ( ! target.delete() ) || ( ! tmp.renameTo( target ) ) )
+            {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete() ;
+
+                throw new IOException( "Can`t replace " + target.getAbsolutePath() ) ;
+            }
+        }
+    }
+}
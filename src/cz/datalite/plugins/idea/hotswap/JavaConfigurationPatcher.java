@@ -0,0 +1,78 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.execution.CommonJavaRunConfigurationParameters;
+import com.intellij.execution.configurations.ModuleBasedConfiguration;
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+/**
+ * Konfigurace spouštějící JVM přímo z IDE: Application, JUnit, TestNG a další
+ * implementující {@link CommonJavaRunConfigurationParameters}
+ */
+public class JavaConfigurationPatcher implements ConfigurationPatcher
+{
+    @Override
+    public boolean isSupported( @NotNull RunConfiguration configuration )
+    {
+        return configuration instanceof CommonJavaRunConfigurationParameters ;
+    }
+
+    @Override
+    public boolean isEnabled( @NotNull RunConfiguration configuration )
+    {
+        return true ;
+    }
+
+    @Nullable
+    @Override
+    public String getVmOptions( @NotNull RunConfiguration configuration )
+    {
+        return ( ( CommonJavaRunConfigurationParameters )configuration ).getVMParameters() ;
+    }
+
+    @Override
+    public void setVmOptions( @NotNull RunConfiguration configuration, @NotNull String options )
+    {
+        ( ( CommonJavaRunConfigurationParameters )configuration ).setVMParameters( options ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getState( @NotNull RunConfiguration configuration )
+    {
+        return null ;
+    }
+
+    @Nullable
+    @Override
+    public String getJdkHome( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        final CommonJavaRunConfigurationParameters parameters = ( CommonJavaRunConfigurationParameters )configuration ;
+        final String alternativeJrePath = parameters.getAlternativeJrePath() ;
+
+        if ( ( parameters.isAlternativeJrePathEnabled() ) && ( alternativeJrePath != null ) && ( alternativeJrePath.trim().length() > 0 ) )
+        {
+            return SdkResolver.findJdkHome( alternativeJrePath ) ;
+        }
+
+        final Module module = getModule( project, configuration ) ;
+
+        return ( module != null ) ? SdkResolver.getJdkHome( module ) : null ;
+    }
+
+    @Nullable
+    @Override
+    public Module getModule( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        if ( configuration instanceof ModuleBasedConfiguration )
+        {
+            return ( ( ModuleBasedConfiguration<?> )configuration ).getConfigurationModule().getModule() ;
+        }
+
+        return null ;
+    }
+}
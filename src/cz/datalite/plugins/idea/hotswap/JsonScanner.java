@@ -0,0 +1,327 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+ * Postupné čtení JSON bez vytváření stromu
+ *
+ * Čtou se jen hodnoty, o které si volající řekne, ostatní se přeskočí bez ukládání. Oddělovače
+ * se kontrolují jen v rozsahu potřebném pro čtení odpovědí API GITHUB.
+ */
+class JsonScanner
+{
+    private final Reader in ;
+
+    /**
+     * Přečtený a dosud nezpracovaný znak, nebo -2
+     */
+    private int lookahead = -2 ;
+
+    /**
+     * Počet přečtených znaků pro chybová hlášení
+     */
+    private long position ;
+
+    /**
+     * @param in    čtená data, měla by být bufferovaná
+     */
+    JsonScanner( @NotNull Reader in )
+    {
+        this.in = in ;
+    }
+
+    void beginObject() throws IOException
+    {
+        expect( '{' ) ;
+    }
+
+    void endObject() throws IOException
+    {
+        expect( '}' ) ;
+    }
+
+    void beginArray() throws IOException
+    {
+        expect( '[' ) ;
+    }
+
+    void endArray() throws IOException
+    {
+        expect( ']' ) ;
+    }
+
+    /**
+     * @return příznak, zda objekt nebo pole obsahuje další položku, oddělovač se přeskočí
+     */
+    boolean hasNext() throws IOException
+    {
+        final int c = peek() ;
+
+        if ( c == ',' )
+        {
+            read() ;
+
+            return true ;
+        }
+
+        if ( c < 0 )
+        {
+            throw error( "Unexpected end of JSON" ) ;
+        }
+
+        return ( c != '}' ) && ( c != ']' ) ;
+    }
+
+    /**
+     * @return název další položky objektu
+     */
+    @NotNull
+    String nextName() throws IOException
+    {
+        final String name = nextString() ;
+
+        if ( name == null )
+        {
+            throw error( "Expected name" ) ;
+        }
+
+        expect( ':' ) ;
+
+        return name ;
+    }
+
+    /**
+     * @return textová hodnota, null pro hodnotu null
+     */
+    @Nullable
+    String nextString() throws IOException
+    {
+        if ( peek() == 'n' )
+        {
+            skipLiteral() ;
+
+            return null ;
+        }
+
+        final StringBuilder builder = new StringBuilder() ;
+
+        readString( builder ) ;
+
+        return builder.toString() ;
+    }
+
+    /**
+     * Přeskočení libovolné hodnoty včetně vnořených objektů a polí
+     */
+    void skipValue() throws IOException
+    {
+        final int c = peek() ;
+
+        if ( c == '{' )
+        {
+            beginObject() ;
+
+            while ( hasNext() )
+            {
+                readString( null ) ;
+                expect( ':' ) ;
+                skipValue() ;
+            }
+
+            endObject() ;
+        }
+        else if ( c == '[' )
+        {
+            beginArray() ;
+
+            while ( hasNext() )
+            {
+                skipValue() ;
+            }
+
+            endArray() ;
+        }
+        else if ( c == '"' )
+        {
+            readString( null ) ;
+        }
+        else
+        {
+            skipLiteral() ;
+        }
+    }
+
+    /**
+     * Čtení řetězce v uvozovkách
+     *
+     * @param builder   výstup, nebo null pokud se řetězec jen přeskakuje
+     */
+    private void readString( @Nullable StringBuilder builder ) throws IOException
+    {
+        expect( '"' ) ;
+
+        while ( true )
+        {
+            int c = read() ;
+
+            if ( c < 0 )
+            {
+                throw error( "Unterminated string" ) ;
+            }
+
+            if ( c == '"' )
+            {
+                return ;
+            }
+
+            if ( c == '\\' )
+            {
+                c = read() ;
+
+                switch ( c )
+                {
+                    case 'b':
+                        c = '\b' ;
+                        break ;
+                    case 'f':
+                        c = '\f' ;
+                        break ;
+                    case 'n':
+                        c = '\n' ;
+                        break ;
+                    case 'r':
+                        c = '\r' ;
+                        break ;
+                    case 't':
+                        c = '\t' ;
+                        break ;
+                    case 'u':
+                        c = readHex() ;
+                        break ;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break ;
+                    default:
+                        throw error( "Invalid escape" ) ;
+                }
+            }
+
+            if ( builder != null )
+            {
+                builder.append( ( char )c ) ;
+            }
+        }
+    }
+
+    /**
+     * @return znak zapsaný čtyřmi šestnáctkovými číslicemi
+     */
+    private int readHex() throws IOException
+    {
+        int value = 0 ;
+
+        for ( int i = 0 ; i < 4 ; i++ )
+        {
+            final int digit = Character.digit( read(), 16 ) ;
+
+            if ( digit < 0 )
+            {
+                throw error( "Invalid escape" ) ;
+            }
+
+            value = value * 16 + digit ;
+        }
+
+        return value ;
+    }
+
+    /**
+     * Přeskočení čísla, true, false nebo null
+     */
+    private void skipLiteral() throws IOException
+    {
+        int c = peek() ;
+
+        if ( ( c < 0 ) || ( ",:{}[]\"".indexOf( c ) >= 0 ) )
+        {
+            throw error( "Expected value" ) ;
+        }
+
+        while ( ( c >= 0 ) && ( ",:{}[]\"".indexOf( c ) < 0 ) && ( ! Character.isWhitespace( c ) ) )
+        {
+            read() ;
+            c = lookahead() ;
+        }
+    }
+
+    /**
+     * @param expected  očekávaný znak po případných mezerách
+     */
+    private void expect( char expected ) throws IOException
+    {
+        if ( peek() != expected )
+        {
+            throw error( "Expected '" + expected + "'" ) ;
+        }
+
+        read() ;
+    }
+
+    /**
+     * @return další znak po přeskočení mezer, nebo -1 na konci dat
+     */
+    private int peek() throws IOException
+    {
+        int c = lookahead() ;
+
+        while ( ( c >= 0 ) && ( Character.isWhitespace( c ) ) )
+        {
+            read() ;
+            c = lookahead() ;
+        }
+
+        return c ;
+    }
+
+    /**
+     * @return další znak bez jeho zpracování, nebo -1 na konci dat
+     */
+    private int lookahead() throws IOException
+    {
+        if ( lookahead == -2 )
+        {
+            lookahead = in.read() ;
+        }
+
+        return lookahead ;
+    }
+
+    /**
+     * @return další znak, nebo -1 na konci dat
+     */
+    private int read() throws IOException
+    {
+        final int c = lookahead() ;
+
+        lookahead = -2 ;
+        position++ ;
+
+        return c ;
+    }
+
+    /**
+     * @param message   popis chyby
+     * @return chyba s pozicí v datech
+     */
+    @NotNull
+    private IOException error( @NotNull String message )
+    {
+        return new IOException( message + " at position " + position ) ;
+    }
+}
@@ -0,0 +1,112 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Vydání v lokálním nebo sdíleném adresáři
+ *
+ * Adresář obsahuje soubor <code>latest.txt</code> s názvem posledního vydání a ZIP soubory
+ * v <code>&lt;vydání&gt;/HotswapAgent-&lt;vydání&gt;.zip</code>, případně s otiskem
+ * <code>.sha256</code> vedle nich.
+ */
+public class LocalReleaseSource implements ReleaseSource
+{
+    /**
+     * Název souboru s posledním vydáním
+     */
+    public final static String LATEST_FILE = "latest.txt" ;
+
+    /**
+     * Adresář s vydáními
+     */
+    private final File directory ;
+
+    /**
+     * @param directory     adresář s vydáními
+     */
+    public LocalReleaseSource( @NotNull File directory )
+    {
+        this.directory = directory ;
+    }
+
+    /**
+     * @param tagName   vydání
+     * @return název ZIP souboru vydání
+     */
+    @NotNull
+    public static String getBundleName( @NotNull String tagName )
+    {
+        return HotswapAgentIntegration.GITHUB_PROJECT + "-" + tagName + ".zip" ;
+    }
+
+    /**
+     * @param tagName   vydání
+     * @param platform  označení OS
+     * @return název ZIP souboru vydání jen pro daný OS
+     */
+    @NotNull
+    public static String getBundleName( @NotNull String tagName, @NotNull String platform )
+    {
+        return HotswapAgentIntegration.GITHUB_PROJECT + "-" + tagName + "-" + platform + ".zip" ;
+    }
+
+    @Nullable
+    @Override
+    public String getLatestTag() throws IOException
+    {
+        final File latest = new File( directory, LATEST_FILE ) ;
+
+        if ( ! latest.isFile() )
+        {
+            throw new IOException( "Can`t find " + latest.getAbsolutePath() ) ;
+        }
+
+        final String tagName = FileUtil.loadFile( latest ).trim() ;
+
+        return ( tagName.length() > 0 ) ? tagName : null ;
+    }
+
+    @NotNull
+    @Override
+    public String getBundleUrl( @NotNull String tagName )
+    {
+        return getBundle( tagName ).toURI().toString() ;
+    }
+
+    @Nullable
+    @Override
+    public String getPlatformBundleUrl( @NotNull String tagName )
+    {
+        //Ze souboru se čtou jen potřebné položky, menší soubor nic neušetří
+        return null ;
+    }
+
+    @Nullable
+    @Override
+    public File getLocalBundle( @NotNull String tagName )
+    {
+        return getBundle( tagName ) ;
+    }
+
+    /**
+     * @param tagName   vydání
+     * @return ZIP soubor vydání
+     */
+    @NotNull
+    private File getBundle( @NotNull String tagName )
+    {
+        return new File( new File( directory, tagName ), getBundleName( tagName ) ) ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "directory " + directory.getAbsolutePath() ;
+    }
+}
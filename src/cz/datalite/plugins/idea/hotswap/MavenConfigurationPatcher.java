@@ -0,0 +1,125 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.projectRoots.ProjectJdkTable;
+import com.intellij.openapi.projectRoots.Sdk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.maven.execution.MavenRunConfiguration;
+import org.jetbrains.idea.maven.execution.MavenRunner;
+import org.jetbrains.idea.maven.execution.MavenRunnerParameters;
+import org.jetbrains.idea.maven.execution.MavenRunnerSettings;
+
+
+/**
+ * Maven konfigurace, agent se používá jen pro cíle spouštějící aplikaci, sestavení běží na
+ * standardní JVM bez zpomalení startu
+ */
+public class MavenConfigurationPatcher implements ConfigurationPatcher
+{
+    /**
+     * Klíč nastavení se vzory cílů Mavenu, pro které se použije Hotswap agent, oddělené čárkou
+     */
+    public final static String MAVEN_GOALS_KEY = "cz.datalite.plugins.idea.hotswap.maven.goals" ;
+
+    /**
+     * Výchozí vzory cílů Mavenu, které spouštějí aplikaci
+     */
+    public final static String DEFAULT_MAVEN_GOALS = "jetty:run*,tomcat*:run*,spring-boot:run,exec:java,wildfly:run,jboss-as:run,appengine:devserver" ;
+
+    @Override
+    public boolean isSupported( @NotNull RunConfiguration configuration )
+    {
+        return configuration instanceof MavenRunConfiguration ;
+    }
+
+    @Override
+    public boolean isEnabled( @NotNull RunConfiguration configuration )
+    {
+        final MavenRunnerParameters parameters = ( ( MavenRunConfiguration )configuration ).getRunnerParameters() ;
+
+        return ( parameters != null ) && ( GoalPatterns.matches( parameters.getGoals(), MAVEN_GOALS_KEY, DEFAULT_MAVEN_GOALS ) ) ;
+    }
+
+    /**
+     * Konfigurace bez vlastního nastavení běží s globálním nastavením Mavenu
+     */
+    @Nullable
+    @Override
+    public String getVmOptions( @NotNull RunConfiguration configuration )
+    {
+        MavenRunnerSettings settings = ( ( MavenRunConfiguration )configuration ).getRunnerSettings() ;
+
+        if ( settings == null )
+        {
+            settings = MavenRunner.getInstance( configuration.getProject() ).getState() ;
+        }
+
+        return ( settings != null ) ? settings.getVmOptions() : null ;
+    }
+
+    /**
+     * Parametry se zapisují jen do nastavení konfigurace, globální nastavení Mavenu zůstává beze změny
+     *
+     * Konfigurace bez vlastního nastavení dostane kopii globálního, aby si ponechala JRE, proměnné
+     * prostředí a ostatní nastavení, se kterými dosud běžela.
+     */
+    @Override
+    public void setVmOptions( @NotNull RunConfiguration configuration, @NotNull String options )
+    {
+        final MavenRunConfiguration mavenConfiguration = ( MavenRunConfiguration )configuration ;
+
+        if ( mavenConfiguration.getRunnerSettings() == null )
+        {
+            final MavenRunnerSettings settings = MavenRunner.getInstance( configuration.getProject() ).getState() ;
+
+            mavenConfiguration.setRunnerSettings( ( settings != null ) ? settings.clone() : new MavenRunnerSettings() ) ;
+        }
+
+        mavenConfiguration.getRunnerSettings().setVmOptions( options ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getState( @NotNull RunConfiguration configuration )
+    {
+        final MavenRunnerParameters parameters = ( ( MavenRunConfiguration )configuration ).getRunnerParameters() ;
+
+        return ( parameters != null ) ? String.valueOf( parameters.getGoals() ) : null ;
+    }
+
+    @Nullable
+    @Override
+    public String getJdkHome( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        MavenRunnerSettings settings = ( ( MavenRunConfiguration )configuration ).getRunnerSettings() ;
+
+        if ( settings == null )
+        {
+            settings = MavenRunner.getInstance( project ).getSettings() ;
+        }
+
+        final String jreName = ( settings != null ) ? settings.getJreName() : null ;
+
+        //Jména začínající '#' označují JDK projektu, IDE nebo JAVA_HOME
+        if ( ( jreName != null ) && ( ! jreName.startsWith( "#" ) ) )
+        {
+            final Sdk sdk = ProjectJdkTable.getInstance().findJdk( jreName ) ;
+
+            return ( sdk != null ) ? sdk.getHomePath() : null ;
+        }
+
+        return null ;
+    }
+
+    @Nullable
+    @Override
+    public Module getModule( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        final MavenRunnerParameters parameters = ( ( MavenRunConfiguration )configuration ).getRunnerParameters() ;
+
+        return ( parameters != null ) ? AgentProperties.findModule( project, parameters.getWorkingDirPath() ) : null ;
+    }
+}
@@ -0,0 +1,93 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+
+/**
+ * Vydání na interním HTTP zrcadle
+ *
+ * Zrcadlo má stejné uspořádání jako {@link LocalReleaseSource}: soubor <code>latest.txt</code>
+ * s názvem posledního vydání a ZIP soubory v <code>&lt;vydání&gt;/HotswapAgent-&lt;vydání&gt;.zip</code>.
+ */
+public class MirrorReleaseSource implements ReleaseSource
+{
+    /**
+     * Základní adresa zrcadla bez koncového lomítka
+     */
+    private final String baseUrl ;
+
+    /**
+     * @param baseUrl   základní adresa zrcadla
+     */
+    public MirrorReleaseSource( @NotNull String baseUrl )
+    {
+        this.baseUrl = baseUrl.endsWith( "/" ) ? baseUrl.substring( 0, baseUrl.length() - 1 ) : baseUrl ;
+    }
+
+    @Nullable
+    @Override
+    public String getLatestTag() throws IOException
+    {
+        final HttpURLConnection connection = HttpConnections.open( baseUrl + "/" + LocalReleaseSource.LATEST_FILE ) ;
+
+        try
+        {
+            if ( connection.getResponseCode() != HttpURLConnection.HTTP_OK )
+            {
+                throw new IOException( "Mirror " + baseUrl + " - Server error " + connection.getResponseCode() + " " + connection.getResponseMessage() ) ;
+            }
+
+            final BufferedReader reader = new BufferedReader( new InputStreamReader( connection.getInputStream(), "UTF-8" ) ) ;
+
+            try
+            {
+                final String tagName = reader.readLine() ;
+
+                return ( ( tagName != null ) && ( tagName.trim().length() > 0 ) ) ? tagName.trim() : null ;
+            }
+            finally
+            {
+                reader.close() ;
+            }
+        }
+        finally
+        {
+            connection.disconnect() ;
+        }
+    }
+
+    @NotNull
+    @Override
+    public String getBundleUrl( @NotNull String tagName )
+    {
+        return baseUrl + "/" + tagName + "/" + LocalReleaseSource.getBundleName( tagName ) ;
+    }
+
+    @Nullable
+    @Override
+    public String getPlatformBundleUrl( @NotNull String tagName )
+    {
+        //Zrcadlo nemá seznam souborů, ze souhrnného vydání se stáhnou jen potřebné položky
+        return null ;
+    }
+
+    @Nullable
+    @Override
+    public File getLocalBundle( @NotNull String tagName )
+    {
+        return null ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "mirror " + baseUrl ;
+    }
+}
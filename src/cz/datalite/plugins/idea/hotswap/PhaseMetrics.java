@@ -0,0 +1,374 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Alarm;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Měření doby trvání a výsledku jednotlivých fází kontroly, stahování, instalace a úpravy konfigurací
+ *
+ * Každá dokončená fáze se zapíše do logu IDE jako jeden řádek <code>key=value</code> a přičte se do
+ * souhrnu. Souhrn všech fází od spuštění IDE se nejpozději minutu po změně a při ukončení IDE uloží
+ * do logovacího adresáře IDE (<code>hotswap-metrics.properties</code>), odkud ho lze sbírat
+ * a porovnávat mezi vývojáři.
+ */
+public class PhaseMetrics implements Disposable
+{
+    private final static Logger LOG = Logger.getInstance( PhaseMetrics.class ) ;
+
+    /**
+     * Název souboru se souhrnem v logovacím adresáři IDE
+     */
+    public final static String SNAPSHOT_FILE = "hotswap-metrics.properties" ;
+
+    /**
+     * Prodleva uložení souhrnu po první změně v milisekundách
+     */
+    private final static int EXPORT_DELAY = 60 * 1000 ;
+
+    /**
+     * Instance pro měření bez běžícího IDE (benchmarky v adresáři bench)
+     */
+    private final static PhaseMetrics STANDALONE = new PhaseMetrics() ;
+
+    /**
+     * Souhrn podle názvu fáze
+     */
+    private final Map<String, Summary> summaries = new TreeMap<String, Summary>() ;
+
+    /**
+     * Odložené uložení souhrnu, vytvoří se až s první fází v IDE
+     */
+    private Alarm alarm ;
+
+    /**
+     * Příznak změny souhrnu od posledního uložení
+     */
+    private boolean dirty ;
+
+    /**
+     * @return instance sdílená celou aplikací
+     */
+    public static PhaseMetrics getInstance()
+    {
+        if ( ApplicationManager.getApplication() == null )
+        {
+            return STANDALONE ;
+        }
+
+        return ServiceManager.getService( PhaseMetrics.class ) ;
+    }
+
+    /**
+     * Zahájení měření fáze, ukončí se voláním {@link Phase#finish()} ve finally bloku
+     *
+     * @param name      název fáze
+     * @return měřená fáze
+     */
+    @NotNull
+    public static Phase start( @NotNull String name )
+    {
+        return new Phase( name.trim().replaceAll( "\\s+", "-" ) ) ;
+    }
+
+    /**
+     * @return souhrn všech fází ve formátu properties
+     */
+    @NotNull
+    public synchronized String getSnapshot()
+    {
+        final StringBuilder snapshot = new StringBuilder() ;
+
+        for ( Map.Entry<String, Summary> entry : summaries.entrySet() )
+        {
+            entry.getValue().append( snapshot, "phase." + entry.getKey() + "." ) ;
+        }
+
+        return snapshot.toString() ;
+    }
+
+    /**
+     * Uložení souhrnu do souboru
+     *
+     * @param file      cílový soubor
+     */
+    public void export( @NotNull File file ) throws IOException
+    {
+        FileUtil.createParentDirs( file ) ;
+        FileUtil.writeToFile( file, getSnapshot() ) ;
+    }
+
+    /**
+     * @param phase     dokončená fáze
+     */
+    private void record( @NotNull Phase phase )
+    {
+        if ( this == STANDALONE )
+        {
+            //Bez IDE není kam logovat, souhrn si přečte ten, kdo měření spustil
+            synchronized ( this )
+            {
+                add( phase ) ;
+            }
+
+            return ;
+        }
+
+        LOG.info( phase.toString() ) ;
+
+        synchronized ( this )
+        {
+            add( phase ) ;
+
+            //Fáze dokončené do uložení se zapíší najednou
+            if ( ! dirty )
+            {
+                dirty = true ;
+
+                if ( alarm == null )
+                {
+                    alarm = new Alarm( Alarm.ThreadToUse.POOLED_THREAD, this ) ;
+                }
+
+                alarm.addRequest( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        exportSnapshot() ;
+                    }
+                }, EXPORT_DELAY ) ;
+            }
+        }
+    }
+
+    /**
+     * Uložení změněného souhrnu do logovacího adresáře IDE
+     */
+    private void exportSnapshot()
+    {
+        synchronized ( this )
+        {
+            if ( ! dirty )
+            {
+                return ;
+            }
+
+            dirty = false ;
+        }
+
+        try
+        {
+            export( new File( PathManager.getLogPath(), SNAPSHOT_FILE ) ) ;
+        }
+        catch ( IOException e )
+        {
+            LOG.debug( e ) ;
+        }
+    }
+
+    /**
+     * Uložení souhrnu při ukončení IDE
+     */
+    @Override
+    public void dispose()
+    {
+        exportSnapshot() ;
+    }
+
+    /**
+     * Přičtení fáze do souhrnu, volá se se zámkem instance
+     *
+     * @param phase     dokončená fáze
+     */
+    private void add( @NotNull Phase phase )
+    {
+        Summary summary = summaries.get( phase.name ) ;
+
+        if ( summary == null )
+        {
+            summary = new Summary() ;
+            summaries.put( phase.name, summary ) ;
+        }
+
+        summary.add( phase ) ;
+    }
+
+    /**
+     * Jedna měřená fáze
+     */
+    public static class Phase
+    {
+        /**
+         * Název fáze
+         */
+        private final String name ;
+
+        /**
+         * Začátek fáze v nanosekundách
+         */
+        private final long start = System.nanoTime() ;
+
+        /**
+         * Počítadla fáze, například přenesené bajty nebo upravené konfigurace
+         */
+        private final Map<String, Long> counters = new LinkedHashMap<String, Long>() ;
+
+        /**
+         * Výsledek fáze, bez potvrzení úspěchu se fáze považuje za neúspěšnou
+         */
+        private String outcome = "failed" ;
+
+        /**
+         * Doba trvání v milisekundách, nebo -1 dokud fáze neskončila
+         */
+        private long duration = -1 ;
+
+        /**
+         * @param name      název fáze
+         */
+        private Phase( @NotNull String name )
+        {
+            this.name = name ;
+        }
+
+        /**
+         * @param counter   název počítadla
+         * @param value     hodnota
+         * @return tato fáze
+         */
+        @NotNull
+        public Phase set( @NotNull String counter, long value )
+        {
+            counters.put( counter, value ) ;
+
+            return this ;
+        }
+
+        /**
+         * Potvrzení úspěšného dokončení
+         */
+        public void succeed()
+        {
+            outcome = "ok" ;
+        }
+
+        /**
+         * Nastavení jiného výsledku, například "cancelled" nebo "timeout"
+         *
+         * @param outcome   výsledek fáze
+         */
+        public void setOutcome( @NotNull String outcome )
+        {
+            this.outcome = outcome ;
+        }
+
+        /**
+         * Ukončení měření a zápis fáze, opakovaná volání nic nedělají
+         */
+        public void finish()
+        {
+            if ( duration < 0 )
+            {
+                duration = ( System.nanoTime() - start ) / 1000000 ;
+
+                final Long bytes = counters.get( "bytes" ) ;
+
+                //Propustnost přenosů a rozbalování
+                if ( ( bytes != null ) && ( duration > 0 ) )
+                {
+                    counters.put( "bytesPerSecond", bytes * 1000 / duration ) ;
+                }
+
+                getInstance().record( this ) ;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder builder = new StringBuilder( "phase=" ).append( name )
+                    .append( " outcome=" ).append( outcome )
+                    .append( " durationMs=" ).append( duration ) ;
+
+            for ( Map.Entry<String, Long> counter : counters.entrySet() )
+            {
+                builder.append( ' ' ).append( counter.getKey() ).append( '=' ).append( counter.getValue() ) ;
+            }
+
+            return builder.toString() ;
+        }
+    }
+
+    /**
+     * Souhrn všech průběhů jedné fáze
+     */
+    private static class Summary
+    {
+        private long count ;
+
+        /**
+         * Počet průběhů podle výsledku
+         */
+        private final Map<String, Long> outcomes = new TreeMap<String, Long>() ;
+
+        private long totalDuration ;
+
+        private long maxDuration ;
+
+        /**
+         * Poslední průběh
+         */
+        private Phase last ;
+
+        /**
+         * @param phase     dokončená fáze
+         */
+        private void add( @NotNull Phase phase )
+        {
+            final Long outcome = outcomes.get( phase.outcome ) ;
+
+            outcomes.put( phase.outcome, ( outcome != null ) ? outcome + 1 : 1 ) ;
+            count++ ;
+            totalDuration += phase.duration ;
+            maxDuration = Math.max( maxDuration, phase.duration ) ;
+            last = phase ;
+        }
+
+        /**
+         * @param snapshot  výstup
+         * @param prefix    prefix klíčů fáze
+         */
+        private void append( @NotNull StringBuilder snapshot, @NotNull String prefix )
+        {
+            snapshot.append( prefix ).append( "count=" ).append( count ).append( '\n' ) ;
+
+            for ( Map.Entry<String, Long> outcome : outcomes.entrySet() )
+            {
+                snapshot.append( prefix ).append( "outcome." ).append( outcome.getKey() ).append( '=' ).append( outcome.getValue() ).append( '\n' ) ;
+            }
+
+            snapshot.append( prefix ).append( "avgMs=" ).append( totalDuration / count ).append( '\n' ) ;
+            snapshot.append( prefix ).append( "maxMs=" ).append( maxDuration ).append( '\n' ) ;
+            snapshot.append( prefix ).append( "last.durationMs=" ).append( last.duration ).append( '\n' ) ;
+            snapshot.append( prefix ).append( "last.outcome=" ).append( last.outcome ).append( '\n' ) ;
+
+            for ( Map.Entry<String, Long> counter : last.counters.entrySet() )
+            {
+                snapshot.append( prefix ).append( "last." ).append( counter.getKey() ).append( '=' ).append( counter.getValue() ).append( '\n' ) ;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Vstupní data, jejichž čtení se promítá do indikátoru průběhu
+ */
+public class ProgressInputStream extends FilterInputStream
+{
+    /**
+     * Indikátor průběhu
+     */
+    private final ProgressIndicator indicator ;
+
+    /**
+     * Očekávaná délka dat, nebo hodnota menší než 1 pokud není známa
+     */
+    private final long contentLength ;
+
+    /**
+     * Počet přečtených bajtů
+     */
+    private long read ;
+
+    /**
+     * @param in            vstupní data
+     * @param indicator     indikátor průběhu
+     * @param contentLength očekávaná délka dat
+     */
+    public ProgressInputStream( @NotNull InputStream in, @NotNull ProgressIndicator indicator, long contentLength )
+    {
+        super( in ) ;
+
+        this.indicator = indicator ;
+        this.contentLength = contentLength ;
+
+        indicator.setIndeterminate( contentLength <= 0 ) ;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final int b = super.read() ;
+
+        if ( b >= 0 )
+        {
+            progress( 1 ) ;
+        }
+
+        return b ;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException
+    {
+        final int count = super.read( b, off, len ) ;
+
+        if ( count > 0 )
+        {
+            progress( count ) ;
+        }
+
+        return count ;
+    }
+
+    @Override
+    public long skip( long n ) throws IOException
+    {
+        final long count = super.skip( n ) ;
+
+        progress( count ) ;
+
+        return count ;
+    }
+
+    /**
+     * @return počet přečtených bajtů
+     */
+    public long getRead()
+    {
+        return read ;
+    }
+
+    /**
+     * Aktualizace indikátoru průběhu
+     *
+     * @param count     počet nově přečtených bajtů
+     */
+    private void progress( long count )
+    {
+        indicator.checkCanceled() ;
+
+        read += count ;
+
+        if ( contentLength > 0 )
+        {
+            indicator.setFraction( ( double )read / contentLength ) ;
+        }
+    }
+}
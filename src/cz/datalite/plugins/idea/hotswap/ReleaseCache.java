@@ -0,0 +1,348 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.components.ServiceManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Sdílená cache informací o posledním vydání pro všechny otevřené projekty
+ *
+ * Poslední známá verze se ukládá do {@link PropertiesComponent} aplikace. Po vypršení platnosti se
+ * ověřuje podmíněným dotazem (ETag / If-Modified-Since), takže nezměněná odpověď 304 nic nestojí
+ * a nepočítá se do limitu anonymních dotazů GITHUB.
+ */
+public class ReleaseCache
+{
+    /**
+     * Klíč, který určuje dobu platnosti cache v minutách
+     */
+    public final static String TTL_KEY = "cz.datalite.plugins.idea.hotswap.release.ttl" ;
+
+    /**
+     * Výchozí doba platnosti cache v minutách
+     */
+    public final static long DEFAULT_TTL = 6 * 60 ;
+
+    /**
+     * Prefix klíčů jednotlivých repositářů
+     */
+    private final static String KEY_PREFIX = "cz.datalite.plugins.idea.hotswap.release." ;
+
+    /**
+     * Probíhající dotazy na GITHUB podle repositáře
+     */
+    private final ConcurrentMap<String, FutureTask<String>> requests = new ConcurrentHashMap<String, FutureTask<String>>() ;
+
+    /**
+     * @return instance sdílená celou aplikací
+     */
+    public static ReleaseCache getInstance()
+    {
+        return ServiceManager.getService( ReleaseCache.class ) ;
+    }
+
+    /**
+     * Zjištění posledního vydání, pokud je to potřeba, ověří se na GITHUB
+     *
+     * Dotaz neprobíhá pod zámkem cache. Souběžná volání pro stejný repositář čekají na jeden dotaz,
+     * čekání lze přerušit.
+     *
+     * @param repository    název repositáře
+     * @return poslední platné vydání
+     * @throws IOException pokud se nepodaří spojit s GITHUB a v cache nic není
+     */
+    @Nullable
+    public String getLatestTag( @NotNull final String repository ) throws IOException
+    {
+        final PropertiesComponent properties = PropertiesComponent.getInstance() ;
+        final String tag ;
+
+        synchronized ( this )
+        {
+            tag = properties.getValue( key( repository, "tag" ) ) ;
+
+            //Platí i zjištění, že repositář žádné vydání nemá
+            if ( System.currentTimeMillis() - getLong( properties, key( repository, "checked" ) ) < getTtl() )
+            {
+                return tag ;
+            }
+        }
+
+        try
+        {
+            return await( request( properties, repository, tag ) ) ;
+        }
+        catch ( IOException e )
+        {
+            //Bez sítě se použije poslední známá verze
+            if ( tag != null )
+            {
+                return tag ;
+            }
+
+            throw e ;
+        }
+    }
+
+    /**
+     * Spuštění dotazu, pokud pro repositář již neprobíhá
+     *
+     * @param properties    úložiště cache
+     * @param repository    název repositáře
+     * @param tag           dosud známé vydání
+     * @return dokončený nebo probíhající dotaz
+     */
+    @NotNull
+    private FutureTask<String> request( @NotNull final PropertiesComponent properties, @NotNull final String repository, @Nullable final String tag )
+    {
+        final FutureTask<String> task = new FutureTask<String>( new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return revalidate( properties, repository, tag ) ;
+            }
+        } ) ;
+        final FutureTask<String> running = requests.putIfAbsent( repository, task ) ;
+
+        if ( running != null )
+        {
+            return running ;
+        }
+
+        try
+        {
+            task.run() ;
+        }
+        finally
+        {
+            requests.remove( repository, task ) ;
+        }
+
+        return task ;
+    }
+
+    /**
+     * @param task      dotaz
+     * @return výsledek dotazu
+     * @throws IOException pokud dotaz selhal nebo bylo čekání přerušeno
+     */
+    @Nullable
+    private static String await( @NotNull FutureTask<String> task ) throws IOException
+    {
+        try
+        {
+            return task.get() ;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt() ;
+
+            throw new InterruptedIOException( "Release check was interrupted" ) ;
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw ( IOException )e.getCause() ;
+            }
+
+            if ( e.getCause() instanceof RuntimeException )
+            {
+                throw ( RuntimeException )e.getCause() ;
+            }
+
+            if ( e.getCause() instanceof Error )
+            {
+                throw ( Error )e.getCause() ;
+            }
+
+            throw new IOException( e.getCause() ) ;
+        }
+    }
+
+    /**
+     * Podmíněný dotaz na GITHUB, probíhá mimo zámek cache
+     *
+     * @param properties    úložiště cache
+     * @param repository    název repositáře
+     * @param tag           dosud známé vydání
+     * @return poslední platné vydání
+     */
+    @Nullable
+    private String revalidate( @NotNull PropertiesComponent properties, @NotNull String repository, @Nullable String tag ) throws IOException
+    {
+        final ReleaseClient.Release known ;
+
+        synchronized ( this )
+        {
+            known = ( tag != null ) ? new ReleaseClient.Release( tag, properties.getValue( key( repository, "etag" ) ), properties.getValue( key( repository, "lastModified" ) ), getAssets( properties, repository ) ) : null ;
+        }
+
+        final ReleaseClient.Release latest = new ReleaseClient( ReleaseClient.GITHUB_API_URL ).getLatest( repository, known ) ;
+
+        synchronized ( this )
+        {
+            store( properties, repository, latest ) ;
+        }
+
+        return ( latest != null ) ? latest.getTag() : null ;
+    }
+
+    /**
+     * Uložení odpovědi GITHUB
+     *
+     * @param properties    úložiště cache
+     * @param repository    název repositáře
+     * @param latest        poslední vydání, nebo null pokud repositář žádné nemá
+     */
+    private static void store( @NotNull PropertiesComponent properties, @NotNull String repository, @Nullable ReleaseClient.Release latest )
+    {
+        if ( latest != null )
+        {
+            properties.setValue( key( repository, "tag" ), latest.getTag() ) ;
+            setOrUnset( properties, key( repository, "etag" ), latest.getEtag() ) ;
+            setOrUnset( properties, key( repository, "lastModified" ), latest.getLastModified() ) ;
+            setOrUnset( properties, key( repository, "assets" ), encodeAssets( latest.getAssets() ) ) ;
+        }
+        else
+        {
+            properties.unsetValue( key( repository, "tag" ) ) ;
+            properties.unsetValue( key( repository, "etag" ) ) ;
+            properties.unsetValue( key( repository, "lastModified" ) ) ;
+            properties.unsetValue( key( repository, "assets" ) ) ;
+        }
+
+        //Do doby platnosti se znovu neptá ani po zjištění, že vydání není
+        properties.setValue( key( repository, "checked" ), String.valueOf( System.currentTimeMillis() ) ) ;
+    }
+
+    /**
+     * Adresa souboru posledního známého vydání, bez dotazu na GITHUB
+     *
+     * @param repository    název repositáře
+     * @param tag           vydání
+     * @param name          název souboru
+     * @return adresa pro stažení, nebo null pokud vydání soubor nemá nebo není poslední známé
+     */
+    @Nullable
+    public synchronized String getAssetUrl( @NotNull String repository, @NotNull String tag, @NotNull String name )
+    {
+        final PropertiesComponent properties = PropertiesComponent.getInstance() ;
+
+        return tag.equals( properties.getValue( key( repository, "tag" ) ) ) ? getAssets( properties, repository ).get( name ) : null ;
+    }
+
+    /**
+     * @param properties    úložiště cache
+     * @param repository    název repositáře
+     * @return adresy souborů posledního známého vydání podle názvu
+     */
+    @NotNull
+    private static Map<String, String> getAssets( @NotNull PropertiesComponent properties, @NotNull String repository )
+    {
+        final Map<String, String> assets = new LinkedHashMap<String, String>() ;
+        final String encoded = properties.getValue( key( repository, "assets" ) ) ;
+
+        if ( encoded != null )
+        {
+            for ( String line : encoded.split( "\n" ) )
+            {
+                final int separator = line.indexOf( '\t' ) ;
+
+                if ( separator > 0 )
+                {
+                    assets.put( line.substring( 0, separator ), line.substring( separator + 1 ) ) ;
+                }
+            }
+        }
+
+        return assets ;
+    }
+
+    /**
+     * @param assets    adresy souborů podle názvu
+     * @return řádky "název TAB adresa", nebo null pro prázdný seznam
+     */
+    @Nullable
+    private static String encodeAssets( @NotNull Map<String, String> assets )
+    {
+        final StringBuilder encoded = new StringBuilder() ;
+
+        for ( Map.Entry<String, String> asset : assets.entrySet() )
+        {
+            encoded.append( asset.getKey() ).append( '\t' ).append( asset.getValue() ).append( '\n' ) ;
+        }
+
+        return ( encoded.length() > 0 ) ? encoded.toString() : null ;
+    }
+
+    /**
+     * @return doba platnosti cache v milisekundách
+     */
+    private long getTtl()
+    {
+        return getLong( PropertiesComponent.getInstance(), TTL_KEY, DEFAULT_TTL ) * 60 * 1000 ;
+    }
+
+    /**
+     * Zneplatnění cache, příští dotaz se ověří na GITHUB
+     *
+     * @param repository    název repositáře
+     */
+    public synchronized void invalidate( @NotNull String repository )
+    {
+        PropertiesComponent.getInstance().unsetValue( key( repository, "checked" ) ) ;
+    }
+
+    /**
+     * @param repository    název repositáře
+     * @param name          název hodnoty
+     * @return klíč hodnoty
+     */
+    private static String key( @NotNull String repository, @NotNull String name )
+    {
+        return KEY_PREFIX + repository + "." + name ;
+    }
+
+    private static long getLong( @NotNull PropertiesComponent properties, @NotNull String key )
+    {
+        return getLong( properties, key, 0 ) ;
+    }
+
+    private static long getLong( @NotNull PropertiesComponent properties, @NotNull String key, long defaultValue )
+    {
+        try
+        {
+            return Long.parseLong( properties.getValue( key, String.valueOf( defaultValue ) ) ) ;
+        }
+        catch ( NumberFormatException e )
+        {
+            return defaultValue ;
+        }
+    }
+
+    private static void setOrUnset( @NotNull PropertiesComponent properties, @NotNull String key, @Nullable String value )
+    {
+        if ( value != null )
+        {
+            properties.setValue( key, value ) ;
+        }
+        else
+        {
+            properties.unsetValue( key ) ;
+        }
+    }
+}
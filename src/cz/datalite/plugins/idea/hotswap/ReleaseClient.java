@@ -0,0 +1,282 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * Podmíněný dotaz na poslední vydání přes API GITHUB
+ *
+ * Třída nic neukládá, validátory odpovědi (ETag / Last-Modified) si drží volající, viz
+ * {@link ReleaseCache}. Adresu API lze změnit, benchmark instalace ji směruje na lokální server.
+ *
+ * Odpověď se čte postupně ({@link JsonScanner}) a jen do konce seznamu souborů vydání, zbytek
+ * včetně popisu vydání se nečte. Komprimovaná odpověď se rozbalí.
+ */
+public class ReleaseClient
+{
+    /**
+     * Adresa API GITHUB
+     */
+    public final static String GITHUB_API_URL = "https://api.github.com" ;
+
+    /**
+     * Cesta pro zjištění posledního vydání, koncepty a předběžná vydání se vynechají
+     */
+    public final static String LATEST_RELEASE_PATH_PATTERN = "/repos/%s/releases/latest" ;
+
+    /**
+     * Adresa API bez koncového lomítka
+     */
+    private final String apiUrl ;
+
+    /**
+     * @param apiUrl    adresa API
+     */
+    public ReleaseClient( @NotNull String apiUrl )
+    {
+        this.apiUrl = apiUrl.endsWith( "/" ) ? apiUrl.substring( 0, apiUrl.length() - 1 ) : apiUrl ;
+    }
+
+    /**
+     * Zjištění posledního vydání
+     *
+     * @param repository    název repositáře
+     * @param known         dosud známé vydání s validátory, nebo null
+     * @return poslední vydání, beze změny známé vydání, nebo null pokud repositář žádné vydání nemá
+     */
+    @Nullable
+    public Release getLatest( @NotNull String repository, @Nullable Release known ) throws IOException
+    {
+        final HttpURLConnection connection = HttpConnections.open( apiUrl + String.format( LATEST_RELEASE_PATH_PATTERN, repository ) ) ;
+
+        try
+        {
+            connection.setRequestProperty( "Accept", "application/vnd.github.v3+json" ) ;
+            connection.setRequestProperty( "Accept-Encoding", "gzip" ) ;
+
+            if ( known != null )
+            {
+                if ( known.etag != null )
+                {
+                    connection.setRequestProperty( "If-None-Match", known.etag ) ;
+                }
+
+                if ( known.lastModified != null )
+                {
+                    connection.setRequestProperty( "If-Modified-Since", known.lastModified ) ;
+                }
+            }
+
+            final int responseCode = connection.getResponseCode() ;
+
+            if ( ( responseCode == HttpURLConnection.HTTP_NOT_MODIFIED ) && ( known != null ) )
+            {
+                return known ;
+            }
+
+            if ( responseCode == HttpURLConnection.HTTP_NOT_FOUND )
+            {
+                //Repositář zatím nemá žádné vydání
+                return null ;
+            }
+
+            if ( responseCode != HttpURLConnection.HTTP_OK )
+            {
+                throw new IOException( "Server error " + responseCode + " " + connection.getResponseMessage() ) ;
+            }
+
+            return readRelease( connection ) ;
+        }
+        finally
+        {
+            connection.disconnect() ;
+        }
+    }
+
+    /**
+     * Načtení názvu a souborů vydání z odpovědi
+     *
+     * @param connection    otevřené spojení
+     * @return poslední vydání, nebo null pokud odpověď název neobsahuje
+     */
+    @Nullable
+    private Release readRelease( @NotNull HttpURLConnection connection ) throws IOException
+    {
+        final InputStream in = "gzip".equalsIgnoreCase( connection.getContentEncoding() ) ? new GZIPInputStream( connection.getInputStream() ) : connection.getInputStream() ;
+
+        try
+        {
+            final JsonScanner scanner = new JsonScanner( new BufferedReader( new InputStreamReader( in, "UTF-8" ) ) ) ;
+            final Map<String, String> assets = new LinkedHashMap<String, String>() ;
+            String tag = null ;
+            boolean assetsRead = false ;
+
+            scanner.beginObject() ;
+
+            //Zbytek odpovědi se po zjištění názvu a souborů nečte
+            while ( ( ( tag == null ) || ( ! assetsRead ) ) && ( scanner.hasNext() ) )
+            {
+                final String name = scanner.nextName() ;
+
+                if ( name.equals( "tag_name" ) )
+                {
+                    tag = scanner.nextString() ;
+                }
+                else if ( name.equals( "assets" ) )
+                {
+                    readAssets( scanner, assets ) ;
+                    assetsRead = true ;
+                }
+                else
+                {
+                    scanner.skipValue() ;
+                }
+            }
+
+            return ( tag != null ) ? new Release( tag, connection.getHeaderField( "ETag" ), connection.getHeaderField( "Last-Modified" ), assets ) : null ;
+        }
+        finally
+        {
+            in.close() ;
+        }
+    }
+
+    /**
+     * @param scanner   odpověď před seznamem souborů vydání
+     * @param assets    výstup, adresy pro stažení podle názvu souboru
+     */
+    private static void readAssets( @NotNull JsonScanner scanner, @NotNull Map<String, String> assets ) throws IOException
+    {
+        scanner.beginArray() ;
+
+        while ( scanner.hasNext() )
+        {
+            String name = null ;
+            String url = null ;
+
+            scanner.beginObject() ;
+
+            while ( scanner.hasNext() )
+            {
+                final String field = scanner.nextName() ;
+
+                if ( field.equals( "name" ) )
+                {
+                    name = scanner.nextString() ;
+                }
+                else if ( field.equals( "browser_download_url" ) )
+                {
+                    url = scanner.nextString() ;
+                }
+                else
+                {
+                    scanner.skipValue() ;
+                }
+            }
+
+            scanner.endObject() ;
+
+            if ( ( name != null ) && ( url != null ) )
+            {
+                assets.put( name, url ) ;
+            }
+        }
+
+        scanner.endArray() ;
+    }
+
+    @Override
+    public String toString()
+    {
+        return apiUrl ;
+    }
+
+    /**
+     * Vydání s validátory odpovědi, ve které bylo zjištěno
+     */
+    public static class Release
+    {
+        private final String tag ;
+
+        private final String etag ;
+
+        private final String lastModified ;
+
+        /**
+         * Adresy pro stažení podle názvu souboru
+         */
+        private final Map<String, String> assets ;
+
+        /**
+         * @param tag           název vydání
+         * @param etag          ETag odpovědi, nebo null
+         * @param lastModified  Last-Modified odpovědi, nebo null
+         */
+        public Release( @NotNull String tag, @Nullable String etag, @Nullable String lastModified )
+        {
+            this( tag, etag, lastModified, Collections.<String, String>emptyMap() ) ;
+        }
+
+        /**
+         * @param tag           název vydání
+         * @param etag          ETag odpovědi, nebo null
+         * @param lastModified  Last-Modified odpovědi, nebo null
+         * @param assets        adresy pro stažení podle názvu souboru
+         */
+        public Release( @NotNull String tag, @Nullable String etag, @Nullable String lastModified, @NotNull Map<String, String> assets )
+        {
+            this.tag = tag ;
+            this.etag = etag ;
+            this.lastModified = lastModified ;
+            this.assets = Collections.unmodifiableMap( assets ) ;
+        }
+
+        /**
+         * @return název vydání
+         */
+        @NotNull
+        public String getTag()
+        {
+            return tag ;
+        }
+
+        /**
+         * @return ETag odpovědi, nebo null
+         */
+        @Nullable
+        public String getEtag()
+        {
+            return etag ;
+        }
+
+        /**
+         * @return Last-Modified odpovědi, nebo null
+         */
+        @Nullable
+        public String getLastModified()
+        {
+            return lastModified ;
+        }
+
+        /**
+         * @return adresy pro stažení podle názvu souboru, u nezměněného vydání (304) adresy
+         *         dosud známého vydání, prázdné pokud vydání žádné soubory nemá
+         */
+        @NotNull
+        public Map<String, String> getAssets()
+        {
+            return assets ;
+        }
+    }
+}
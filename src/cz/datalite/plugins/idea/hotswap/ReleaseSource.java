@@ -0,0 +1,45 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Zdroj vydání Hotswap agenta
+ *
+ * Instalace pracuje jen s tímto rozhraním, takže lze vydání brát z GITHUB, z interního HTTP
+ * zrcadla nebo ze sdíleného adresáře bez přístupu k internetu.
+ */
+public interface ReleaseSource
+{
+    /**
+     * @return poslední platné vydání, nebo null pokud žádné neexistuje
+     * @throws IOException pokud zdroj není dostupný
+     */
+    @Nullable
+    String getLatestTag() throws IOException ;
+
+    /**
+     * @param tagName   vydání
+     * @return adresa ZIP souboru vydání
+     */
+    @NotNull
+    String getBundleUrl( @NotNull String tagName ) ;
+
+    /**
+     * @param tagName   vydání
+     * @return adresa ZIP souboru vydání jen pro aktuální OS, nebo null pokud ho zdroj nezveřejňuje
+     */
+    @Nullable
+    String getPlatformBundleUrl( @NotNull String tagName ) ;
+
+    /**
+     * @param tagName   vydání
+     * @return ZIP soubor vydání dostupný v souborovém systému, nebo null pokud se musí stáhnout
+     */
+    @Nullable
+    File getLocalBundle( @NotNull String tagName ) ;
+}
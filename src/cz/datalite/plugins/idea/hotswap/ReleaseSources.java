@@ -0,0 +1,44 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ide.util.PropertiesComponent;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+
+
+/**
+ * Výběr zdroje vydání podle nastavení
+ */
+public class ReleaseSources
+{
+    /**
+     * Klíč, který určuje zdroj vydání: prázdný pro GITHUB, adresa http(s) pro zrcadlo, jinak cesta
+     * k adresáři s vydáními
+     */
+    public final static String SOURCE_KEY = "cz.datalite.plugins.idea.hotswap.source" ;
+
+    private ReleaseSources()
+    {
+    }
+
+    /**
+     * @return zdroj vydání podle aktuálního nastavení
+     */
+    @NotNull
+    public static ReleaseSource getConfigured()
+    {
+        final String location = PropertiesComponent.getInstance().getValue( SOURCE_KEY, "" ).trim() ;
+
+        if ( location.length() == 0 )
+        {
+            return new GitHubReleaseSource() ;
+        }
+
+        if ( ( location.startsWith( "http://" ) ) || ( location.startsWith( "https://" ) ) )
+        {
+            return new MirrorReleaseSource( location ) ;
+        }
+
+        return new LocalReleaseSource( new File( location ) ) ;
+    }
+}
@@ -0,0 +1,770 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+
+/**
+ * ZIP soubor na HTTP serveru čtený po částech dotazy <code>Range</code>
+ *
+ * Nejprve se stáhne konec souboru s centrálním adresářem, podle něj se pak stahují jen vybrané
+ * položky. Položky ležící blízko sebe se stáhnou jedním dotazem. Data položek se rozbalují
+ * přímo při čtení a kontroluje se jejich CRC. Všechny dotazy se vážou na ETag prvního dotazu,
+ * bez něj na Last-Modified, pokud se soubor na serveru mezitím změní, čtení skončí chybou. Server
+ * bez obou hlaviček změnu souboru ohlásit nemůže, soubor se pak stáhne celý. ZIP64 a šifrované
+ * položky podporovány nejsou.
+ */
+public class RemoteZip
+{
+    /**
+     * Zpracování stažené položky
+     */
+    public interface EntryHandler
+    {
+        /**
+         * @param entry     položka
+         * @param in        rozbalená data položky, neuzavírají se
+         */
+        void handle( @NotNull ZipEntry entry, @NotNull InputStream in ) throws IOException ;
+    }
+
+    private final static int LOCAL_HEADER_SIGNATURE = 0x04034b50 ;
+
+    private final static int CENTRAL_HEADER_SIGNATURE = 0x02014b50 ;
+
+    private final static int END_SIGNATURE = 0x06054b50 ;
+
+    private final static int LOCAL_HEADER_SIZE = 30 ;
+
+    private final static int CENTRAL_HEADER_SIZE = 46 ;
+
+    private final static int END_SIZE = 22 ;
+
+    /**
+     * Příznak položky s názvem v UTF-8, bez něj je název v kódování CP437
+     */
+    private final static int UTF8_FLAG = 0x800 ;
+
+    /**
+     * Kódování názvů bez příznaku UTF-8, na JRE bez rozšířených kódování ISO-8859-1
+     */
+    private final static String LEGACY_ENCODING = Charset.isSupported( "IBM437" ) ? "IBM437" : "ISO-8859-1" ;
+
+    /**
+     * Velikost konce souboru stahovaného na začátku, pokryje i nejdelší komentář ZIP souboru
+     */
+    private final static int TAIL_SIZE = END_SIZE + 0xFFFF ;
+
+    /**
+     * Největší mezera mezi vybranými položkami, kterou se vyplatí stáhnout místo dalšího dotazu
+     */
+    private final static long MAX_GAP = 64 * 1024 ;
+
+    /**
+     * Adresa souboru
+     */
+    private final String url ;
+
+    /**
+     * ETag nebo Last-Modified souboru pro hlavičku <code>If-Range</code>
+     */
+    private final String validator ;
+
+    /**
+     * Položky podle centrálního adresáře
+     */
+    private final List<ZipEntry> entries = new ArrayList<ZipEntry>() ;
+
+    /**
+     * Začátek lokální hlavičky podle položky
+     */
+    private final Map<ZipEntry, Long> offsets = new HashMap<ZipEntry, Long>() ;
+
+    /**
+     * Konec dat položky, začátek následující položky v souboru
+     */
+    private final Map<ZipEntry, Long> ends = new HashMap<ZipEntry, Long>() ;
+
+    /**
+     * Začátek centrálního adresáře, konec dat poslední položky
+     */
+    private long centralDirectoryOffset ;
+
+    /**
+     * Počet přenesených bajtů
+     */
+    private long transferred ;
+
+    /**
+     * @param url           adresa souboru
+     * @param validator     ETag nebo Last-Modified souboru
+     */
+    private RemoteZip( @NotNull String url, @NotNull String validator )
+    {
+        this.url = url ;
+        this.validator = validator ;
+    }
+
+    /**
+     * Načtení centrálního adresáře
+     *
+     * @param url       adresa souboru
+     * @return ZIP soubor, nebo null pokud server nepodporuje dotazy <code>Range</code> nebo neposílá
+     *         ETag ani Last-Modified
+     * @throws IOException pokud se adresář nepodaří načíst nebo má nepodporovaný formát
+     */
+    @Nullable
+    public static RemoteZip open( @NotNull String url ) throws IOException
+    {
+        final HttpURLConnection connection = HttpConnections.open( url ) ;
+        final RemoteZip zip ;
+        final byte[] tail ;
+        final long length ;
+
+        try
+        {
+            connection.setRequestProperty( "Range", "bytes=-" + TAIL_SIZE ) ;
+
+            final int responseCode = connection.getResponseCode() ;
+
+            if ( responseCode == HttpURLConnection.HTTP_OK )
+            {
+                //Celý soubor se nestahuje, stáhne ho běžná instalace
+                return null ;
+            }
+
+            if ( responseCode != HttpURLConnection.HTTP_PARTIAL )
+            {
+                throw new IOException( "Server error " + responseCode + " " + connection.getResponseMessage() ) ;
+            }
+
+            final String validator = getValidator( connection ) ;
+
+            if ( validator == null )
+            {
+                //Změnu souboru mezi dotazy by nebylo možné poznat
+                return null ;
+            }
+
+            length = getTotalLength( connection.getHeaderField( "Content-Range" ) ) ;
+            zip = new RemoteZip( url, validator ) ;
+            tail = zip.readFully( connection.getInputStream() ) ;
+        }
+        finally
+        {
+            connection.disconnect() ;
+        }
+
+        final int end = findEnd( tail ) ;
+        final int count = getShort( tail, end + 10 ) ;
+        final long size = getInt( tail, end + 12 ) ;
+        final long offset = getInt( tail, end + 16 ) ;
+
+        if ( ( count == 0xFFFF ) || ( size == 0xFFFFFFFFL ) || ( offset == 0xFFFFFFFFL ) )
+        {
+            throw new IOException( "ZIP64 bundle " + url + " is not supported" ) ;
+        }
+
+        final long tailOffset = length - tail.length ;
+        final byte[] directory ;
+
+        if ( offset >= tailOffset )
+        {
+            directory = new byte[ ( int )size ] ;
+            System.arraycopy( tail, ( int )( offset - tailOffset ), directory, 0, ( int )size ) ;
+        }
+        else
+        {
+            final HttpURLConnection range = zip.openRange( offset, offset + size - 1 ) ;
+
+            try
+            {
+                directory = zip.readFully( range.getInputStream() ) ;
+            }
+            finally
+            {
+                range.disconnect() ;
+            }
+        }
+
+        zip.centralDirectoryOffset = offset ;
+        zip.parseDirectory( directory, count ) ;
+
+        return zip ;
+    }
+
+    /**
+     * @return položky podle centrálního adresáře v pořadí v souboru
+     */
+    @NotNull
+    public List<ZipEntry> getEntries()
+    {
+        return Collections.unmodifiableList( entries ) ;
+    }
+
+    /**
+     * @return počet přenesených bajtů
+     */
+    public long getTransferred()
+    {
+        return transferred ;
+    }
+
+    /**
+     * Stažení a rozbalení vybraných položek
+     *
+     * @param selected      vybrané položky
+     * @param indicator     indikátor průběhu, nebo null
+     * @param handler       zpracování položek
+     */
+    public void read( @NotNull List<ZipEntry> selected, @Nullable ProgressIndicator indicator, @NotNull EntryHandler handler ) throws IOException
+    {
+        final List<ZipEntry> sorted = new ArrayList<ZipEntry>( selected ) ;
+
+        Collections.sort( sorted, new Comparator<ZipEntry>()
+        {
+            @Override
+            public int compare( ZipEntry o1, ZipEntry o2 )
+            {
+                final long offset1 = offsets.get( o1 ) ;
+                final long offset2 = offsets.get( o2 ) ;
+
+                return ( offset1 < offset2 ) ? -1 : ( ( offset1 == offset2 ) ? 0 : 1 ) ;
+            }
+        } ) ;
+
+        long total = 0 ;
+
+        for ( ZipEntry entry : sorted )
+        {
+            total += getEnd( entry ) - offsets.get( entry ) ;
+        }
+
+        if ( indicator != null )
+        {
+            indicator.setIndeterminate( total <= 0 ) ;
+        }
+
+        long done = 0 ;
+        int first = 0 ;
+
+        while ( first < sorted.size() )
+        {
+            //Sloučení blízkých položek do jednoho dotazu
+            int last = first ;
+
+            while ( ( last + 1 < sorted.size() ) && ( offsets.get( sorted.get( last + 1 ) ) - getEnd( sorted.get( last ) ) <= MAX_GAP ) )
+            {
+                last++ ;
+            }
+
+            final long start = offsets.get( sorted.get( first ) ) ;
+            final long end = getEnd( sorted.get( last ) ) ;
+            final HttpURLConnection connection = openRange( start, end - 1 ) ;
+
+            try
+            {
+                final CountingInputStream in = new CountingInputStream( new BufferedInputStream( connection.getInputStream() ), start ) ;
+
+                for ( int i = first ; i <= last ; i++ )
+                {
+                    if ( indicator != null )
+                    {
+                        indicator.checkCanceled() ;
+                    }
+
+                    final ZipEntry entry = sorted.get( i ) ;
+
+                    skip( in, offsets.get( entry ) - in.position ) ;
+                    readEntry( entry, in, handler ) ;
+
+                    done += getEnd( entry ) - offsets.get( entry ) ;
+
+                    if ( ( indicator != null ) && ( total > 0 ) )
+                    {
+                        indicator.setFraction( ( double )done / total ) ;
+                    }
+                }
+
+                transferred += end - start ;
+            }
+            finally
+            {
+                connection.disconnect() ;
+            }
+
+            first = last + 1 ;
+        }
+    }
+
+    /**
+     * Rozbalení jedné položky od začátku její lokální hlavičky
+     *
+     * @param entry     položka
+     * @param in        data na začátku lokální hlavičky
+     * @param handler   zpracování položky
+     */
+    private void readEntry( @NotNull ZipEntry entry, @NotNull CountingInputStream in, @NotNull EntryHandler handler ) throws IOException
+    {
+        final byte[] header = new byte[ LOCAL_HEADER_SIZE ] ;
+
+        new DataInputStream( in ).readFully( header ) ;
+
+        if ( getInt( header, 0 ) != LOCAL_HEADER_SIGNATURE )
+        {
+            throw new IOException( "Invalid local header of " + entry.getName() + " in " + url ) ;
+        }
+
+        //Lokální hlavička může mít jiná rozšíření než centrální adresář
+        skip( in, getShort( header, 26 ) + getShort( header, 28 ) ) ;
+
+        final InputStream compressed = new BoundedInputStream( in, entry.getCompressedSize() ) ;
+        final CheckedInputStream data ;
+        final Inflater inflater = ( entry.getMethod() == ZipEntry.DEFLATED ) ? new Inflater( true ) : null ;
+
+        if ( inflater != null )
+        {
+            data = new CheckedInputStream( new EntryInflaterInputStream( compressed, inflater ), new CRC32() ) ;
+        }
+        else
+        {
+            data = new CheckedInputStream( compressed, new CRC32() ) ;
+        }
+
+        try
+        {
+            handler.handle( entry, data ) ;
+
+            //Dočtení položky, pokud ji zpracování nepřečetlo celou
+            final byte[] buffer = new byte[ 8192 ] ;
+
+            //noinspection StatementWithEmptyBody
+            while ( data.read( buffer ) >= 0 ) ;
+
+            final long size = ( inflater != null ) ? inflater.getBytesWritten() : entry.getCompressedSize() ;
+
+            if ( ( data.getChecksum().getValue() != entry.getCrc() ) || ( size != entry.getSize() ) )
+            {
+                throw new IOException( "CRC mismatch of " + entry.getName() + " in " + url ) ;
+            }
+        }
+        finally
+        {
+            if ( inflater != null )
+            {
+                inflater.end() ;
+            }
+        }
+    }
+
+    /**
+     * @param entry     položka
+     * @return konec dat položky, začátek další položky nebo centrálního adresáře
+     */
+    private long getEnd( @NotNull ZipEntry entry )
+    {
+        return ends.get( entry ) ;
+    }
+
+    /**
+     * Načtení položek centrálního adresáře
+     *
+     * @param directory     centrální adresář
+     * @param count         počet položek
+     */
+    private void parseDirectory( @NotNull byte[] directory, int count ) throws IOException
+    {
+        int position = 0 ;
+
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            if ( ( position + CENTRAL_HEADER_SIZE > directory.length ) || ( getInt( directory, position ) != CENTRAL_HEADER_SIGNATURE ) )
+            {
+                throw new IOException( "Invalid central directory of " + url ) ;
+            }
+
+            final int flags = getShort( directory, position + 8 ) ;
+            final int method = getShort( directory, position + 10 ) ;
+            final long compressedSize = getInt( directory, position + 20 ) ;
+            final long size = getInt( directory, position + 24 ) ;
+            final int nameLength = getShort( directory, position + 28 ) ;
+            final int extraLength = getShort( directory, position + 30 ) ;
+            final int commentLength = getShort( directory, position + 32 ) ;
+            final long offset = getInt( directory, position + 42 ) ;
+
+            if ( ( flags & 1 ) != 0 )
+            {
+                throw new IOException( "Encrypted bundle " + url + " is not supported" ) ;
+            }
+
+            if ( ( method != ZipEntry.STORED ) && ( method != ZipEntry.DEFLATED ) )
+            {
+                throw new IOException( "Compression method " + method + " of " + url + " is not supported" ) ;
+            }
+
+            final String encoding = ( ( flags & UTF8_FLAG ) != 0 ) ? "UTF-8" : LEGACY_ENCODING ;
+            final ZipEntry entry = new ZipEntry( new String( directory, position + CENTRAL_HEADER_SIZE, nameLength, encoding ) ) ;
+
+            entry.setMethod( method ) ;
+            entry.setCrc( getInt( directory, position + 16 ) ) ;
+            entry.setCompressedSize( compressedSize ) ;
+            entry.setSize( size ) ;
+
+            entries.add( entry ) ;
+            offsets.put( entry, offset ) ;
+
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength ;
+        }
+
+        //Konec položky se určuje podle následující položky v souboru
+        Collections.sort( entries, new Comparator<ZipEntry>()
+        {
+            @Override
+            public int compare( ZipEntry o1, ZipEntry o2 )
+            {
+                final long offset1 = offsets.get( o1 ) ;
+                final long offset2 = offsets.get( o2 ) ;
+
+                return ( offset1 < offset2 ) ? -1 : ( ( offset1 == offset2 ) ? 0 : 1 ) ;
+            }
+        } ) ;
+
+        for ( int i = 0 ; i < entries.size() ; i++ )
+        {
+            ends.put( entries.get( i ), ( i + 1 < entries.size() ) ? offsets.get( entries.get( i + 1 ) ) : centralDirectoryOffset ) ;
+        }
+    }
+
+    /**
+     * @param first     první bajt
+     * @param last      poslední bajt
+     * @return spojení s požadovanou částí souboru
+     */
+    @NotNull
+    private HttpURLConnection openRange( long first, long last ) throws IOException
+    {
+        final HttpURLConnection connection = HttpConnections.open( url ) ;
+
+        connection.setRequestProperty( "Range", "bytes=" + first + "-" + last ) ;
+        connection.setRequestProperty( "If-Range", validator ) ;
+
+        if ( connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL )
+        {
+            connection.disconnect() ;
+
+            //Server poslal celý soubor, mezitím se změnil
+            throw new IOException( "Bundle " + url + " changed during download" ) ;
+        }
+
+        return connection ;
+    }
+
+    /**
+     * @param in    data, po přečtení se uzavřou
+     * @return všechna data
+     */
+    @NotNull
+    private byte[] readFully( @NotNull InputStream in ) throws IOException
+    {
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+            final byte[] buffer = new byte[ 8192 ] ;
+            int count ;
+
+            while ( ( count = in.read( buffer ) ) >= 0 )
+            {
+                out.write( buffer, 0, count ) ;
+            }
+
+            transferred += out.size() ;
+
+            return out.toByteArray() ;
+        }
+        finally
+        {
+            in.close() ;
+        }
+    }
+
+    /**
+     * Slabý ETag server v <code>If-Range</code> nepřijme, použije se místo něj Last-Modified
+     *
+     * @param connection    spojení s první částí souboru
+     * @return ETag nebo Last-Modified souboru, nebo null pokud server neposílá ani jeden
+     */
+    @Nullable
+    private static String getValidator( @NotNull HttpURLConnection connection )
+    {
+        final String etag = connection.getHeaderField( "ETag" ) ;
+
+        if ( ( etag != null ) && ( ! etag.startsWith( "W/" ) ) )
+        {
+            return etag ;
+        }
+
+        return connection.getHeaderField( "Last-Modified" ) ;
+    }
+
+    /**
+     * @param contentRange  hlavička "bytes první-poslední/délka"
+     * @return délka celého souboru
+     */
+    private static long getTotalLength( @Nullable String contentRange ) throws IOException
+    {
+        final int separator = ( contentRange != null ) ? contentRange.lastIndexOf( '/' ) : -1 ;
+
+        try
+        {
+            if ( separator >= 0 )
+            {
+                return Long.parseLong( contentRange.substring( separator + 1 ).trim() ) ;
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            //Délka není známa
+        }
+
+        throw new IOException( "Invalid Content-Range " + contentRange ) ;
+    }
+
+    /**
+     * @param tail      konec souboru
+     * @return začátek záznamu o konci centrálního adresáře
+     */
+    private static int findEnd( @NotNull byte[] tail ) throws IOException
+    {
+        for ( int i = tail.length - END_SIZE ; i >= 0 ; i-- )
+        {
+            if ( getInt( tail, i ) == END_SIGNATURE )
+            {
+                return i ;
+            }
+        }
+
+        throw new IOException( "End of central directory not found" ) ;
+    }
+
+    private static int getShort( @NotNull byte[] data, int offset )
+    {
+        return ( data[ offset ] & 0xFF ) | ( ( data[ offset + 1 ] & 0xFF ) << 8 ) ;
+    }
+
+    private static long getInt( @NotNull byte[] data, int offset )
+    {
+        return ( getShort( data, offset ) | ( ( long )getShort( data, offset + 2 ) << 16 ) ) & 0xFFFFFFFFL ;
+    }
+
+    /**
+     * @param in        vstupní data
+     * @param count     počet přeskakovaných bajtů
+     */
+    private static void skip( @NotNull InputStream in, long count ) throws IOException
+    {
+        while ( count > 0 )
+        {
+            final long skipped = in.skip( count ) ;
+
+            if ( skipped <= 0 )
+            {
+                throw new EOFException( "Unexpected end of bundle" ) ;
+            }
+
+            count -= skipped ;
+        }
+    }
+
+    /**
+     * Data s pozicí v souboru
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        /**
+         * Pozice v souboru
+         */
+        private long position ;
+
+        private CountingInputStream( @NotNull InputStream in, long position )
+        {
+            super( in ) ;
+
+            this.position = position ;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int b = super.read() ;
+
+            if ( b >= 0 )
+            {
+                position++ ;
+            }
+
+            return b ;
+        }
+
+        @Override
+        public int read( @NotNull byte[] b, int off, int len ) throws IOException
+        {
+            final int count = super.read( b, off, len ) ;
+
+            if ( count > 0 )
+            {
+                position += count ;
+            }
+
+            return count ;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            final long skipped = super.skip( n ) ;
+
+            position += skipped ;
+
+            return skipped ;
+        }
+    }
+
+    /**
+     * Data omezená na danou délku, podkladová data se neuzavírají
+     */
+    private static class BoundedInputStream extends FilterInputStream
+    {
+        private long remaining ;
+
+        private BoundedInputStream( @NotNull InputStream in, long length )
+        {
+            super( in ) ;
+
+            this.remaining = length ;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1 ;
+            }
+
+            final int b = super.read() ;
+
+            if ( b < 0 )
+            {
+                throw new EOFException( "Unexpected end of bundle" ) ;
+            }
+
+            remaining-- ;
+
+            return b ;
+        }
+
+        @Override
+        public int read( @NotNull byte[] b, int off, int len ) throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1 ;
+            }
+
+            final int count = super.read( b, off, ( int )Math.min( len, remaining ) ) ;
+
+            if ( count < 0 )
+            {
+                throw new EOFException( "Unexpected end of bundle" ) ;
+            }
+
+            remaining -= count ;
+
+            return count ;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            final long skipped = super.skip( Math.min( n, remaining ) ) ;
+
+            remaining -= skipped ;
+
+            return skipped ;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return ( int )Math.min( super.available(), remaining ) ;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * Rozbalení dat položky bez hlavičky zlib
+     *
+     * Inflater bez hlavičky potřebuje za koncem dat ještě jeden bajt, stejně jako při čtení
+     * {@link java.util.zip.ZipFile}.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream
+    {
+        private boolean eof ;
+
+        private EntryInflaterInputStream( @NotNull InputStream in, @NotNull Inflater inflater )
+        {
+            super( in, inflater, 8192 ) ;
+        }
+
+        @Override
+        protected void fill() throws IOException
+        {
+            if ( eof )
+            {
+                throw new EOFException( "Unexpected end of ZLIB input stream" ) ;
+            }
+
+            len = in.read( buf, 0, buf.length ) ;
+
+            if ( len == -1 )
+            {
+                buf[ 0 ] = 0 ;
+                len = 1 ;
+                eof = true ;
+            }
+
+            inf.setInput( buf, 0, len ) ;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+
+/**
+ * Stahování souboru s možností navázání po přerušeném spojení
+ *
+ * Stažená data se průběžně ukládají do souboru <code>.part</code>, vedle kterého se uloží validátor
+ * (ETag / Last-Modified) serveru. Další pokus pokračuje dotazem <code>Range</code>, a pokud se
+ * soubor na serveru mezitím změnil nebo odpověď nenavazuje na staženou část, začne se znovu od
+ * začátku. Chyby klienta (4xx kromě 408 a 416) se neopakují.
+ *
+ * Pokud je zadán výpočet otisku, počítá se průběžně při zápisu, při navázání se nejprve
+ * započítá již stažená část.
+ */
+public class ResumableDownloader
+{
+    /**
+     * Přípona rozpracovaného souboru
+     */
+    public final static String PART_SUFFIX = ".part" ;
+
+    /**
+     * Přípona souboru s validátorem rozpracovaného souboru
+     */
+    private final static String VALIDATOR_SUFFIX = ".validator" ;
+
+    /**
+     * Velikost bufferu pro kopírování
+     */
+    private final static int BUFFER_SIZE = 64 * 1024 ;
+
+    /**
+     * Maximální počet opakování
+     */
+    private final int retries ;
+
+    /**
+     * Čekání před prvním opakováním v milisekundách, každé další se zdvojnásobí
+     */
+    private final long backoff ;
+
+    /**
+     * @param retries   maximální počet opakování
+     * @param backoff   čekání před prvním opakováním v milisekundách
+     */
+    public ResumableDownloader( int retries, long backoff )
+    {
+        this.retries = retries ;
+        this.backoff = backoff ;
+    }
+
+    /**
+     * Stažení souboru
+     *
+     * @param url           adresa souboru
+     * @param destination   cílový soubor
+     * @param indicator     indikátor průběhu stahování
+     * @param digest        výpočet otisku staženého souboru, nebo null
+     * @return stažený soubor
+     * @throws IOException pokud se soubor nepodaří stáhnout ani po opakování
+     */
+    @NotNull
+    public File download( @NotNull String url, @NotNull File destination, @NotNull ProgressIndicator indicator, @Nullable MessageDigest digest ) throws IOException
+    {
+        final File part = new File( destination.getPath() + PART_SUFFIX ) ;
+        final File validator = new File( destination.getPath() + VALIDATOR_SUFFIX ) ;
+
+        FileUtilRt.createParentDirs( part ) ;
+
+        for ( int attempt = 0 ; ; attempt++ )
+        {
+            indicator.checkCanceled() ;
+
+            try
+            {
+                downloadPart( url, part, validator, indicator, digest ) ;
+
+                FileUtilRt.delete( destination ) ;
+
+                if ( ! part.renameTo( destination ) )
+                {
+                    throw new IOException( "Can`t rename " + part.getAbsolutePath() + " to " + destination.getAbsolutePath() ) ;
+                }
+
+                FileUtilRt.delete( validator ) ;
+
+                return destination ;
+            }
+            catch ( IOException e )
+            {
+                if ( ( attempt >= retries ) || ( e instanceof ClientErrorException ) )
+                {
+                    throw e ;
+                }
+
+                indicator.setText2( "Connection failed, retrying: " + e.getMessage() ) ;
+
+                sleep( backoff << attempt, indicator ) ;
+            }
+        }
+    }
+
+    /**
+     * Stažení nebo dokončení rozpracovaného souboru
+     *
+     * @param url           adresa souboru
+     * @param part          rozpracovaný soubor
+     * @param validator     soubor s validátorem
+     * @param indicator     indikátor průběhu stahování
+     * @param digest        výpočet otisku, nebo null
+     */
+    private void downloadPart( @NotNull String url, @NotNull File part, @NotNull File validator, @NotNull ProgressIndicator indicator, @Nullable MessageDigest digest ) throws IOException
+    {
+        final Properties stored = loadValidator( validator ) ;
+        final String ifRange = ( stored != null ) ? stored.getProperty( "etag", stored.getProperty( "lastModified" ) ) : null ;
+        final long offset = ( ( ifRange != null ) && ( part.exists() ) ) ? part.length() : 0 ;
+
+        final HttpURLConnection connection = HttpConnections.open( url ) ;
+
+        try
+        {
+            if ( offset > 0 )
+            {
+                connection.setRequestProperty( "Range", "bytes=" + offset + "-" ) ;
+                connection.setRequestProperty( "If-Range", ifRange ) ;
+            }
+
+            final int responseCode = connection.getResponseCode() ;
+            final boolean append ;
+
+            if ( responseCode == HttpURLConnection.HTTP_PARTIAL )
+            {
+                final long start = getRangeStart( connection.getHeaderField( "Content-Range" ) ) ;
+
+                if ( start != offset )
+                {
+                    if ( offset == 0 )
+                    {
+                        throw new IOException( "Unexpected Content-Range " + connection.getHeaderField( "Content-Range" ) ) ;
+                    }
+
+                    //Proxy rozsah nedodržela, bez validátoru se stahuje znovu celý soubor
+                    FileUtilRt.delete( part ) ;
+                    FileUtilRt.delete( validator ) ;
+                    connection.disconnect() ;
+
+                    downloadPart( url, part, validator, indicator, digest ) ;
+
+                    return ;
+                }
+
+                append = offset > 0 ;
+            }
+            else if ( responseCode == HttpURLConnection.HTTP_OK )
+            {
+                //Server rozsahy nepodporuje nebo se soubor změnil
+                append = false ;
+            }
+            else if ( ( responseCode == 416 ) && ( offset > 0 ) && ( String.valueOf( offset ).equals( stored.getProperty( "length" ) ) ) )
+            {
+                //Soubor je již celý stažen
+                update( digest, part ) ;
+
+                return ;
+            }
+            else
+            {
+                if ( responseCode == 416 )
+                {
+                    FileUtilRt.delete( part ) ;
+                    FileUtilRt.delete( validator ) ;
+                }
+
+                if ( ( responseCode >= 400 ) && ( responseCode < 500 ) && ( responseCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT ) && ( responseCode != 416 ) )
+                {
+                    throw new ClientErrorException( "Server error " + responseCode + " " + connection.getResponseMessage() ) ;
+                }
+
+                throw new IOException( "Server error " + responseCode + " " + connection.getResponseMessage() ) ;
+            }
+
+            final long length = connection.getContentLength() ;
+            final long total = ( length > 0 ) ? ( append ? offset + length : length ) : -1 ;
+
+            storeValidator( validator, connection, total ) ;
+
+            if ( append )
+            {
+                update( digest, part ) ;
+            }
+            else if ( digest != null )
+            {
+                digest.reset() ;
+            }
+
+            final InputStream in = connection.getInputStream() ;
+            final OutputStream out = new FileOutputStream( part, append ) ;
+
+            try
+            {
+                indicator.setIndeterminate( total <= 0 ) ;
+
+                final byte[] buffer = new byte[ BUFFER_SIZE ] ;
+                long position = append ? offset : 0 ;
+                int count ;
+
+                while ( ( count = in.read( buffer ) ) >= 0 )
+                {
+                    indicator.checkCanceled() ;
+
+                    out.write( buffer, 0, count ) ;
+                    position += count ;
+
+                    if ( digest != null )
+                    {
+                        digest.update( buffer, 0, count ) ;
+                    }
+
+                    if ( total > 0 )
+                    {
+                        indicator.setFraction( ( double )position / total ) ;
+                    }
+                }
+
+                if ( ( total > 0 ) && ( position != total ) )
+                {
+                    throw new EOFException( "Connection closed after " + position + " of " + total + " bytes" ) ;
+                }
+            }
+            finally
+            {
+                out.close() ;
+                in.close() ;
+            }
+        }
+        finally
+        {
+            connection.disconnect() ;
+        }
+    }
+
+    /**
+     * @param contentRange  hlavička "bytes první-poslední/délka"
+     * @return první bajt odpovědi, nebo -1 pokud hlavička chybí nebo má neplatný tvar
+     */
+    static long getRangeStart( @Nullable String contentRange )
+    {
+        if ( ( contentRange == null ) || ( ! contentRange.startsWith( "bytes " ) ) )
+        {
+            return -1 ;
+        }
+
+        final int dash = contentRange.indexOf( '-' ) ;
+
+        try
+        {
+            return ( dash > 0 ) ? Long.parseLong( contentRange.substring( "bytes ".length(), dash ).trim() ) : -1 ;
+        }
+        catch ( NumberFormatException e )
+        {
+            return -1 ;
+        }
+    }
+
+    /**
+     * Započítání již stažené části do otisku
+     *
+     * @param digest        výpočet otisku, nebo null
+     * @param part          rozpracovaný soubor
+     */
+    private void update( @Nullable MessageDigest digest, @NotNull File part ) throws IOException
+    {
+        if ( digest == null )
+        {
+            return ;
+        }
+
+        digest.reset() ;
+
+        final InputStream in = new FileInputStream( part ) ;
+
+        try
+        {
+            final byte[] buffer = new byte[ BUFFER_SIZE ] ;
+            int count ;
+
+            while ( ( count = in.read( buffer ) ) >= 0 )
+            {
+                digest.update( buffer, 0, count ) ;
+            }
+        }
+        finally
+        {
+            in.close() ;
+        }
+    }
+
+    /**
+     * Odstranění rozpracovaného souboru, další stahování začne od začátku
+     *
+     * @param destination   cílový soubor
+     */
+    public static void discard( @NotNull File destination )
+    {
+        FileUtilRt.delete( destination ) ;
+        FileUtilRt.delete( new File( destination.getPath() + PART_SUFFIX ) ) ;
+        FileUtilRt.delete( new File( destination.getPath() + VALIDATOR_SUFFIX ) ) ;
+    }
+
+    /**
+     * @param validator     soubor s validátorem
+     * @return uložený validátor, nebo null pokud neexistuje
+     */
+    @Nullable
+    private Properties loadValidator( @NotNull File validator )
+    {
+        if ( ! validator.isFile() )
+        {
+            return null ;
+        }
+
+        try
+        {
+            final InputStream in = new FileInputStream( validator ) ;
+
+            try
+            {
+                final Properties properties = new Properties() ;
+
+                properties.load( in ) ;
+
+                return properties ;
+            }
+            finally
+            {
+                in.close() ;
+            }
+        }
+        catch ( IOException e )
+        {
+            return null ;
+        }
+    }
+
+    /**
+     * Uložení validátoru aktuální odpovědi serveru
+     *
+     * @param validator     soubor s validátorem
+     * @param connection    otevřené spojení
+     * @param total         celková délka souboru
+     */
+    private void storeValidator( @NotNull File validator, @NotNull HttpURLConnection connection, long total ) throws IOException
+    {
+        final Properties properties = new Properties() ;
+        final String etag = connection.getHeaderField( "ETag" ) ;
+        final String lastModified = connection.getHeaderField( "Last-Modified" ) ;
+
+        if ( etag != null )
+        {
+            properties.setProperty( "etag", etag ) ;
+        }
+
+        if ( lastModified != null )
+        {
+            properties.setProperty( "lastModified", lastModified ) ;
+        }
+
+        if ( total > 0 )
+        {
+            properties.setProperty( "length", String.valueOf( total ) ) ;
+        }
+
+        if ( properties.isEmpty() )
+        {
+            //Bez validátoru nelze bezpečně navázat
+            FileUtilRt.delete( validator ) ;
+
+            return ;
+        }
+
+        final StringWriter writer = new StringWriter() ;
+
+        properties.store( writer, null ) ;
+
+        FileUtil.writeToFile( validator, writer.toString() ) ;
+    }
+
+    /**
+     * Čekání před dalším pokusem, které lze zrušit
+     *
+     * @param millis        doba čekání
+     * @param indicator     indikátor průběhu stahování
+     */
+    private void sleep( long millis, @NotNull ProgressIndicator indicator ) throws IOException
+    {
+        final long end = System.currentTimeMillis() + millis ;
+
+        while ( System.currentTimeMillis() < end )
+        {
+            indicator.checkCanceled() ;
+
+            try
+            {
+                Thread.sleep( Math.min( 100, millis ) ) ;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt() ;
+
+                throw new InterruptedIOException() ;
+            }
+        }
+    }
+
+    /**
+     * Chyba klienta, opakování nepomůže (soubor neexistuje, chybí oprávnění)
+     */
+    public static class ClientErrorException extends IOException
+    {
+        public ClientErrorException( @NotNull String message )
+        {
+            super( message ) ;
+        }
+    }
+}
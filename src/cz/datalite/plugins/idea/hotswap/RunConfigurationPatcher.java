@@ -0,0 +1,468 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ProjectTopics;
+import com.intellij.execution.RunManagerAdapter;
+import com.intellij.execution.RunManagerEx;
+import com.intellij.execution.RunnerAndConfigurationSettings;
+import com.intellij.execution.configurations.ConfigurationFactory;
+import com.intellij.execution.configurations.ConfigurationType;
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.util.Disposer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.maven.execution.MavenRunner;
+import org.jetbrains.idea.maven.execution.MavenRunnerSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+/**
+ * Úprava spouštěcích konfigurací projektu
+ *
+ * Po první úpravě se sledují přidané a změněné konfigurace a upravují se jen ty. U každé
+ * konfigurace se v projektu ukládá otisk upravených parametrů, takže již upravené konfigurace
+ * se přeskočí bez rozboru parametrů a bez zbytečného zápisu do workspace. Otisk odstraněné
+ * nebo přejmenované konfigurace se z projektu odstraní.
+ *
+ * Konfigurace s JDK, do kterého agent dosud nebyl nasazen, se neupravuje, aby neodkazovala na
+ * DCEVM jiného JDK. Pro JDK, které při spuštění projektu nebylo známo, se vyžádá nasazení.
+ */
+public class RunConfigurationPatcher
+{
+    /**
+     * Nasazení agenta do JDK, které při spuštění projektu nebylo známo
+     */
+    public interface Deployer
+    {
+        /**
+         * Po nasazení se mají znovu upravit všechny konfigurace, volá se v UI vlákně
+         *
+         * @param homePath  domovský adresář JDK
+         * @param install   cesta k JVM v JDK
+         */
+        void deploy( @NotNull String homePath, @NotNull String install ) ;
+    }
+
+    /**
+     * Prefix klíčů s otiskem upravené konfigurace
+     */
+    private final static String FINGERPRINT_KEY_PREFIX = "cz.datalite.plugins.idea.hotswap.patched." ;
+
+    /**
+     * Klíč příznaku, že z globálního nastavení Mavenu byl agent již odstraněn
+     */
+    private final static String MAVEN_SETTINGS_MIGRATED_KEY = "cz.datalite.plugins.idea.hotswap.mavenSettingsMigrated" ;
+
+    /**
+     * Aktuální projekt
+     */
+    private final Project project ;
+
+    /**
+     * Výchozí cesta k JVM, nebo null dokud nebyl agent nainstalován
+     */
+    private String jre ;
+
+    /**
+     * Cesty k JVM podle domovského adresáře JDK
+     */
+    private Map<String, String> installs = Collections.emptyMap() ;
+
+    /**
+     * Nasazení do nových JDK, nebo null dokud nebyl agent nainstalován
+     */
+    private Deployer deployer ;
+
+    /**
+     * Příznak, zda se již sledují změny konfigurací
+     */
+    private boolean listening ;
+
+    /**
+     * Klíče otisků podle konfigurace, při přejmenování se otisk pod původním klíčem odstraní
+     */
+    private final Map<RunConfiguration, String> keys = new WeakHashMap<RunConfiguration, String>() ;
+
+    /**
+     * Konfigurace agenta pro moduly projektu
+     */
+    private final AgentProperties agentProperties ;
+
+    /**
+     * @param project   aktuální projekt
+     */
+    public RunConfigurationPatcher( @NotNull Project project )
+    {
+        this.project = project ;
+        this.agentProperties = new AgentProperties( project ) ;
+    }
+
+    /**
+     * @param project   aktuální projekt
+     * @return instance pro projekt
+     */
+    public static RunConfigurationPatcher getInstance( @NotNull Project project )
+    {
+        return ServiceManager.getService( project, RunConfigurationPatcher.class ) ;
+    }
+
+    /**
+     * Úprava všech konfigurací a zahájení sledování změn, volá se v UI vlákně
+     *
+     * @param installs  cesty k JVM podle domovského adresáře JDK
+     * @param jre       výchozí cesta k JVM pro konfigurace bez JDK
+     * @param deployer  nasazení do JDK, které v <code>installs</code> chybí
+     */
+    public void patchAll( @NotNull Map<String, String> installs, @NotNull String jre, @NotNull Deployer deployer )
+    {
+        this.installs = new HashMap<String, String>( installs ) ;
+        this.jre = jre ;
+        this.deployer = deployer ;
+
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "patch" ) ;
+
+        try
+        {
+            patchAll( phase ) ;
+            phase.succeed() ;
+        }
+        finally
+        {
+            phase.finish() ;
+        }
+    }
+
+    /**
+     * @param phase     měřená fáze, počítají se prošlé a změněné konfigurace
+     */
+    private void patchAll( @NotNull PhaseMetrics.Phase phase )
+    {
+        final RunManagerEx runManager = RunManagerEx.getInstanceEx( project ) ;
+        int scanned = 0 ;
+        int changed = 0 ;
+
+        listen( runManager ) ;
+        migrateMavenSettings() ;
+
+        //Modifikace továrních konfigurací pro pozdější použití
+        for ( ConfigurationType configurationType : runManager.getConfigurationFactories() )
+        {
+            for ( ConfigurationFactory factory : configurationType.getConfigurationFactories() )
+            {
+                scanned++ ;
+
+                if ( patch( runManager.getConfigurationTemplate( factory ).getConfiguration(), "template." + configurationType.getId() + "." + factory.getName(), jre ) )
+                {
+                    changed++ ;
+                }
+            }
+        }
+
+        //Modifikace akutální konfigurací
+        for ( RunConfiguration configuration : runManager.getAllConfigurationsList() )
+        {
+            scanned++ ;
+
+            if ( patch( configuration ) )
+            {
+                changed++ ;
+            }
+        }
+
+        phase.set( "scanned", scanned ).set( "changed", changed ) ;
+    }
+
+    /**
+     * Jednorázové odstranění agenta z globálního nastavení Mavenu
+     *
+     * Dřívější verze upravovaly globální nastavení Mavenu, čímž agenta dostal každý cíl.
+     */
+    private void migrateMavenSettings()
+    {
+        final PropertiesComponent properties = PropertiesComponent.getInstance( project ) ;
+
+        if ( properties.getBoolean( MAVEN_SETTINGS_MIGRATED_KEY, false ) )
+        {
+            return ;
+        }
+
+        final MavenRunnerSettings settings = MavenRunner.getInstance( project ).getSettings() ;
+
+        if ( ( settings != null ) && ( settings.getVmOptions() != null ) )
+        {
+            final String options = VmOptionsPatch.unpatch( settings.getVmOptions() ) ;
+
+            if ( ! options.equals( settings.getVmOptions() ) )
+            {
+                settings.setVmOptions( options ) ;
+            }
+        }
+
+        properties.setValue( MAVEN_SETTINGS_MIGRATED_KEY, Boolean.TRUE.toString() ) ;
+    }
+
+    /**
+     * Zahájení sledování přidaných, změněných a odstraněných konfigurací
+     *
+     * @param runManager    správce konfigurací projektu
+     */
+    private void listen( @NotNull final RunManagerEx runManager )
+    {
+        if ( listening )
+        {
+            return ;
+        }
+
+        final RunManagerAdapter listener = new RunManagerAdapter()
+        {
+            @Override
+            public void runConfigurationAdded( @NotNull RunnerAndConfigurationSettings settings )
+            {
+                patch( settings.getConfiguration() ) ;
+            }
+
+            @Override
+            public void runConfigurationChanged( @NotNull RunnerAndConfigurationSettings settings )
+            {
+                patch( settings.getConfiguration() ) ;
+            }
+
+            @Override
+            public void runConfigurationRemoved( @NotNull RunnerAndConfigurationSettings settings )
+            {
+                forget( settings.getConfiguration() ) ;
+            }
+        } ;
+
+        runManager.addRunManagerListener( listener ) ;
+
+        //Změna výstupních adresářů nebo zdrojů se promítne do konfigurace agenta
+        project.getMessageBus().connect( project ).subscribe( ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter()
+        {
+            @Override
+            public void rootsChanged( ModuleRootEvent event )
+            {
+                try
+                {
+                    agentProperties.regenerate() ;
+                }
+                catch ( IOException e )
+                {
+                    //Agent použije předchozí konfiguraci
+                }
+            }
+        } ) ;
+
+        //Změněné třídy se načítají do ladicích relací s agentem
+        ClassReloader.getInstance( project ).listen() ;
+
+        Disposer.register( project, new Disposable()
+        {
+            @Override
+            public void dispose()
+            {
+                runManager.removeRunManagerListener( listener ) ;
+            }
+        } ) ;
+
+        listening = true ;
+    }
+
+    /**
+     * @param configuration     upravovaná konfigurace
+     * @return příznak, zda se parametry konfigurace změnily
+     */
+    private boolean patch( @Nullable RunConfiguration configuration )
+    {
+        if ( configuration == null )
+        {
+            return false ;
+        }
+
+        final String key = getKey( configuration ) ;
+        final String previous = keys.put( configuration, key ) ;
+
+        //Přejmenovaná konfigurace
+        if ( ( previous != null ) && ( ! previous.equals( key ) ) )
+        {
+            PropertiesComponent.getInstance( project ).unsetValue( FINGERPRINT_KEY_PREFIX + previous ) ;
+        }
+
+        return patch( configuration, key, getJrePath( configuration ) ) ;
+    }
+
+    /**
+     * Odstranění otisku odstraněné konfigurace
+     *
+     * @param configuration     odstraněná konfigurace
+     */
+    private void forget( @Nullable RunConfiguration configuration )
+    {
+        if ( configuration == null )
+        {
+            return ;
+        }
+
+        final String previous = keys.remove( configuration ) ;
+        final PropertiesComponent properties = PropertiesComponent.getInstance( project ) ;
+
+        properties.unsetValue( FINGERPRINT_KEY_PREFIX + getKey( configuration ) ) ;
+
+        if ( previous != null )
+        {
+            properties.unsetValue( FINGERPRINT_KEY_PREFIX + previous ) ;
+        }
+    }
+
+    /**
+     * @param configuration     konfigurace
+     * @return klíč konfigurace v projektu
+     */
+    @NotNull
+    private static String getKey( @NotNull RunConfiguration configuration )
+    {
+        return configuration.getType().getId() + "." + configuration.getName() ;
+    }
+
+    /**
+     * @param configuration     konfigurace
+     * @return implementace upravující konfiguraci, nebo null pokud konfiguraci žádná nepodporuje
+     */
+    @Nullable
+    public static ConfigurationPatcher findPatcher( @NotNull RunConfiguration configuration )
+    {
+        for ( ConfigurationPatcher patcher : ConfigurationPatcher.EP_NAME.getExtensions() )
+        {
+            if ( patcher.isSupported( configuration ) )
+            {
+                return patcher ;
+            }
+        }
+
+        return null ;
+    }
+
+    /**
+     * @param configuration     konfigurace
+     * @return cesta k JVM instalovaná do JDK konfigurace, výchozí pro konfiguraci bez JDK, nebo
+     *         null pokud do JDK konfigurace agent dosud nebyl nasazen
+     */
+    @Nullable
+    private String getJrePath( @NotNull RunConfiguration configuration )
+    {
+        if ( ( jre == null ) || ( findPatcher( configuration ) == null ) )
+        {
+            return jre ;
+        }
+
+        final String homePath = SdkResolver.getHomePath( project, configuration ) ;
+
+        if ( homePath == null )
+        {
+            return jre ;
+        }
+
+        String install = installs.get( homePath ) ;
+
+        if ( install == null )
+        {
+            install = HotswapAgentIntegration.getInstallPath( homePath ) ;
+
+            if ( install == null )
+            {
+                return jre ;
+            }
+
+            //JDK přidané nebo vybrané po spuštění projektu
+            installs.put( homePath, install ) ;
+
+            if ( ! new File( install ).isDirectory() )
+            {
+                deployer.deploy( homePath, install ) ;
+            }
+        }
+
+        return new File( install ).isDirectory() ? install : null ;
+    }
+
+    /**
+     * Úprava konfigurace, pokud se od poslední úpravy změnila
+     *
+     * @param configuration     upravovaná konfigurace
+     * @param key               klíč konfigurace v projektu
+     * @param jre               cesta k JVM konfigurace
+     * @return příznak, zda se parametry konfigurace změnily
+     */
+    private boolean patch( @NotNull RunConfiguration configuration, @NotNull String key, @Nullable String jre )
+    {
+        final ConfigurationPatcher patcher = findPatcher( configuration ) ;
+
+        if ( ( jre == null ) || ( patcher == null ) )
+        {
+            return false ;
+        }
+
+        final PropertiesComponent properties = PropertiesComponent.getInstance( project ) ;
+        final boolean enabled = patcher.isEnabled( configuration ) ;
+        final Module module = enabled ? patcher.getModule( project, configuration ) : null ;
+        final String agentOptions = ( module != null ) ? agentProperties.getAgentOptions( module ) : null ;
+        final VmOptionsPatch patch = VmOptionsPatch.compute( properties.getValue( FINGERPRINT_KEY_PREFIX + key ), enabled, patcher.getVmOptions( configuration ), jre, agentOptions, patcher.getState( configuration ) ) ;
+
+        if ( agentOptions != null )
+        {
+            //Otisk obsahuje jen cestu k souboru, obsah se generuje až při úpravě
+            generate( module, patch != null ) ;
+        }
+
+        if ( patch == null )
+        {
+            return false ;
+        }
+
+        if ( patch.isChanged() )
+        {
+            patcher.setVmOptions( configuration, patch.getOptions() ) ;
+        }
+
+        properties.setValue( FINGERPRINT_KEY_PREFIX + key, patch.getFingerprint() ) ;
+
+        return patch.isChanged() ;
+    }
+
+    /**
+     * Vygenerování konfigurace agenta pro modul
+     *
+     * @param module        modul konfigurace
+     * @param patched       příznak, zda se konfigurace upravuje, jinak se soubor vytvoří jen pokud chybí
+     */
+    private void generate( @NotNull Module module, boolean patched )
+    {
+        try
+        {
+            if ( patched )
+            {
+                agentProperties.generate( module ) ;
+            }
+            else
+            {
+                agentProperties.ensure( module ) ;
+            }
+        }
+        catch ( IOException e )
+        {
+            //Agent poběží s předchozí nebo výchozí konfigurací
+        }
+    }
+}
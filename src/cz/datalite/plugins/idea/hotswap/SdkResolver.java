@@ -0,0 +1,124 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.execution.RunManager;
+import com.intellij.execution.configurations.RunConfiguration;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.projectRoots.ProjectJdkTable;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+
+/**
+ * Zjištění JDK, na kterém běží spouštěcí konfigurace
+ *
+ * JDK konfigurace zjistí její {@link ConfigurationPatcher}, pokud ho neurčí, použije se JDK projektu.
+ * Volá se v read action.
+ */
+public class SdkResolver
+{
+    /**
+     * @param project           aktuální projekt
+     * @param configuration     spouštěcí konfigurace
+     * @return domovský adresář JDK konfigurace, nebo null pokud ho nelze zjistit
+     */
+    @Nullable
+    public static String getHomePath( @NotNull Project project, @NotNull RunConfiguration configuration )
+    {
+        final ConfigurationPatcher patcher = RunConfigurationPatcher.findPatcher( configuration ) ;
+        final String homePath = ( patcher != null ) ? patcher.getJdkHome( project, configuration ) : null ;
+
+        if ( homePath != null )
+        {
+            return normalize( homePath ) ;
+        }
+
+        final Sdk sdk = ProjectRootManager.getInstance( project ).getProjectSdk() ;
+
+        return ( sdk != null ) ? normalize( sdk.getHomePath() ) : null ;
+    }
+
+    /**
+     * @param nameOrPath    jméno JDK nebo přímo cesta k němu
+     * @return domovský adresář JDK
+     */
+    @NotNull
+    public static String findJdkHome( @NotNull String nameOrPath )
+    {
+        final Sdk sdk = ProjectJdkTable.getInstance().findJdk( nameOrPath ) ;
+
+        return ( ( sdk != null ) && ( sdk.getHomePath() != null ) ) ? sdk.getHomePath() : nameOrPath ;
+    }
+
+    /**
+     * @param module    modul
+     * @return domovský adresář JDK modulu, nebo null pokud modul JDK nemá
+     */
+    @Nullable
+    public static String getJdkHome( @NotNull Module module )
+    {
+        final Sdk sdk = ModuleRootManager.getInstance( module ).getSdk() ;
+
+        return ( sdk != null ) ? sdk.getHomePath() : null ;
+    }
+
+    /**
+     * @param project   aktuální projekt
+     * @return domovské adresáře všech JDK použitých konfiguracemi a JDK projektu
+     */
+    @NotNull
+    public static Set<String> getHomePaths( @NotNull Project project )
+    {
+        final Set<String> homePaths = new LinkedHashSet<String>() ;
+        final Sdk projectSdk = ProjectRootManager.getInstance( project ).getProjectSdk() ;
+
+        if ( ( projectSdk != null ) && ( projectSdk.getHomePath() != null ) )
+        {
+            homePaths.add( normalize( projectSdk.getHomePath() ) ) ;
+        }
+
+        for ( RunConfiguration configuration : RunManager.getInstance( project ).getAllConfigurationsList() )
+        {
+            if ( RunConfigurationPatcher.findPatcher( configuration ) != null )
+            {
+                final String homePath = getHomePath( project, configuration ) ;
+
+                if ( homePath != null )
+                {
+                    homePaths.add( homePath ) ;
+                }
+            }
+        }
+
+        return homePaths ;
+    }
+
+    /**
+     * @param path      cesta k JDK
+     * @return cesta s oddělovači '/' a bez koncového oddělovače
+     */
+    @Nullable
+    private static String normalize( @Nullable String path )
+    {
+        if ( path == null )
+        {
+            return null ;
+        }
+
+        String normalized = FileUtil.toSystemIndependentName( path.trim() ) ;
+
+        while ( ( normalized.length() > 1 ) && ( normalized.endsWith( "/" ) ) )
+        {
+            normalized = normalized.substring( 0, normalized.length() - 1 ) ;
+        }
+
+        return normalized ;
+    }
+}
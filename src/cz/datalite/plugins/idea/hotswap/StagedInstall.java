@@ -0,0 +1,256 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipFile;
+
+
+/**
+ * Instalace do vedlejšího adresáře s následnou výměnou za používaný adresář
+ *
+ * Nové vydání se rozbalí do adresáře <code>.staging</code>, ověří se a teprve pak se přejmenováním
+ * vymění s adresářem, na který ukazuje <code>-XXaltjvm</code>. Předchozí vydání zůstává
+ * v adresáři <code>.previous</code> pro okamžitý návrat.
+ *
+ * Výměna není atomická. Adresář nelze přejmenováním nahradit, proto se nejdříve používaný adresář
+ * přejmenuje na <code>.previous</code> a teprve pak připravený na používaný. Mezi oběma kroky
+ * používaný adresář neexistuje a JVM spuštěná v tomto okamžiku selže. Pokud se druhý krok
+ * nepodaří dokončit, například při pádu IDE, ověřená instalace zůstane v <code>.staging</code>
+ * a aktivuje se při příštím spuštění.
+ */
+public class StagedInstall
+{
+    /**
+     * Přípona adresáře s připravovanou instalací
+     */
+    public final static String STAGING_SUFFIX = ".staging" ;
+
+    /**
+     * Přípona adresáře s předchozí instalací
+     */
+    public final static String PREVIOUS_SUFFIX = ".previous" ;
+
+    /**
+     * Název souboru s verzí připravené instalace
+     */
+    private final static String VERSION_FILE = ".hotswap-version" ;
+
+    /**
+     * Používaný adresář
+     */
+    private final File live ;
+
+    /**
+     * Adresář s připravovanou instalací
+     */
+    private final File staging ;
+
+    /**
+     * Adresář s předchozí instalací
+     */
+    private final File previous ;
+
+    /**
+     * @param live      používaný adresář
+     */
+    public StagedInstall( @NotNull File live )
+    {
+        this.live = live.getAbsoluteFile() ;
+        this.staging = new File( this.live.getParentFile(), this.live.getName() + STAGING_SUFFIX ) ;
+        this.previous = new File( this.live.getParentFile(), this.live.getName() + PREVIOUS_SUFFIX ) ;
+    }
+
+    /**
+     * Příprava adresáře pro nasazení nového vydání
+     *
+     * Jako základ se použije předchozí instalace, takže se díky {@link InstallManifest} zapíší jen
+     * změněné soubory. Bez předchozí instalace se začíná z prázdného adresáře, soubory z úložiště
+     * se pak jen odkážou. Používaný adresář zůstává nedotčen.
+     *
+     * @return adresář pro rozbalení
+     */
+    @NotNull
+    public File prepare() throws IOException
+    {
+        FileUtil.delete( staging ) ;
+
+        if ( ( previous.isDirectory() ) && ( previous.renameTo( staging ) ) )
+        {
+            FileUtil.delete( new File( staging, VERSION_FILE ) ) ;
+        }
+        else if ( ( ! staging.mkdirs() ) && ( ! staging.isDirectory() ) )
+        {
+            throw new IOException( "Can`t create " + staging.getAbsolutePath() ) ;
+        }
+
+        return staging ;
+    }
+
+    /**
+     * Ověření připravené instalace a zapsání její verze
+     *
+     * @param tagName   instalované vydání
+     * @throws IOException pokud instalace není úplná
+     */
+    public void verify( @NotNull String tagName ) throws IOException
+    {
+        verify() ;
+
+        FileUtil.writeToFile( new File( staging, VERSION_FILE ), tagName ) ;
+    }
+
+    /**
+     * Kontrola, že připravená instalace obsahuje všechny soubory ze seznamu a čitelného agenta
+     */
+    private void verify() throws IOException
+    {
+        final InstallManifest manifest = InstallManifest.load( staging ) ;
+
+        if ( ( manifest.isEmpty() ) || ( ! manifest.isInstalled( staging ) ) )
+        {
+            throw new IOException( "Installation in " + staging.getAbsolutePath() + " is incomplete" ) ;
+        }
+
+        final File agent = new File( staging, "HotswapAgent.jar" ) ;
+
+        if ( agent.isFile() )
+        {
+            //Otevření ověří centrální adresář JAR souboru
+            new ZipFile( agent ).close() ;
+        }
+    }
+
+    /**
+     * Výměna připravené instalace za používaný adresář, mezi dvěma přejmenováními používaný
+     * adresář krátce neexistuje
+     *
+     * @throws IOException pokud výměna selže, používaný adresář zůstane beze změny
+     */
+    public void activate() throws IOException
+    {
+        //Po přerušené výměně používaný adresář chybí a předchozí instalace zůstává pro návrat
+        if ( live.exists() )
+        {
+            FileUtil.delete( previous ) ;
+
+            if ( ! live.renameTo( previous ) )
+            {
+                throw new IOException( "Can`t replace " + live.getAbsolutePath() + ", it is probably used by a running JVM. The new version will be activated on next start." ) ;
+            }
+        }
+
+        if ( ! staging.renameTo( live ) )
+        {
+            //noinspection ResultOfMethodCallIgnored
+            previous.renameTo( live ) ;
+
+            throw new IOException( "Can`t activate " + staging.getAbsolutePath() ) ;
+        }
+    }
+
+    /**
+     * Aktivace instalace, kterou se dříve nepodařilo vyměnit
+     *
+     * @return aktivované vydání, nebo null pokud žádné nečeká nebo ho nelze aktivovat
+     */
+    @Nullable
+    public String activatePending()
+    {
+        final File version = new File( staging, VERSION_FILE ) ;
+
+        if ( ! version.isFile() )
+        {
+            return null ;
+        }
+
+        try
+        {
+            final String tagName = FileUtil.loadFile( version ).trim() ;
+
+            verify() ;
+            activate() ;
+
+            return tagName ;
+        }
+        catch ( IOException e )
+        {
+            return null ;
+        }
+    }
+
+    /**
+     * Návrat k předchozí instalaci, aktuální se stane předchozí
+     *
+     * @return příznak, zda se návrat podařil
+     */
+    public boolean rollback()
+    {
+        if ( ! previous.isDirectory() )
+        {
+            return false ;
+        }
+
+        final File swap = new File( live.getParentFile(), live.getName() + ".swap" ) ;
+
+        FileUtil.delete( swap ) ;
+
+        if ( ( live.exists() ) && ( ! live.renameTo( swap ) ) )
+        {
+            return false ;
+        }
+
+        if ( ! previous.renameTo( live ) )
+        {
+            //noinspection ResultOfMethodCallIgnored
+            swap.renameTo( live ) ;
+
+            return false ;
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        swap.renameTo( previous ) ;
+
+        return true ;
+    }
+
+    /**
+     * @return vydání používané instalace, nebo null pokud není známo
+     */
+    @Nullable
+    public String getVersion()
+    {
+        return getVersion( live ) ;
+    }
+
+    /**
+     * @return vydání předchozí instalace, nebo null pokud neexistuje
+     */
+    @Nullable
+    public String getPreviousVersion()
+    {
+        return getVersion( previous ) ;
+    }
+
+    /**
+     * @param directory     instalační adresář
+     * @return vydání instalace, nebo null pokud není známo
+     */
+    @Nullable
+    private static String getVersion( @NotNull File directory )
+    {
+        try
+        {
+            final File version = new File( directory, VERSION_FILE ) ;
+
+            return version.isFile() ? FileUtil.loadFile( version ).trim() : null ;
+        }
+        catch ( IOException e )
+        {
+            return null ;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+
+/**
+ * Řetězec kroků, které se po otevření projektu provádějí na pozadí
+ *
+ * Každý krok běží na vlastním vlákně z poolu aplikace s časovým omezením. Celý řetězec se zruší
+ * při zavření projektu.
+ */
+public class StartupPipeline implements Disposable
+{
+    /**
+     * Aktuální projekt
+     */
+    private final Project project ;
+
+    /**
+     * Maximální doba trvání jednoho kroku v milisekundách
+     */
+    private final long timeout ;
+
+    /**
+     * Právě běžící úlohy
+     */
+    private final List<Future<?>> running = new CopyOnWriteArrayList<Future<?>>() ;
+
+    /**
+     * Příznak zrušení řetězce
+     */
+    private volatile boolean cancelled ;
+
+    /**
+     * @param project   aktuální projekt
+     * @param timeout   maximální doba trvání jednoho kroku v milisekundách
+     */
+    public StartupPipeline( @NotNull Project project, long timeout )
+    {
+        this.project = project ;
+        this.timeout = timeout ;
+
+        Disposer.register( project, this ) ;
+    }
+
+    /**
+     * Spuštění řetězce na pozadí, volající vlákno se nezdržuje
+     *
+     * @param pipeline      kroky řetězce
+     */
+    public void start( @NotNull final Runnable pipeline )
+    {
+        running.add( ApplicationManager.getApplication().executeOnPooledThread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pipeline.run() ;
+                }
+                finally
+                {
+                    //Řetězec doběhl, není co rušit
+                    running.clear() ;
+                    Disposer.dispose( StartupPipeline.this ) ;
+                }
+            }
+        } ) ) ;
+    }
+
+    /**
+     * Provedení jednoho kroku řetězce
+     *
+     * @param name      název kroku
+     * @param stage     prováděný krok
+     * @return výsledek kroku
+     *
+     * @throws CancellationException    pokud byl řetězec zrušen
+     * @throws TimeoutException         pokud krok nestihl doběhnout včas
+     * @throws ExecutionException       pokud krok skončil chybou
+     */
+    public <T> T stage( @NotNull String name, @NotNull Callable<T> stage ) throws TimeoutException, ExecutionException
+    {
+        checkCanceled() ;
+
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( name ) ;
+        final Future<T> future = ApplicationManager.getApplication().executeOnPooledThread( stage ) ;
+
+        running.add( future ) ;
+
+        try
+        {
+            final T result = future.get( timeout, TimeUnit.MILLISECONDS ) ;
+
+            phase.succeed() ;
+
+            return result ;
+        }
+        catch ( CancellationException e )
+        {
+            phase.setOutcome( "cancelled" ) ;
+
+            throw e ;
+        }
+        catch ( TimeoutException e )
+        {
+            phase.setOutcome( "timeout" ) ;
+            future.cancel( true ) ;
+
+            throw new TimeoutException( String.format( "Step '%s' did not finish in %d ms", name, timeout ) ) ;
+        }
+        catch ( InterruptedException e )
+        {
+            phase.setOutcome( "cancelled" ) ;
+            future.cancel( true ) ;
+            Thread.currentThread().interrupt() ;
+
+            throw new CancellationException( name ) ;
+        }
+        finally
+        {
+            running.remove( future ) ;
+            phase.finish() ;
+        }
+    }
+
+    /**
+     * Kontrola, zda nebyl řetězec zrušen
+     *
+     * @throws CancellationException pokud byl řetězec zrušen nebo projekt zavřen
+     */
+    public void checkCanceled()
+    {
+        if ( ( cancelled ) || ( project.isDisposed() ) )
+        {
+            throw new CancellationException( project.getName() ) ;
+        }
+    }
+
+    /**
+     * Zrušení všech běžících kroků
+     */
+    public void cancel()
+    {
+        cancelled = true ;
+
+        for ( Future<?> future : running )
+        {
+            future.cancel( true ) ;
+        }
+
+        running.clear() ;
+    }
+
+    @Override
+    public void dispose()
+    {
+        cancel() ;
+    }
+}
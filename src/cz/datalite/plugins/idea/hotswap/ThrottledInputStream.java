@@ -0,0 +1,106 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Vstupní data čtená nejvýše danou rychlostí, stahování na pozadí tak nezahltí připojení
+ *
+ * Rychlost je sdílená a může se měnit během čtení, nula omezení zruší.
+ */
+public class ThrottledInputStream extends FilterInputStream
+{
+    /**
+     * Maximální rychlost v bajtech za sekundu, nula bez omezení
+     */
+    private final AtomicLong bytesPerSecond ;
+
+    /**
+     * Začátek čtení
+     */
+    private final long start = System.currentTimeMillis() ;
+
+    /**
+     * Počet přečtených bajtů
+     */
+    private long read ;
+
+    /**
+     * @param in                vstupní data
+     * @param bytesPerSecond    maximální rychlost v bajtech za sekundu, nula bez omezení
+     */
+    public ThrottledInputStream( @NotNull InputStream in, @NotNull AtomicLong bytesPerSecond )
+    {
+        super( in ) ;
+
+        this.bytesPerSecond = bytesPerSecond ;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final int b = super.read() ;
+
+        if ( b >= 0 )
+        {
+            throttle( 1 ) ;
+        }
+
+        return b ;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException
+    {
+        final long rate = bytesPerSecond.get() ;
+
+        //Po malých blocích, aby se čekání rozložilo rovnoměrně
+        final int count = super.read( b, off, ( rate > 0 ) ? ( int )Math.min( len, Math.max( 1, rate / 10 ) ) : len ) ;
+
+        if ( count > 0 )
+        {
+            throttle( count ) ;
+        }
+
+        return count ;
+    }
+
+    /**
+     * Čekání, dokud průměrná rychlost od začátku čtení nepoklesne na maximální
+     *
+     * @param count     počet nově přečtených bajtů
+     */
+    private void throttle( int count ) throws IOException
+    {
+        read += count ;
+
+        final long rate = bytesPerSecond.get() ;
+
+        if ( rate <= 0 )
+        {
+            return ;
+        }
+
+        final long wait = read * 1000 / rate - ( System.currentTimeMillis() - start ) ;
+
+        if ( wait > 0 )
+        {
+            try
+            {
+                Thread.sleep( wait ) ;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt() ;
+
+                throw new InterruptedIOException( "Download interrupted" ) ;
+            }
+        }
+    }
+}
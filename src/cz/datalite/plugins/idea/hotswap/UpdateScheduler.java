@@ -0,0 +1,328 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.ide.IdeEventQueue;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.util.Alarm;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Průběžná kontrola nových vydání po celou dobu běhu IDE
+ *
+ * Kontrola se opakuje v intervalu s náhodnou odchylkou, aby se dotazy z více instancí IDE
+ * nesešly ve stejnou chvíli. Nové vydání se stáhne do úložiště s omezenou rychlostí, až když
+ * uživatel s IDE nepracuje, a teprve potom se nabídne otevřeným projektům. Po potvrzení se
+ * vydání z úložiště jen nasadí do JVM, nic se nestahuje.
+ */
+public class UpdateScheduler implements Disposable
+{
+    private final static Logger LOG = Logger.getInstance( UpdateScheduler.class ) ;
+
+    /**
+     * Klíč nastavení s intervalem kontroly v minutách, nula kontrolu vypíná
+     */
+    public final static String UPDATE_INTERVAL_KEY = "cz.datalite.plugins.idea.hotswap.update.interval" ;
+
+    /**
+     * Výchozí interval kontroly v minutách
+     */
+    public final static long DEFAULT_UPDATE_INTERVAL = 6 * 60 ;
+
+    /**
+     * Klíč nastavení s maximální rychlostí stahování na pozadí v kB/s, nula bez omezení
+     */
+    public final static String PREFETCH_RATE_KEY = "cz.datalite.plugins.idea.hotswap.prefetch.rate" ;
+
+    /**
+     * Výchozí rychlost stahování na pozadí v kB/s
+     */
+    public final static long DEFAULT_PREFETCH_RATE = 512 ;
+
+    /**
+     * Doba nečinnosti uživatele před stahováním v milisekundách
+     */
+    public final static int IDLE_TIMEOUT = 60 * 1000 ;
+
+    /**
+     * Maximální relativní odchylka intervalu
+     */
+    private final static double JITTER = 0.25 ;
+
+    /**
+     * Naplánovaná kontrola
+     */
+    private final Alarm alarm = new Alarm( Alarm.ThreadToUse.POOLED_THREAD, this ) ;
+
+    /**
+     * Aktuální rychlost stahování na pozadí v bajtech za sekundu
+     */
+    private final AtomicLong rate = new AtomicLong() ;
+
+    private final Random random = new Random() ;
+
+    /**
+     * Integrace spouštějící kontrolu v projektech, nebo null dokud nebyla kontrola zahájena
+     */
+    private HotswapAgentIntegration integration ;
+
+    /**
+     * Vydání již nabídnuté projektům
+     */
+    private String announced ;
+
+    /**
+     * Čekání na nečinnost před stahováním, nebo null
+     */
+    private Runnable idleListener ;
+
+    /**
+     * Indikátor probíhajícího stahování na pozadí, nebo null
+     */
+    private volatile ProgressIndicator prefetching ;
+
+    /**
+     * @return instance sdílená celou aplikací
+     */
+    public static UpdateScheduler getInstance()
+    {
+        return ServiceManager.getService( UpdateScheduler.class ) ;
+    }
+
+    /**
+     * Zahájení pravidelné kontroly, opakovaná volání nic nedělají
+     *
+     * @param integration   integrace spouštějící kontrolu v projektech
+     */
+    public synchronized void start( @NotNull HotswapAgentIntegration integration )
+    {
+        if ( this.integration == null )
+        {
+            this.integration = integration ;
+
+            schedule() ;
+        }
+    }
+
+    /**
+     * Zrušení omezení rychlosti probíhajícího stahování, na jehož výsledek čeká uživatel
+     */
+    public void unthrottle()
+    {
+        rate.set( 0 ) ;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        final ProgressIndicator indicator = prefetching ;
+
+        if ( indicator != null )
+        {
+            indicator.cancel() ;
+        }
+
+        if ( idleListener != null )
+        {
+            IdeEventQueue.getInstance().removeIdleListener( idleListener ) ;
+            idleListener = null ;
+        }
+    }
+
+    /**
+     * Naplánování další kontroly s náhodnou odchylkou
+     */
+    private void schedule()
+    {
+        final long interval = getLong( UPDATE_INTERVAL_KEY, DEFAULT_UPDATE_INTERVAL ) * 60 * 1000 ;
+
+        if ( ( interval <= 0 ) || ( alarm.isDisposed() ) )
+        {
+            return ;
+        }
+
+        alarm.addRequest( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    check() ;
+                }
+                finally
+                {
+                    schedule() ;
+                }
+            }
+        }, ( long )( interval * ( 1 - JITTER + 2 * JITTER * random.nextDouble() ) ) ) ;
+    }
+
+    /**
+     * Zjištění posledního vydání, běží ve vlákně na pozadí
+     */
+    private void check()
+    {
+        final ReleaseSource source = ReleaseSources.getConfigured() ;
+        final String tag ;
+
+        try
+        {
+            tag = source.getLatestTag() ;
+        }
+        catch ( IOException e )
+        {
+            //Zkusí se při další kontrole
+            return ;
+        }
+
+        //Bez instalace se na první stažení ptá kontrola při otevření projektu
+        final String installed = PropertiesComponent.getInstance().getValue( HotswapAgentIntegration.AGENT_VERSION_KEY, "" ) ;
+
+        synchronized ( this )
+        {
+            if ( ( tag == null ) || ( "".equals( installed ) ) || ( tag.equals( installed ) ) || ( tag.equals( announced ) ) || ( idleListener != null ) )
+            {
+                return ;
+            }
+
+            if ( AgentStore.getDefault().contains( tag ) )
+            {
+                announce( tag ) ;
+            }
+            else
+            {
+                prefetchWhenIdle( source, tag ) ;
+            }
+        }
+    }
+
+    /**
+     * Stažení vydání do úložiště, až uživatel s IDE nepracuje
+     *
+     * @param source    zdroj vydání
+     * @param tag       stahované vydání
+     */
+    private void prefetchWhenIdle( final @NotNull ReleaseSource source, final @NotNull String tag )
+    {
+        idleListener = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                IdeEventQueue.getInstance().removeIdleListener( this ) ;
+
+                ApplicationManager.getApplication().executeOnPooledThread( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        prefetch( source, tag ) ;
+                    }
+                } ) ;
+            }
+        } ;
+
+        IdeEventQueue.getInstance().addIdleListener( idleListener, IDLE_TIMEOUT ) ;
+    }
+
+    /**
+     * @param source    zdroj vydání
+     * @param tag       stahované vydání
+     */
+    private void prefetch( @NotNull ReleaseSource source, @NotNull String tag )
+    {
+        final ProgressIndicator indicator = new EmptyProgressIndicator() ;
+        final PhaseMetrics.Phase phase = PhaseMetrics.start( "prefetch" ) ;
+
+        rate.set( getLong( PREFETCH_RATE_KEY, DEFAULT_PREFETCH_RATE ) * 1024 ) ;
+        prefetching = indicator ;
+
+        try
+        {
+            if ( integration.prefetch( source, tag, rate, indicator ) )
+            {
+                phase.succeed() ;
+
+                synchronized ( this )
+                {
+                    announce( tag ) ;
+                }
+            }
+        }
+        catch ( ProcessCanceledException e )
+        {
+            //IDE se ukončuje
+            phase.setOutcome( "cancelled" ) ;
+        }
+        catch ( RuntimeException e )
+        {
+            //Chyba stahování nesmí zastavit další kontroly, zkusí se při další kontrole
+            LOG.warn( e ) ;
+        }
+        finally
+        {
+            phase.finish() ;
+            prefetching = null ;
+
+            synchronized ( this )
+            {
+                idleListener = null ;
+            }
+        }
+    }
+
+    /**
+     * Nabídnutí vydání v úložišti všem otevřeným projektům
+     *
+     * @param tag       nové vydání
+     */
+    private void announce( @NotNull String tag )
+    {
+        announced = tag ;
+
+        ApplicationManager.getApplication().invokeLater( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for ( Project project : ProjectManager.getInstance().getOpenProjects() )
+                {
+                    if ( ! project.isDisposed() )
+                    {
+                        integration.runActivity( project ) ;
+                    }
+                }
+            }
+        } ) ;
+    }
+
+    /**
+     * @param key           klíč nastavení
+     * @param defaultValue  výchozí hodnota
+     * @return hodnota nastavení, při chybném formátu výchozí
+     */
+    private static long getLong( @NotNull String key, long defaultValue )
+    {
+        try
+        {
+            return Long.parseLong( PropertiesComponent.getInstance().getValue( key, String.valueOf( defaultValue ) ) ) ;
+        }
+        catch ( NumberFormatException e )
+        {
+            return defaultValue ;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Parametry JVM rozdělené na jednotlivé položky
+ *
+ * Řetězec se rozdělí jedním průchodem podle mezer mimo uvozovky, položky se při zápisu skládají
+ * v původním tvaru. Zpětné lomítko před uvozovkou, která uzavírá položku, se neescapuje, takže
+ * cesty ve Windows končící oddělovačem zůstanou jednou položkou. Úpravy se týkají jen položek <code>-XXaltjvm</code> a <code>-javaagent</code>
+ * s Hotswap agentem, ostatní agenty a parametry zůstávají beze změny.
+ */
+public class VmOptions
+{
+    /**
+     * Klíč pro určení alternativního JVM
+     */
+    public final static String ALT_JVM = "-XXaltjvm" ;
+
+    /**
+     * Klíč pro přidání agenta
+     */
+    public final static String JAVA_AGENT = "-javaagent" ;
+
+    /**
+     * Název JAR souboru agenta
+     */
+    public final static String AGENT_JAR = "HotswapAgent.jar" ;
+
+    /**
+     * Původní řetězec
+     */
+    private final String original ;
+
+    /**
+     * Položky v původním tvaru včetně uvozovek
+     */
+    private final List<String> tokens ;
+
+    /**
+     * Příznak změny položek
+     */
+    private boolean modified ;
+
+    /**
+     * @param original      původní řetězec
+     * @param tokens        položky
+     */
+    private VmOptions( @Nullable String original, @NotNull List<String> tokens )
+    {
+        this.original = original ;
+        this.tokens = tokens ;
+    }
+
+    /**
+     * Rozdělení parametrů na položky
+     *
+     * @param options   parametry JVM, může být null
+     * @return rozdělené parametry
+     */
+    @NotNull
+    public static VmOptions parse( @Nullable String options )
+    {
+        final List<String> tokens = new ArrayList<String>() ;
+
+        if ( options != null )
+        {
+            final int length = options.length() ;
+            boolean quoted = false ;
+            int start = -1 ;
+
+            for ( int i = 0 ; i < length ; i++ )
+            {
+                final char c = options.charAt( i ) ;
+
+                if ( ( ! quoted ) && ( Character.isWhitespace( c ) ) )
+                {
+                    if ( start >= 0 )
+                    {
+                        tokens.add( options.substring( start, i ) ) ;
+                        start = -1 ;
+                    }
+
+                    continue ;
+                }
+
+                if ( start < 0 )
+                {
+                    start = i ;
+                }
+
+                if ( isEscapedQuote( options, i, quoted ) )
+                {
+                    i++ ;
+                }
+                else if ( c == '"' )
+                {
+                    quoted = ! quoted ;
+                }
+            }
+
+            if ( start >= 0 )
+            {
+                tokens.add( options.substring( start ) ) ;
+            }
+        }
+
+        return new VmOptions( options, tokens ) ;
+    }
+
+    /**
+     * @param token     položka v původním tvaru
+     * @return hodnota položky bez uvozovek
+     */
+    @NotNull
+    static String unquote( @NotNull String token )
+    {
+        if ( token.indexOf( '"' ) < 0 )
+        {
+            return token ;
+        }
+
+        final StringBuilder builder = new StringBuilder( token.length() ) ;
+        boolean quoted = false ;
+
+        for ( int i = 0 ; i < token.length() ; i++ )
+        {
+            final char c = token.charAt( i ) ;
+
+            if ( isEscapedQuote( token, i, quoted ) )
+            {
+                builder.append( '"' ) ;
+                i++ ;
+            }
+            else if ( c == '"' )
+            {
+                quoted = ! quoted ;
+            }
+            else
+            {
+                builder.append( c ) ;
+            }
+        }
+
+        return builder.toString() ;
+    }
+
+    /**
+     * Uvozovka za zpětným lomítkem je escapovaná, pokud neuzavírá položku, tedy pokud za ní
+     * nenásleduje mezera nebo konec řetězce. Escapovanou uvozovku před mezerou tak zapsat nelze,
+     * v parametrech JVM je ale častější cesta končící oddělovačem.
+     *
+     * @param value     řetězec
+     * @param index     pozice znaku
+     * @param quoted    příznak, zda je znak uvnitř uvozovek
+     * @return příznak, zda je na pozici zpětné lomítko escapující uvozovku
+     */
+    private static boolean isEscapedQuote( @NotNull String value, int index, boolean quoted )
+    {
+        if ( ( value.charAt( index ) != '\\' ) || ( index + 1 >= value.length() ) || ( value.charAt( index + 1 ) != '"' ) )
+        {
+            return false ;
+        }
+
+        return ( ! quoted ) || ( ( index + 2 < value.length() ) && ( ! Character.isWhitespace( value.charAt( index + 2 ) ) ) ) ;
+    }
+
+    /**
+     * @param value     hodnota položky
+     * @return položka, uzavřená do uvozovek pokud obsahuje mezery
+     */
+    @NotNull
+    static String quote( @NotNull String value )
+    {
+        for ( int i = 0 ; i < value.length() ; i++ )
+        {
+            if ( Character.isWhitespace( value.charAt( i ) ) )
+            {
+                return "\"" + value.replace( "\"", "\\\"" ) + "\"" ;
+            }
+        }
+
+        return value ;
+    }
+
+    /**
+     * @param value     hodnota položky
+     * @return příznak, zda jde o alternativní JVM
+     */
+    private static boolean isAltJvm( @NotNull String value )
+    {
+        return ( value.equals( ALT_JVM ) ) || ( value.startsWith( ALT_JVM + "=" ) ) ;
+    }
+
+    /**
+     * Agent se pozná podle názvu JAR souboru. Položka se hledá i uvnitř hodnoty, takže se
+     * rozpozná i agent poškozený dřívějšími verzemi pluginu (např. s prefixem "null").
+     *
+     * @param value     hodnota položky
+     * @return příznak, zda jde o Hotswap agenta
+     */
+    private static boolean isHotswapAgent( @NotNull String value )
+    {
+        final int index = value.indexOf( JAVA_AGENT + ":" ) ;
+
+        if ( index < 0 )
+        {
+            return false ;
+        }
+
+        String path = value.substring( index + JAVA_AGENT.length() + 1 ) ;
+
+        final int options = path.indexOf( '=' ) ;
+
+        if ( options >= 0 )
+        {
+            path = path.substring( 0, options ) ;
+        }
+
+        return path.endsWith( AGENT_JAR ) ;
+    }
+
+    /**
+     * Nastavení alternativní JVM, případné další výskyty se odstraní
+     *
+     * Oddělovač na konci cesty se vynechá, spouštěč JVM ve Windows by ho před uzavírací
+     * uvozovkou četl jako escapovanou uvozovku.
+     *
+     * @param jre   cesta k JVM
+     */
+    public void setAltJvm( @NotNull String jre )
+    {
+        String path = jre ;
+
+        while ( ( path.length() > 1 ) && ( ( path.endsWith( "/" ) ) || ( path.endsWith( "\\" ) ) ) )
+        {
+            path = path.substring( 0, path.length() - 1 ) ;
+        }
+
+        replace( quote( ALT_JVM + "=" + path ), false ) ;
+    }
+
+    /**
+     * Nastavení Hotswap agenta, případné další výskyty se odstraní
+     *
+     * @param jar       cesta k JAR souboru agenta
+     * @param options   parametry agenta, nebo null
+     */
+    public void setHotswapAgent( @NotNull String jar, @Nullable String options )
+    {
+        replace( quote( JAVA_AGENT + ":" + jar + ( ( options != null ) ? "=" + options : "" ) ), true ) ;
+    }
+
+    /**
+     * @return příznak, zda parametry obsahují Hotswap agenta
+     */
+    public boolean hasHotswapAgent()
+    {
+        for ( String token : tokens )
+        {
+            if ( isHotswapAgent( unquote( token ) ) )
+            {
+                return true ;
+            }
+        }
+
+        return false ;
+    }
+
+    /**
+     * Odstranění Hotswap agenta a alternativní JVM
+     */
+    public void removeHotswap()
+    {
+        final Iterator<String> iterator = tokens.iterator() ;
+
+        while ( iterator.hasNext() )
+        {
+            final String value = unquote( iterator.next() ) ;
+
+            if ( ( isAltJvm( value ) ) || ( isHotswapAgent( value ) ) )
+            {
+                iterator.remove() ;
+                modified = true ;
+            }
+        }
+    }
+
+    /**
+     * Nahrazení první odpovídající položky, další se odstraní, pokud žádná není přidá se na konec
+     *
+     * @param token     nová položka
+     * @param agent     příznak, zda jde o agenta nebo o alternativní JVM
+     */
+    private void replace( @NotNull String token, boolean agent )
+    {
+        boolean found = false ;
+
+        for ( int i = 0 ; i < tokens.size() ; )
+        {
+            final String current = tokens.get( i ) ;
+            final String value = unquote( current ) ;
+
+            if ( agent ? isHotswapAgent( value ) : isAltJvm( value ) )
+            {
+                if ( found )
+                {
+                    tokens.remove( i ) ;
+                    modified = true ;
+
+                    continue ;
+                }
+
+                found = true ;
+
+                if ( ! current.equals( token ) )
+                {
+                    tokens.set( i, token ) ;
+                    modified = true ;
+                }
+            }
+
+            i++ ;
+        }
+
+        if ( ! found )
+        {
+            tokens.add( token ) ;
+            modified = true ;
+        }
+    }
+
+    /**
+     * @return položky v původním tvaru
+     */
+    @NotNull
+    public List<String> getTokens()
+    {
+        return tokens ;
+    }
+
+    /**
+     * @return příznak, zda se parametry změnily
+     */
+    public boolean isModified()
+    {
+        return modified ;
+    }
+
+    /**
+     * @return parametry JVM, beze změny původní řetězec
+     */
+    @Override
+    public String toString()
+    {
+        if ( ( ! modified ) && ( original != null ) )
+        {
+            return original ;
+        }
+
+        final StringBuilder builder = new StringBuilder() ;
+
+        for ( String token : tokens )
+        {
+            if ( builder.length() > 0 )
+            {
+                builder.append( ' ' ) ;
+            }
+
+            builder.append( token ) ;
+        }
+
+        return builder.toString() ;
+    }
+}
@@ -0,0 +1,169 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Úprava parametrů JVM jedné konfigurace nezávislá na IDE
+ *
+ * Podle otisku z poslední úpravy se rozhodne, zda je potřeba parametry znovu rozebírat. Třída
+ * nepoužívá API IDE, takže ji lze měřit i bez běžícího IDE (benchmarky v adresáři bench).
+ */
+public class VmOptionsPatch
+{
+    /**
+     * Algoritmus otisku, shoda otisků rozhoduje o přeskočení konfigurace
+     */
+    private final static String FINGERPRINT_ALGORITHM = "SHA-1" ;
+
+    /**
+     * Upravené parametry JVM
+     */
+    private final String options ;
+
+    /**
+     * Otisk upravené konfigurace
+     */
+    private final String fingerprint ;
+
+    /**
+     * Příznak, zda se parametry změnily
+     */
+    private final boolean changed ;
+
+    /**
+     * @param options       upravené parametry JVM
+     * @param fingerprint   otisk upravené konfigurace
+     * @param changed       příznak, zda se parametry změnily
+     */
+    private VmOptionsPatch( @NotNull String options, @NotNull String fingerprint, boolean changed )
+    {
+        this.options = options ;
+        this.fingerprint = fingerprint ;
+        this.changed = changed ;
+    }
+
+    /**
+     * Úprava konfigurace, pokud se od poslední úpravy změnila
+     *
+     * @param storedFingerprint     otisk z poslední úpravy, nebo null
+     * @param enabled               příznak, zda má konfigurace běžet s agentem
+     * @param options               aktuální parametry JVM
+     * @param jre                   cesta k JVM konfigurace
+     * @param agentOptions          parametry agenta, nebo null
+     * @param state                 další stav konfigurace, nebo null
+     * @return úprava, nebo null pokud se konfigurace od poslední úpravy nezměnila
+     */
+    @Nullable
+    public static VmOptionsPatch compute( @Nullable String storedFingerprint, boolean enabled, @Nullable String options, @NotNull String jre, @Nullable String agentOptions, @Nullable String state )
+    {
+        final String target = enabled ? jre + "=" + agentOptions : "" ;
+
+        if ( fingerprint( target, options, state ).equals( storedFingerprint ) )
+        {
+            return null ;
+        }
+
+        //Konfigurace bez agenta se vrátí do původního stavu
+        final String patched = enabled ? patch( options, jre, agentOptions ) : unpatch( options ) ;
+
+        return new VmOptionsPatch( patched, fingerprint( target, patched, state ), ! patched.equals( ( options != null ) ? options : "" ) ) ;
+    }
+
+    /**
+     * Změna konfigurace
+     *
+     * @param original      originální konfigurace
+     * @param jre           cesta k JVM
+     * @param agentOptions  parametry agenta, nebo null
+     * @return změněná konfigurace, beze změny původní řetězec
+     */
+    @NotNull
+    public static String patch( @Nullable String original, @NotNull String jre, @Nullable String agentOptions )
+    {
+        final VmOptions options = VmOptions.parse( original ) ;
+
+        options.setAltJvm( jre ) ;
+        options.setHotswapAgent( jre + VmOptions.AGENT_JAR, agentOptions ) ;
+
+        return options.toString() ;
+    }
+
+    /**
+     * Odstranění Hotswap agenta a alternativní JVM
+     *
+     * @param original      originální konfigurace
+     * @return konfigurace bez agenta, beze změny původní řetězec
+     */
+    @NotNull
+    public static String unpatch( @Nullable String original )
+    {
+        final VmOptions options = VmOptions.parse( original ) ;
+
+        options.removeHotswap() ;
+
+        return options.toString() ;
+    }
+
+    /**
+     * @param target    cesta k JVM a parametry agenta, prázdné bez agenta
+     * @param options   parametry JVM
+     * @param state     další stav konfigurace
+     * @return otisk SHA-1 parametrů pro danou JVM v šestnáctkovém tvaru
+     */
+    @NotNull
+    private static String fingerprint( @NotNull String target, @Nullable String options, @Nullable String state )
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance( FINGERPRINT_ALGORITHM ).digest( ( target + "\n" + options + "\n" + state ).getBytes( "UTF-8" ) ) ;
+            final StringBuilder builder = new StringBuilder( digest.length * 2 ) ;
+
+            for ( byte b : digest )
+            {
+                builder.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) ) ;
+            }
+
+            return builder.toString() ;
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e ) ;
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e ) ;
+        }
+    }
+
+    /**
+     * @return upravené parametry JVM
+     */
+    @NotNull
+    public String getOptions()
+    {
+        return options ;
+    }
+
+    /**
+     * @return otisk upravené konfigurace
+     */
+    @NotNull
+    public String getFingerprint()
+    {
+        return fingerprint ;
+    }
+
+    /**
+     * @return příznak, zda se parametry změnily
+     */
+    public boolean isChanged()
+    {
+        return changed ;
+    }
+}
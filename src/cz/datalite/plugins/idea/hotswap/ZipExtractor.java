@@ -0,0 +1,517 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+
+/**
+ * Rozbalení vybraných položek ZIP souboru do adresáře
+ *
+ * Rozbalené soubory se zapisují do {@link InstallManifest}. Při další instalaci se soubory se
+ * stejným CRC a velikostí přeskočí a soubory, které v novém vydání chybí, se odstraní.
+ *
+ * Položky ZIP souboru se rozbalují souběžně na omezeném počtu vláken podle počtu procesorů.
+ */
+public class ZipExtractor
+{
+    /**
+     * Velikost bufferu pro kopírování
+     */
+    private final static int BUFFER_SIZE = 256 * 1024 ;
+
+    /**
+     * Počet čekajících nebo rozbalovaných položek na jedno vlákno
+     */
+    private final static int QUEUE_PER_THREAD = 4 ;
+
+    /**
+     * Výstupní adresář
+     */
+    private final File outputDir ;
+
+    /**
+     * Filtr rozbalovaných položek
+     */
+    private final FilenameFilter filenameFilter ;
+
+    /**
+     * Příznak zda přepsat existující
+     */
+    private final boolean overwrite ;
+
+    /**
+     * Seznam souborů předchozí instalace
+     */
+    private InstallManifest previous ;
+
+    /**
+     * Seznam souborů aktuální instalace
+     */
+    private InstallManifest current ;
+
+    /**
+     * Počet zapsaných souborů
+     */
+    private final AtomicInteger written = new AtomicInteger() ;
+
+    /**
+     * Počet přeskočených nezměněných souborů
+     */
+    private final AtomicInteger skipped = new AtomicInteger() ;
+
+    /**
+     * Počet zapsaných bajtů
+     */
+    private final AtomicLong bytes = new AtomicLong() ;
+
+    /**
+     * @param outputDir         výstupní adresář
+     * @param filenameFilter    filtr
+     * @param overwrite         příznak zda přepsat existeujicí
+     */
+    public ZipExtractor( @NotNull File outputDir, @Nullable FilenameFilter filenameFilter, boolean overwrite )
+    {
+        this.outputDir = outputDir ;
+        this.filenameFilter = filenameFilter ;
+        this.overwrite = overwrite ;
+    }
+
+    /**
+     * Rozbalení ZIP souboru
+     *
+     * @param zipFile           aktuální soubor
+     */
+    public void extract( final @NotNull ZipFile zipFile ) throws IOException
+    {
+        extract( zipFile, null ) ;
+    }
+
+    /**
+     * Souběžné rozbalení ZIP souboru
+     *
+     * @param zipFile           aktuální soubor
+     * @param indicator         indikátor průběhu, nebo null
+     */
+    public void extract( final @NotNull ZipFile zipFile, final @Nullable ProgressIndicator indicator ) throws IOException
+    {
+        start() ;
+
+        final List<ZipEntry> files = new ArrayList<ZipEntry>() ;
+        final Set<String> paths = new HashSet<String>() ;
+        final Enumeration entries = zipFile.entries();
+        long total = 0 ;
+
+        while ( entries.hasMoreElements() )
+        {
+            ZipEntry entry = (ZipEntry)entries.nextElement();
+
+            if ( ( accept( entry, paths ) ) && ( ! isUnchanged( entry ) ) )
+            {
+                if ( entry.isDirectory() )
+                {
+                    extractEntry( entry, null, null ) ;
+                }
+                else
+                {
+                    files.add( entry ) ;
+                    total += Math.max( 0, entry.getSize() ) ;
+                }
+            }
+        }
+
+        if ( indicator != null )
+        {
+            indicator.setIndeterminate( total <= 0 ) ;
+        }
+
+        final int threads = Math.max( 1, Math.min( files.size(), Runtime.getRuntime().availableProcessors() ) ) ;
+        final ExecutorService executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( threads * QUEUE_PER_THREAD ), new ThreadPoolExecutor.CallerRunsPolicy() ) ;
+        final List<Future<?>> futures = new ArrayList<Future<?>>() ;
+        final AtomicLong done = new AtomicLong() ;
+        final long size = total ;
+
+        //Buffery jen pro toto rozbalení, nejvýše jeden na vlákno a jeden pro volající vlákno
+        final BlockingQueue<byte[]> buffers = new LinkedBlockingQueue<byte[]>() ;
+
+        try
+        {
+            for ( final ZipEntry entry : files )
+            {
+                futures.add( executor.submit( new Callable<Object>()
+                {
+                    @Override
+                    public Object call() throws IOException
+                    {
+                        if ( indicator != null )
+                        {
+                            indicator.checkCanceled() ;
+                        }
+
+                        final InputStream inputStream = zipFile.getInputStream( entry ) ;
+                        byte[] buffer = buffers.poll() ;
+
+                        if ( buffer == null )
+                        {
+                            buffer = new byte[ BUFFER_SIZE ] ;
+                        }
+
+                        try
+                        {
+                            extractEntry( entry, inputStream, buffer ) ;
+                        }
+                        finally
+                        {
+                            inputStream.close() ;
+                            buffers.offer( buffer ) ;
+                        }
+
+                        if ( ( indicator != null ) && ( size > 0 ) )
+                        {
+                            indicator.setFraction( ( double )done.addAndGet( Math.max( 0, entry.getSize() ) ) / size ) ;
+                        }
+
+                        return null ;
+                    }
+                } ) ) ;
+            }
+
+            for ( Future<?> future : futures )
+            {
+                await( future ) ;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow() ;
+        }
+
+        finish() ;
+    }
+
+    /**
+     * Čekání na rozbalení položky
+     *
+     * @param future    rozbalovaná položka
+     */
+    private static void await( @NotNull Future<?> future ) throws IOException
+    {
+        try
+        {
+            future.get() ;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt() ;
+
+            throw new InterruptedIOException() ;
+        }
+        catch ( ExecutionException e )
+        {
+            final Throwable cause = e.getCause() ;
+
+            if ( cause instanceof IOException )
+            {
+                throw ( IOException )cause ;
+            }
+
+            if ( cause instanceof RuntimeException )
+            {
+                throw ( RuntimeException )cause ;
+            }
+
+            throw new IllegalStateException( cause ) ;
+        }
+    }
+
+    /**
+     * Rozbalení ZIP souboru přímo při čtení, položky neodpovídající filtru se jen přeskočí
+     *
+     * @param zipInputStream    čtená data
+     */
+    public void extract( final @NotNull ZipInputStream zipInputStream ) throws IOException
+    {
+        start() ;
+
+        final Set<String> paths = new HashSet<String>() ;
+        final byte[] buffer = new byte[ BUFFER_SIZE ] ;
+        ZipEntry entry ;
+
+        while ( ( entry = zipInputStream.getNextEntry() ) != null )
+        {
+            if ( ( accept( entry, paths ) ) && ( ! isUnchanged( entry ) ) )
+            {
+                extractEntry( entry, zipInputStream, entry.isDirectory() ? null : buffer ) ;
+            }
+
+            zipInputStream.closeEntry() ;
+        }
+
+        finish() ;
+    }
+
+    /**
+     * Rozbalení vzdáleného ZIP souboru, stahují se jen položky odpovídající filtru a změněné
+     *
+     * @param zip           vzdálený soubor s načteným centrálním adresářem
+     * @param indicator     indikátor průběhu, nebo null
+     */
+    public void extract( final @NotNull RemoteZip zip, final @Nullable ProgressIndicator indicator ) throws IOException
+    {
+        start() ;
+
+        final List<ZipEntry> files = new ArrayList<ZipEntry>() ;
+        final Set<String> paths = new HashSet<String>() ;
+        final byte[] buffer = new byte[ BUFFER_SIZE ] ;
+
+        for ( ZipEntry entry : zip.getEntries() )
+        {
+            if ( ( accept( entry, paths ) ) && ( ! isUnchanged( entry ) ) )
+            {
+                if ( entry.isDirectory() )
+                {
+                    extractEntry( entry, null, null ) ;
+                }
+                else
+                {
+                    files.add( entry ) ;
+                }
+            }
+        }
+
+        zip.read( files, indicator, new RemoteZip.EntryHandler()
+        {
+            @Override
+            public void handle( @NotNull ZipEntry entry, @NotNull InputStream in ) throws IOException
+            {
+                extractEntry( entry, in, buffer ) ;
+            }
+        } ) ;
+
+        finish() ;
+    }
+
+    /**
+     * @return počet zapsaných souborů
+     */
+    public int getWritten()
+    {
+        return written.get() ;
+    }
+
+    /**
+     * @return počet přeskočených nezměněných souborů
+     */
+    public int getSkipped()
+    {
+        return skipped.get() ;
+    }
+
+    /**
+     * @return počet zapsaných bajtů
+     */
+    public long getBytes()
+    {
+        return bytes.get() ;
+    }
+
+    /**
+     * Načtení seznamu předchozí instalace
+     */
+    private void start()
+    {
+        previous = InstallManifest.load( outputDir ) ;
+        current = new InstallManifest() ;
+        written.set( 0 ) ;
+        skipped.set( 0 ) ;
+        bytes.set( 0 ) ;
+    }
+
+    /**
+     * Odstranění souborů, které nové vydání již neobsahuje, a uložení seznamu
+     */
+    private void finish() throws IOException
+    {
+        for ( String path : previous.getPaths() )
+        {
+            if ( ! current.getPaths().contains( path ) )
+            {
+                FileUtil.delete( new File( outputDir, path ) ) ;
+            }
+        }
+
+        current.save( outputDir ) ;
+    }
+
+    /**
+     * Výběr položky podle filtru a kontrola její cesty
+     *
+     * Položky mimo adresář plugin se rozbalují bez cesty, dvě položky se stejným názvem by se
+     * souběžně zapisovaly do jednoho souboru. Položky s ".." by se zapsaly mimo výstupní adresář,
+     * rozbalují se i vydání ze zrcadel a sdílených adresářů.
+     *
+     * @param entry     položka
+     * @param paths     cesty dosud vybraných souborů
+     * @return příznak, zda se má položka rozbalit
+     * @throws IOException pokud by se položka zapsala mimo výstupní adresář nebo do již vybraného souboru
+     */
+    private boolean accept( @NotNull ZipEntry entry, @NotNull Set<String> paths ) throws IOException
+    {
+        File file = new File(outputDir, entry.getName());
+
+        if ( ( filenameFilter != null ) && ( ! filenameFilter.accept( file.getParentFile(), file.getName() ) ) )
+        {
+            return false ;
+        }
+
+        for ( String segment : entry.getName().split( "[/\\\\]" ) )
+        {
+            if ( segment.equals( ".." ) )
+            {
+                throw new IOException( "Invalid entry " + entry.getName() ) ;
+            }
+        }
+
+        if ( ( ! entry.isDirectory() ) && ( ! paths.add( getRelativePath( entry ) ) ) )
+        {
+            throw new IOException( "Duplicate entry " + getRelativePath( entry ) ) ;
+        }
+
+        return true ;
+    }
+
+    /**
+     * Kontrola podle CRC a velikosti z hlavičky položky, zda je již nainstalována
+     *
+     * @param entry     položka
+     * @return příznak, zda je možné položku přeskočit
+     */
+    private boolean isUnchanged( @NotNull ZipEntry entry )
+    {
+        if ( ( entry.isDirectory() ) || ( entry.getCrc() == -1 ) || ( entry.getSize() == -1 ) )
+        {
+            return false ;
+        }
+
+        final String path = getRelativePath( entry ) ;
+        final File file = new File( outputDir, path ) ;
+
+        if ( ( previous.matches( path, entry.getCrc(), entry.getSize() ) ) && ( file.length() == entry.getSize() ) )
+        {
+            current.put( path, entry.getCrc(), entry.getSize() ) ;
+            skipped.incrementAndGet() ;
+
+            return true ;
+        }
+
+        return false ;
+    }
+
+    /**
+     * @param entry     položka
+     * @return cesta souboru v instalačním adresáři
+     */
+    private String getRelativePath( @NotNull ZipEntry entry )
+    {
+        final String relativeName = entry.getName();
+
+        if ( ! relativeName.startsWith( "plugin" ) )
+        {
+            return new File( relativeName ).getName() ;
+        }
+
+        return relativeName ;
+    }
+
+    /**
+     * Extrahování položky ze ZIP souboru, vstupní data se neuzavírají
+     *
+     * Soubor se zapíše vedle cílového a teprve pak se přejmenuje, takže spuštěná JVM nikdy
+     * nenačte napůl zapsaný soubor. Může běžet souběžně pro různé položky.
+     *
+     * @param entry             položka
+     * @param inputStream       vstupní data, u adresáře null
+     * @param buffer            buffer pro kopírování, u adresáře null
+     */
+    private void extractEntry(ZipEntry entry, final InputStream inputStream, final byte[] buffer) throws IOException
+    {
+        final boolean isDirectory = entry.isDirectory();
+        final String relativePath = getRelativePath( entry ) ;
+        final File file = new File(outputDir, relativePath);
+
+        if ( ( file.exists() ) && ( ! overwrite ) )
+        {
+            synchronized ( current )
+            {
+                current.copy( relativePath, previous ) ;
+            }
+
+            return;
+        }
+
+        FileUtil.createParentDirs(file);
+
+        if (isDirectory)
+        {
+            //noinspection ResultOfMethodCallIgnored
+            file.mkdir() ;
+        }
+        else
+        {
+            final File tmp = new File( file.getPath() + ".tmp" ) ;
+            final CRC32 crc = new CRC32() ;
+            final OutputStream os = new FileOutputStream( tmp ) ;
+            long count = 0 ;
+
+            try
+            {
+                int read ;
+
+                while ( ( read = inputStream.read( buffer ) ) >= 0 )
+                {
+                    crc.update( buffer, 0, read ) ;
+                    os.write( buffer, 0, read ) ;
+                    count += read ;
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+
+            if ( ( previous.matches( relativePath, crc.getValue(), count ) ) && ( file.length() == count ) )
+            {
+                //Obsah se nezměnil, jen hlavička položky neobsahovala CRC
+                FileUtil.delete( tmp ) ;
+                skipped.incrementAndGet() ;
+            }
+            else
+            {
+                InstallManifest.replace( tmp, file ) ;
+                written.incrementAndGet() ;
+                bytes.addAndGet( count ) ;
+            }
+
+            synchronized ( current )
+            {
+                current.put( relativePath, crc.getValue(), count ) ;
+            }
+        }
+    }
+}
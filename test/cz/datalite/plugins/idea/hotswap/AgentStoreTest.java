@@ -0,0 +1,175 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class AgentStoreTest
+{
+    private File root ;
+
+    private AgentStore store ;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        root = FileUtil.createTempDirectory( "store", null ) ;
+        store = new AgentStore( root ) ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileUtilRt.delete( root ) ;
+    }
+
+    @Test
+    public void testCollectKeepsForeignDirectories() throws IOException
+    {
+        final File foreign = new File( root, "projects" ) ;
+
+        assertTrue( foreign.mkdir() ) ;
+        FileUtil.writeToFile( new File( foreign, "data.txt" ), "keep" ) ;
+
+        store.collect( 0 ) ;
+
+        assertTrue( new File( foreign, "data.txt" ).isFile() ) ;
+    }
+
+    @Test
+    public void testCollectRemovesBrokenAndOldReleases() throws IOException
+    {
+        install( "1.0" ) ;
+        install( "1.1" ) ;
+
+        //Přerušené přesunutí rozbaleného vydání
+        final File broken = store.prepare( "1.2" ) ;
+
+        assertTrue( broken.renameTo( store.getDirectory( "1.2" ) ) ) ;
+
+        final File extracting = store.prepare( "1.3" ) ;
+
+        assertTrue( new File( store.getDirectory( "1.0" ), ".hotswap-complete" ).setLastModified( System.currentTimeMillis() - 60000 ) ) ;
+
+        store.collect( 1 ) ;
+
+        assertFalse( store.getDirectory( "1.0" ).exists() ) ;
+        assertTrue( store.contains( "1.1" ) ) ;
+        assertFalse( store.getDirectory( "1.2" ).exists() ) ;
+        assertTrue( extracting.isDirectory() ) ;
+    }
+
+    @Test
+    public void testPrepareSeedsFromLastUsedRelease() throws IOException
+    {
+        install( "1.0" ) ;
+
+        final File directory = store.prepare( "1.1" ) ;
+
+        assertEquals( "1.0", FileUtil.loadFile( new File( directory, "HotswapAgent.jar" ) ) ) ;
+        assertEquals( InstallManifest.load( store.getDirectory( "1.0" ) ), InstallManifest.load( directory ) ) ;
+    }
+
+    @Test
+    public void testExtractionIntoPreparedDirectorySkipsUnchangedEntries() throws IOException
+    {
+        extract( "1.0", zip( "HotswapAgent.jar", "agent", "lib/libjvm.so", "jvm 1.0", "plugin/old.jar", "old" ) ) ;
+
+        final ZipExtractor extractor = extract( "1.1", zip( "HotswapAgent.jar", "agent", "lib/libjvm.so", "jvm 1.1" ) ) ;
+
+        assertEquals( 1, extractor.getSkipped() ) ;
+        assertEquals( 1, extractor.getWritten() ) ;
+        assertTrue( store.contains( "1.1" ) ) ;
+        assertFalse( new File( store.getDirectory( "1.1" ), "plugin/old.jar" ).exists() ) ;
+
+        //Sdílené soubory předchozího vydání se nezmění
+        assertEquals( "jvm 1.0", FileUtil.loadFile( new File( store.getDirectory( "1.0" ), "libjvm.so" ) ) ) ;
+        assertEquals( "old", FileUtil.loadFile( new File( store.getDirectory( "1.0" ), "plugin/old.jar" ) ) ) ;
+        assertTrue( store.contains( "1.0" ) ) ;
+    }
+
+    /**
+     * @param tagName   vydání
+     * @param zip       ZIP soubor vydání
+     * @return použitý extractor
+     */
+    private ZipExtractor extract( String tagName, File zip ) throws IOException
+    {
+        final ZipExtractor extractor = new ZipExtractor( store.prepare( tagName ), null, true ) ;
+        final ZipFile zipFile = new ZipFile( zip ) ;
+
+        try
+        {
+            extractor.extract( zipFile ) ;
+        }
+        finally
+        {
+            zipFile.close() ;
+        }
+
+        store.commit( tagName ) ;
+
+        return extractor ;
+    }
+
+    /**
+     * @param entries   dvojice název položky a obsah
+     * @return vytvořený ZIP soubor mimo úložiště
+     */
+    private File zip( String... entries ) throws IOException
+    {
+        final File file = File.createTempFile( "bundle", ".zip" ) ;
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( file ) ) ;
+
+        file.deleteOnExit() ;
+
+        try
+        {
+            for ( int i = 0 ; i < entries.length ; i += 2 )
+            {
+                out.putNextEntry( new ZipEntry( entries[ i ] ) ) ;
+                out.write( entries[ i + 1 ].getBytes( "UTF-8" ) ) ;
+                out.closeEntry() ;
+            }
+        }
+        finally
+        {
+            out.close() ;
+        }
+
+        return file ;
+    }
+
+    /**
+     * @param tagName   vydání
+     */
+    private void install( String tagName ) throws IOException
+    {
+        final File directory = store.prepare( tagName ) ;
+        final InstallManifest manifest = new InstallManifest() ;
+
+        final File agent = new File( directory, "HotswapAgent.jar" ) ;
+
+        //Soubor může být odkazem na předchozí vydání
+        FileUtil.delete( agent ) ;
+        FileUtil.writeToFile( agent, tagName ) ;
+        manifest.put( "HotswapAgent.jar", 1, tagName.length() ) ;
+        manifest.save( directory ) ;
+
+        store.commit( tagName ) ;
+    }
+}
@@ -0,0 +1,61 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class DisabledPluginsTest
+{
+    @Test
+    public void testUnusedFrameworksAreDisabled()
+    {
+        final List<String> disabled = getDisabledPlugins( "org.springframework:spring-core", "org.hibernate.javax.persistence:hibernate-jpa-2.1-api" ) ;
+
+        assertFalse( disabled.contains( "Spring" ) ) ;
+        assertFalse( disabled.contains( "Hibernate" ) ) ;
+        assertTrue( disabled.contains( "ZK" ) ) ;
+        assertTrue( disabled.contains( "Jetty" ) ) ;
+    }
+
+    @Test
+    public void testGroupIdPrefixNeedsSeparator()
+    {
+        //org.springframeworkx není podřízené groupId
+        assertTrue( getDisabledPlugins( "org.springframeworkx:other" ).contains( "Spring" ) ) ;
+    }
+
+    @Test
+    public void testContainerFromBuildPlugin()
+    {
+        assertFalse( getDisabledPlugins( "org.eclipse.jetty:jetty-maven-plugin" ).contains( "Jetty" ) ) ;
+        assertFalse( getDisabledPlugins( "org.apache.tomcat.maven:tomcat7-maven-plugin" ).contains( "Tomcat" ) ) ;
+        assertFalse( getDisabledPlugins( "org.codehaus.mojo:tomcat-maven-plugin" ).contains( "Tomcat" ) ) ;
+        assertTrue( getDisabledPlugins( "org.codehaus.mojo:exec-maven-plugin" ).contains( "Tomcat" ) ) ;
+    }
+
+    @Test
+    public void testMojarraNeedsFacesArtifact()
+    {
+        assertTrue( getDisabledPlugins( "org.glassfish:javax.el", "org.glassfish.jersey.core:jersey-server" ).contains( "Mojarra" ) ) ;
+        assertFalse( getDisabledPlugins( "org.glassfish:javax.faces" ).contains( "Mojarra" ) ) ;
+        assertFalse( getDisabledPlugins( "com.sun.faces:jsf-impl" ).contains( "Mojarra" ) ) ;
+    }
+
+    /**
+     * @param coordinates   groupId:artifactId závislostí a pluginů sestavení
+     * @return vypnuté pluginy agenta
+     */
+    private static List<String> getDisabledPlugins( String... coordinates )
+    {
+        final SortedSet<String> set = new TreeSet<String>( Arrays.asList( coordinates ) ) ;
+
+        return Arrays.asList( DisabledPlugins.getDisabledPlugins( set ).split( "," ) ) ;
+    }
+}
@@ -0,0 +1,163 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Lokální HTTP server pro testy stahování
+ *
+ * Každý dotaz se předá odpovídači spolu s jeho pořadím, hlavičky Range všech dotazů se zaznamenají.
+ */
+class HttpTestServer
+{
+    /**
+     * Odpověď na dotaz
+     */
+    interface Responder
+    {
+        /**
+         * @param exchange  dotaz
+         * @param request   pořadí dotazu od nuly
+         */
+        void respond( HttpExchange exchange, int request ) throws IOException ;
+    }
+
+    private final HttpServer server ;
+
+    /**
+     * Hlavičky Range jednotlivých dotazů, null pro dotaz bez rozsahu
+     */
+    private final List<String> ranges = Collections.synchronizedList( new ArrayList<String>() ) ;
+
+    /**
+     * @param responder     odpovídač
+     */
+    HttpTestServer( final Responder responder ) throws IOException
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ), 0 ) ;
+
+        server.createContext( "/", new HttpHandler()
+        {
+            @Override
+            public void handle( HttpExchange exchange ) throws IOException
+            {
+                final int request ;
+
+                synchronized ( ranges )
+                {
+                    request = ranges.size() ;
+                    ranges.add( exchange.getRequestHeaders().getFirst( "Range" ) ) ;
+                }
+
+                try
+                {
+                    responder.respond( exchange, request ) ;
+                }
+                finally
+                {
+                    exchange.close() ;
+                }
+            }
+        } ) ;
+
+        server.start() ;
+    }
+
+    /**
+     * @param path  cesta začínající lomítkem
+     * @return adresa na serveru
+     */
+    String getUrl( String path )
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path ;
+    }
+
+    /**
+     * @return hlavičky Range obsloužených dotazů
+     */
+    List<String> getRanges()
+    {
+        return ranges ;
+    }
+
+    void stop()
+    {
+        server.stop( 0 ) ;
+    }
+
+    /**
+     * Poslání dat nebo jejich části podle hlavičky Range
+     *
+     * @param exchange  dotaz
+     * @param data      celý soubor
+     * @param etag      ETag souboru, nebo null
+     */
+    static void sendRange( HttpExchange exchange, byte[] data, String etag ) throws IOException
+    {
+        sendRange( exchange, data, etag, null ) ;
+    }
+
+    /**
+     * Poslání dat nebo jejich části podle hlaviček Range a If-Range
+     *
+     * @param exchange      dotaz
+     * @param data          celý soubor
+     * @param etag          ETag souboru, nebo null
+     * @param lastModified  Last-Modified souboru, nebo null
+     */
+    static void sendRange( HttpExchange exchange, byte[] data, String etag, String lastModified ) throws IOException
+    {
+        final String range = exchange.getRequestHeaders().getFirst( "Range" ) ;
+        final String ifRange = exchange.getRequestHeaders().getFirst( "If-Range" ) ;
+
+        if ( etag != null )
+        {
+            exchange.getResponseHeaders().set( "ETag", etag ) ;
+        }
+
+        if ( lastModified != null )
+        {
+            exchange.getResponseHeaders().set( "Last-Modified", lastModified ) ;
+        }
+
+        if ( ( range == null ) || ( ( ifRange != null ) && ( ! ifRange.equals( etag ) ) && ( ! ifRange.equals( lastModified ) ) ) )
+        {
+            exchange.sendResponseHeaders( 200, data.length ) ;
+            exchange.getResponseBody().write( data ) ;
+
+            return ;
+        }
+
+        final String spec = range.substring( "bytes=".length() ) ;
+        final int dash = spec.indexOf( '-' ) ;
+        int first ;
+        int last = data.length - 1 ;
+
+        if ( dash == 0 )
+        {
+            first = Math.max( 0, data.length - Integer.parseInt( spec.substring( 1 ) ) ) ;
+        }
+        else
+        {
+            first = Integer.parseInt( spec.substring( 0, dash ) ) ;
+
+            if ( dash < spec.length() - 1 )
+            {
+                last = Math.min( last, Integer.parseInt( spec.substring( dash + 1 ) ) ) ;
+            }
+        }
+
+        exchange.getResponseHeaders().set( "Content-Range", "bytes " + first + "-" + last + "/" + data.length ) ;
+        exchange.sendResponseHeaders( 206, last + 1 - first ) ;
+        exchange.getResponseBody().write( data, first, last + 1 - first ) ;
+    }
+}
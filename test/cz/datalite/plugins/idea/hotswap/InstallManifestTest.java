@@ -0,0 +1,96 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class InstallManifestTest
+{
+    private File directory ;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = FileUtil.createTempDirectory( "manifest", null ) ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileUtilRt.delete( directory ) ;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException
+    {
+        final InstallManifest manifest = new InstallManifest() ;
+
+        manifest.put( "HotswapAgent.jar", 0xCAFEBABEL, 1234 ) ;
+        manifest.put( "plugin/hotswap-agent-spring-plugin.jar", 1, 10 ) ;
+        manifest.save( directory ) ;
+
+        final InstallManifest loaded = InstallManifest.load( directory ) ;
+
+        assertEquals( manifest, loaded ) ;
+        assertEquals( new HashSet<String>( Arrays.asList( "HotswapAgent.jar", "plugin/hotswap-agent-spring-plugin.jar" ) ), loaded.getPaths() ) ;
+        assertTrue( loaded.matches( "HotswapAgent.jar", 0xCAFEBABEL, 1234 ) ) ;
+        assertFalse( loaded.matches( "HotswapAgent.jar", 0xCAFEBABEL, 1235 ) ) ;
+        assertFalse( new File( directory, InstallManifest.FILE_NAME + ".tmp" ).exists() ) ;
+    }
+
+    @Test
+    public void testMissingOrCorruptedManifestIsEmpty() throws IOException
+    {
+        assertTrue( InstallManifest.load( directory ).isEmpty() ) ;
+
+        FileUtil.writeToFile( new File( directory, InstallManifest.FILE_NAME ), "HotswapAgent.jar=\\uZZZZ" ) ;
+
+        assertTrue( InstallManifest.load( directory ).isEmpty() ) ;
+    }
+
+    @Test
+    public void testIsInstalledChecksSizes() throws IOException
+    {
+        final InstallManifest manifest = new InstallManifest() ;
+        final File jar = new File( directory, "HotswapAgent.jar" ) ;
+
+        manifest.put( "HotswapAgent.jar", 1, 3 ) ;
+
+        assertFalse( manifest.isInstalled( directory ) ) ;
+
+        FileUtil.writeToFile( jar, "abcd" ) ;
+
+        assertFalse( manifest.isInstalled( directory ) ) ;
+
+        FileUtil.writeToFile( jar, "abc" ) ;
+
+        assertTrue( manifest.isInstalled( directory ) ) ;
+    }
+
+    @Test
+    public void testCopyAndMatchOther()
+    {
+        final InstallManifest previous = new InstallManifest() ;
+        final InstallManifest current = new InstallManifest() ;
+
+        previous.put( "HotswapAgent.jar", 1, 3 ) ;
+        current.copy( "HotswapAgent.jar", previous ) ;
+        current.copy( "missing.jar", previous ) ;
+
+        assertTrue( current.matches( "HotswapAgent.jar", previous ) ) ;
+        assertFalse( current.matches( "missing.jar", previous ) ) ;
+        assertEquals( previous, current ) ;
+    }
+}
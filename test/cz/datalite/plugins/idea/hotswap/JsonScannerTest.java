@@ -0,0 +1,149 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class JsonScannerTest
+{
+    @Test
+    public void testReadsRequestedValuesAndSkipsOthers() throws IOException
+    {
+        final JsonScanner scanner = scanner( "{ \"id\": 42, \"author\": { \"login\": \"x\", \"ids\": [ 1, [ 2 ], { } ] },\n"
+                + "  \"tag_name\" : \"RELEASE-1.0\", \"draft\": false, \"body\": null,\n"
+                + "  \"assets\": [ { \"name\": \"a.zip\" }, { \"name\": \"b.zip\" } ] }" ) ;
+        final List<String> names = new ArrayList<String>() ;
+        String tag = null ;
+        String body = "" ;
+
+        scanner.beginObject() ;
+
+        while ( scanner.hasNext() )
+        {
+            final String name = scanner.nextName() ;
+
+            if ( name.equals( "tag_name" ) )
+            {
+                tag = scanner.nextString() ;
+            }
+            else if ( name.equals( "body" ) )
+            {
+                body = scanner.nextString() ;
+            }
+            else if ( name.equals( "assets" ) )
+            {
+                scanner.beginArray() ;
+
+                while ( scanner.hasNext() )
+                {
+                    scanner.beginObject() ;
+
+                    while ( scanner.hasNext() )
+                    {
+                        scanner.nextName() ;
+                        names.add( scanner.nextString() ) ;
+                    }
+
+                    scanner.endObject() ;
+                }
+
+                scanner.endArray() ;
+            }
+            else
+            {
+                scanner.skipValue() ;
+            }
+        }
+
+        scanner.endObject() ;
+
+        assertEquals( "RELEASE-1.0", tag ) ;
+        assertNull( body ) ;
+        assertEquals( 2, names.size() ) ;
+        assertEquals( "b.zip", names.get( 1 ) ) ;
+    }
+
+    @Test
+    public void testEscapes() throws IOException
+    {
+        assertEquals( "a\"b\\c/d\n\té", scanner( "\"a\\\"b\\\\c\\/d\\n\\t\\u00E9\"" ).nextString() ) ;
+    }
+
+    @Test
+    public void testSkipsEscapedQuoteInSkippedString() throws IOException
+    {
+        final JsonScanner scanner = scanner( "[ \"say \\\"]\\\"\", \"next\" ]" ) ;
+
+        scanner.beginArray() ;
+        scanner.hasNext() ;
+        scanner.skipValue() ;
+
+        assertTrue( scanner.hasNext() ) ;
+        assertEquals( "next", scanner.nextString() ) ;
+        assertFalse( scanner.hasNext() ) ;
+
+        scanner.endArray() ;
+    }
+
+    @Test
+    public void testErrors()
+    {
+        assertFails( "{ \"name\" 1 }", true ) ;
+        assertFails( "\"unterminated", false ) ;
+        assertFails( "\"bad \\x escape\"", false ) ;
+        assertFails( "\"bad \\u12G4 escape\"", false ) ;
+        assertFails( "[ 1", true ) ;
+    }
+
+    /**
+     * @param json      neplatná data
+     * @param object    příznak, zda se čte objekt nebo pole, jinak řetězec
+     */
+    private static void assertFails( String json, boolean object )
+    {
+        try
+        {
+            final JsonScanner scanner = scanner( json ) ;
+
+            if ( ! object )
+            {
+                scanner.nextString() ;
+            }
+            else if ( json.startsWith( "{" ) )
+            {
+                scanner.beginObject() ;
+
+                while ( scanner.hasNext() )
+                {
+                    scanner.nextName() ;
+                    scanner.skipValue() ;
+                }
+            }
+            else
+            {
+                scanner.skipValue() ;
+            }
+
+            fail( "Invalid JSON must fail: " + json ) ;
+        }
+        catch ( IOException e )
+        {
+            //očekáváno
+        }
+    }
+
+    private static JsonScanner scanner( String json )
+    {
+        return new JsonScanner( new StringReader( json ) ) ;
+    }
+}
@@ -0,0 +1,296 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class RemoteZipTest
+{
+    private final static String ETAG = "\"bundle\"" ;
+
+    private final static String LAST_MODIFIED = "Tue, 15 Nov 1994 08:12:31 GMT" ;
+
+    private final byte[] large = new byte[ 512 * 1024 ] ;
+
+    private final List<String> ifRanges = Collections.synchronizedList( new ArrayList<String>() ) ;
+
+    private byte[] bundle ;
+
+    private HttpTestServer server ;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        new Random( 42 ).nextBytes( large ) ;
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+        final ZipOutputStream zip = new ZipOutputStream( out ) ;
+
+        zip.putNextEntry( new ZipEntry( "hotswap-agent/HotswapAgent.jar" ) ) ;
+        zip.write( "agent".getBytes( "UTF-8" ) ) ;
+        zip.closeEntry() ;
+
+        //Náhodná data se nezkomprimují, další položka tak leží daleko
+        zip.putNextEntry( new ZipEntry( "hotswap-agent/large.bin" ) ) ;
+        zip.write( large ) ;
+        zip.closeEntry() ;
+
+        final ZipEntry stored = new ZipEntry( "plugin/stored.jar" ) ;
+        final CRC32 crc = new CRC32() ;
+        final byte[] content = "stored".getBytes( "UTF-8" ) ;
+
+        crc.update( content ) ;
+        stored.setMethod( ZipEntry.STORED ) ;
+        stored.setSize( content.length ) ;
+        stored.setCrc( crc.getValue() ) ;
+        zip.putNextEntry( stored ) ;
+        zip.write( content ) ;
+        zip.closeEntry() ;
+
+        zip.putNextEntry( new ZipEntry( "x_.txt" ) ) ;
+        zip.closeEntry() ;
+        zip.close() ;
+
+        bundle = out.toByteArray() ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        if ( server != null )
+        {
+            server.stop() ;
+        }
+    }
+
+    @Test
+    public void testReadsSelectedEntries() throws IOException
+    {
+        serve( ETAG, null ) ;
+
+        final RemoteZip zip = RemoteZip.open( server.getUrl( "/bundle.zip" ) ) ;
+
+        assertNotNull( zip ) ;
+        assertEquals( 4, zip.getEntries().size() ) ;
+
+        final Map<String, String> read = read( zip, "hotswap-agent/HotswapAgent.jar", "plugin/stored.jar" ) ;
+
+        assertEquals( "agent", read.get( "hotswap-agent/HotswapAgent.jar" ) ) ;
+        assertEquals( "stored", read.get( "plugin/stored.jar" ) ) ;
+        assertTrue( zip.getTransferred() < large.length ) ;
+        assertEquals( 3, server.getRanges().size() ) ;
+        assertEquals( ETAG, ifRanges.get( 1 ) ) ;
+        assertEquals( ETAG, ifRanges.get( 2 ) ) ;
+    }
+
+    @Test
+    public void testLargeEntryIsInflated() throws IOException
+    {
+        serve( ETAG, null ) ;
+
+        final RemoteZip zip = RemoteZip.open( server.getUrl( "/bundle.zip" ) ) ;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+
+        assertNotNull( zip ) ;
+
+        zip.read( select( zip, "hotswap-agent/large.bin" ), null, new RemoteZip.EntryHandler()
+        {
+            @Override
+            public void handle( ZipEntry entry, InputStream in ) throws IOException
+            {
+                final byte[] buffer = new byte[ 8192 ] ;
+                int count ;
+
+                while ( ( count = in.read( buffer ) ) >= 0 )
+                {
+                    out.write( buffer, 0, count ) ;
+                }
+            }
+        } ) ;
+
+        assertArrayEquals( large, out.toByteArray() ) ;
+    }
+
+    @Test
+    public void testLastModifiedWithoutETag() throws IOException
+    {
+        serve( "W/\"weak\"", LAST_MODIFIED ) ;
+
+        final RemoteZip zip = RemoteZip.open( server.getUrl( "/bundle.zip" ) ) ;
+
+        assertNotNull( zip ) ;
+        assertEquals( "agent", read( zip, "hotswap-agent/HotswapAgent.jar" ).get( "hotswap-agent/HotswapAgent.jar" ) ) ;
+        assertEquals( LAST_MODIFIED, ifRanges.get( ifRanges.size() - 1 ) ) ;
+    }
+
+    @Test
+    public void testNoValidatorMeansFullDownload() throws IOException
+    {
+        serve( null, null ) ;
+
+        assertNull( RemoteZip.open( server.getUrl( "/bundle.zip" ) ) ) ;
+        assertEquals( 1, server.getRanges().size() ) ;
+    }
+
+    @Test
+    public void testChangedBundleFails() throws IOException
+    {
+        server = new HttpTestServer( new HttpTestServer.Responder()
+        {
+            @Override
+            public void respond( HttpExchange exchange, int request ) throws IOException
+            {
+                //Po načtení adresáře má soubor jiný ETag
+                HttpTestServer.sendRange( exchange, bundle, ( request == 0 ) ? ETAG : "\"changed\"" ) ;
+            }
+        } ) ;
+
+        final RemoteZip zip = RemoteZip.open( server.getUrl( "/bundle.zip" ) ) ;
+
+        assertNotNull( zip ) ;
+
+        try
+        {
+            read( zip, "plugin/stored.jar" ) ;
+            fail( "Changed bundle must fail" ) ;
+        }
+        catch ( IOException e )
+        {
+            //očekáváno
+        }
+    }
+
+    @Test
+    public void testLegacyEntryNamesUseCp437() throws IOException
+    {
+        //Název bez příznaku UTF-8 s bajtem 0x82, v CP437 'é'
+        replaceLegacyName( "x_.txt", ( byte )0x82 ) ;
+        serve( ETAG, null ) ;
+
+        final RemoteZip zip = RemoteZip.open( server.getUrl( "/bundle.zip" ) ) ;
+
+        assertNotNull( zip ) ;
+        assertEquals( "x\u00e9.txt", zip.getEntries().get( 3 ).getName() ) ;
+    }
+
+    /**
+     * @param etag          ETag, nebo null
+     * @param lastModified  Last-Modified, nebo null
+     */
+    private void serve( final String etag, final String lastModified ) throws IOException
+    {
+        server = new HttpTestServer( new HttpTestServer.Responder()
+        {
+            @Override
+            public void respond( HttpExchange exchange, int request ) throws IOException
+            {
+                ifRanges.add( exchange.getRequestHeaders().getFirst( "If-Range" ) ) ;
+                HttpTestServer.sendRange( exchange, bundle, etag, lastModified ) ;
+            }
+        } ) ;
+    }
+
+    /**
+     * @param zip       ZIP soubor
+     * @param names     názvy čtených položek
+     * @return obsah položek podle názvu
+     */
+    private static Map<String, String> read( RemoteZip zip, String... names ) throws IOException
+    {
+        final Map<String, String> read = new HashMap<String, String>() ;
+
+        zip.read( select( zip, names ), null, new RemoteZip.EntryHandler()
+        {
+            @Override
+            public void handle( ZipEntry entry, InputStream in ) throws IOException
+            {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+                int b ;
+
+                while ( ( b = in.read() ) >= 0 )
+                {
+                    out.write( b ) ;
+                }
+
+                read.put( entry.getName(), out.toString( "UTF-8" ) ) ;
+            }
+        } ) ;
+
+        return read ;
+    }
+
+    private static List<ZipEntry> select( RemoteZip zip, String... names )
+    {
+        final List<ZipEntry> selected = new ArrayList<ZipEntry>() ;
+
+        for ( ZipEntry entry : zip.getEntries() )
+        {
+            for ( String name : names )
+            {
+                if ( entry.getName().equals( name ) )
+                {
+                    selected.add( entry ) ;
+                }
+            }
+        }
+
+        return selected ;
+    }
+
+    /**
+     * Nahrazení znaku '_' v názvu položky v lokální hlavičce i v centrálním adresáři a odstranění
+     * příznaku UTF-8, který ZipOutputStream nastavuje vždy
+     *
+     * @param name      název s jedním znakem '_'
+     * @param value     nový bajt
+     */
+    private void replaceLegacyName( String name, byte value ) throws IOException
+    {
+        final byte[] pattern = name.getBytes( "US-ASCII" ) ;
+        int replaced = 0 ;
+
+        for ( int i = 0 ; i + pattern.length <= bundle.length ; i++ )
+        {
+            int j = 0 ;
+
+            while ( ( j < pattern.length ) && ( bundle[ i + j ] == pattern[ j ] ) )
+            {
+                j++ ;
+            }
+
+            if ( j == pattern.length )
+            {
+                //Příznaky jsou v lokální hlavičce na pozici 6, v centrálním adresáři na pozici 8
+                final int flags = ( ( bundle[ i - 30 ] == 'P' ) && ( bundle[ i - 29 ] == 'K' ) && ( bundle[ i - 28 ] == 3 ) ) ? i - 30 + 6 : i - 46 + 8 ;
+
+                bundle[ flags + 1 ] &= ~0x08 ;
+                bundle[ i + name.indexOf( '_' ) ] = value ;
+                replaced++ ;
+            }
+        }
+
+        assertEquals( 2, replaced ) ;
+    }
+}
@@ -0,0 +1,176 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+
+public class ResumableDownloaderTest
+{
+    private final static String ETAG = "\"bundle\"" ;
+
+    private final byte[] data = new byte[ 256 * 1024 ] ;
+
+    private File directory ;
+
+    private HttpTestServer server ;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        new Random( 42 ).nextBytes( data ) ;
+        directory = FileUtil.createTempDirectory( "resumable", null ) ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        if ( server != null )
+        {
+            server.stop() ;
+        }
+
+        FileUtilRt.delete( directory ) ;
+    }
+
+    @Test
+    public void testResumesAfterDroppedConnection() throws IOException
+    {
+        server = new HttpTestServer( new HttpTestServer.Responder()
+        {
+            @Override
+            public void respond( HttpExchange exchange, int request ) throws IOException
+            {
+                if ( request == 0 )
+                {
+                    drop( exchange ) ;
+                }
+                else
+                {
+                    HttpTestServer.sendRange( exchange, data, ETAG ) ;
+                }
+            }
+        } ) ;
+
+        assertArrayEquals( data, download( 1 ) ) ;
+        assertEquals( Arrays.asList( null, "bytes=" + data.length / 2 + "-" ), server.getRanges() ) ;
+    }
+
+    @Test
+    public void testRestartsWhenRangeIsNotHonoured() throws IOException
+    {
+        server = new HttpTestServer( new HttpTestServer.Responder()
+        {
+            @Override
+            public void respond( HttpExchange exchange, int request ) throws IOException
+            {
+                if ( request == 0 )
+                {
+                    drop( exchange ) ;
+                }
+                else
+                {
+                    //Proxy pošle celý soubor jako část od začátku
+                    exchange.getResponseHeaders().set( "ETag", ETAG ) ;
+                    exchange.getResponseHeaders().set( "Content-Range", "bytes 0-" + ( data.length - 1 ) + "/" + data.length ) ;
+                    exchange.sendResponseHeaders( 206, data.length ) ;
+                    exchange.getResponseBody().write( data ) ;
+                }
+            }
+        } ) ;
+
+        assertArrayEquals( data, download( 1 ) ) ;
+        assertEquals( 3, server.getRanges().size() ) ;
+        assertNull( server.getRanges().get( 2 ) ) ;
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws IOException
+    {
+        server = new HttpTestServer( new HttpTestServer.Responder()
+        {
+            @Override
+            public void respond( HttpExchange exchange, int request ) throws IOException
+            {
+                exchange.sendResponseHeaders( 404, -1 ) ;
+            }
+        } ) ;
+
+        try
+        {
+            download( 3 ) ;
+            fail( "404 must fail" ) ;
+        }
+        catch ( ResumableDownloader.ClientErrorException e )
+        {
+            assertEquals( 1, server.getRanges().size() ) ;
+        }
+    }
+
+    @Test
+    public void testServerErrorIsRetried() throws IOException
+    {
+        server = new HttpTestServer( new HttpTestServer.Responder()
+        {
+            @Override
+            public void respond( HttpExchange exchange, int request ) throws IOException
+            {
+                if ( request == 0 )
+                {
+                    exchange.sendResponseHeaders( 503, -1 ) ;
+                }
+                else
+                {
+                    HttpTestServer.sendRange( exchange, data, ETAG ) ;
+                }
+            }
+        } ) ;
+
+        assertArrayEquals( data, download( 1 ) ) ;
+        assertEquals( 2, server.getRanges().size() ) ;
+    }
+
+    @Test
+    public void testRangeStart()
+    {
+        assertEquals( 100, ResumableDownloader.getRangeStart( "bytes 100-199/200" ) ) ;
+        assertEquals( -1, ResumableDownloader.getRangeStart( "bytes */200" ) ) ;
+        assertEquals( -1, ResumableDownloader.getRangeStart( null ) ) ;
+    }
+
+    /**
+     * @param retries   maximální počet opakování
+     * @return stažená data
+     */
+    private byte[] download( int retries ) throws IOException
+    {
+        final File file = new ResumableDownloader( retries, 1 ).download( server.getUrl( "/bundle.zip" ), new File( directory, "bundle.zip" ), new EmptyProgressIndicator(), null ) ;
+
+        return FileUtil.loadFileBytes( file ) ;
+    }
+
+    /**
+     * Spojení se ukončí v polovině dat
+     */
+    private void drop( HttpExchange exchange ) throws IOException
+    {
+        exchange.getResponseHeaders().set( "ETag", ETAG ) ;
+        exchange.sendResponseHeaders( 200, data.length ) ;
+        exchange.getResponseBody().write( data, 0, data.length / 2 ) ;
+        exchange.getResponseBody().flush() ;
+    }
+}
@@ -0,0 +1,95 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class VmOptionsPatchTest
+{
+    private final static String WINDOWS_JRE = "C:\\Program Files\\Java\\jdk1.8.0\\jre\\bin\\HotswapAgent\\" ;
+
+    private final static String POSIX_JRE = "/usr/lib/jvm/java-8/jre/lib/amd64/hotswap/" ;
+
+    private final static String AGENT_OPTIONS = "autoHotswap=true" ;
+
+    @Test
+    public void testWindowsPathWithSpacesRoundTrip()
+    {
+        final String original = "-Xmx512m -Dfile.encoding=UTF-8" ;
+        final String patched = VmOptionsPatch.patch( original, WINDOWS_JRE, AGENT_OPTIONS ) ;
+
+        assertEquals( "-Xmx512m -Dfile.encoding=UTF-8 \"-XXaltjvm=C:\\Program Files\\Java\\jdk1.8.0\\jre\\bin\\HotswapAgent\" \"-javaagent:" + WINDOWS_JRE + "HotswapAgent.jar=" + AGENT_OPTIONS + "\"", patched ) ;
+        assertEquals( patched, VmOptionsPatch.patch( patched, WINDOWS_JRE, AGENT_OPTIONS ) ) ;
+        assertEquals( original, VmOptionsPatch.unpatch( patched ) ) ;
+    }
+
+    @Test
+    public void testLegacyTrailingSeparatorIsRepaired()
+    {
+        //Dřívější verze zapisovaly cestu s oddělovačem před uzavírací uvozovkou
+        final String legacy = "-ea \"-XXaltjvm=" + WINDOWS_JRE + "\" \"-javaagent:" + WINDOWS_JRE + "HotswapAgent.jar\"" ;
+        final String patched = VmOptionsPatch.patch( legacy, WINDOWS_JRE, null ) ;
+
+        assertEquals( 3, VmOptions.parse( patched ).getTokens().size() ) ;
+        assertEquals( "-ea", VmOptionsPatch.unpatch( legacy ) ) ;
+        assertEquals( "-ea", VmOptionsPatch.unpatch( patched ) ) ;
+    }
+
+    @Test
+    public void testPosixRoundTripKeepsOtherAgents()
+    {
+        final String original = "-javaagent:/opt/other/agent.jar -ea" ;
+        final String patched = VmOptionsPatch.patch( original, POSIX_JRE, null ) ;
+
+        assertEquals( original + " -XXaltjvm=/usr/lib/jvm/java-8/jre/lib/amd64/hotswap -javaagent:" + POSIX_JRE + "HotswapAgent.jar", patched ) ;
+        assertEquals( patched, VmOptionsPatch.patch( patched, POSIX_JRE, null ) ) ;
+        assertEquals( original, VmOptionsPatch.unpatch( patched ) ) ;
+    }
+
+    @Test
+    public void testFingerprintSkipsUnchangedConfiguration()
+    {
+        final VmOptionsPatch first = VmOptionsPatch.compute( null, true, "-ea", WINDOWS_JRE, AGENT_OPTIONS, null ) ;
+
+        assertNotNull( first ) ;
+        assertTrue( first.isChanged() ) ;
+        assertNull( VmOptionsPatch.compute( first.getFingerprint(), true, first.getOptions(), WINDOWS_JRE, AGENT_OPTIONS, null ) ) ;
+
+        //Jiná JVM, parametry agenta nebo stav konfigurace znamenají novou úpravu
+        assertNotNull( VmOptionsPatch.compute( first.getFingerprint(), true, first.getOptions(), POSIX_JRE, AGENT_OPTIONS, null ) ) ;
+        assertNotNull( VmOptionsPatch.compute( first.getFingerprint(), true, first.getOptions(), WINDOWS_JRE, null, null ) ) ;
+        assertNotNull( VmOptionsPatch.compute( first.getFingerprint(), true, first.getOptions(), WINDOWS_JRE, AGENT_OPTIONS, "jetty:run" ) ) ;
+    }
+
+    @Test
+    public void testFingerprintDistinguishesHashCodeCollisions()
+    {
+        //"Aa" a "BB" mají stejný String.hashCode()
+        final VmOptionsPatch first = VmOptionsPatch.compute( null, true, "-ea", WINDOWS_JRE, AGENT_OPTIONS, "Aa" ) ;
+
+        assertNotNull( first ) ;
+        assertEquals( "Aa".hashCode(), "BB".hashCode() ) ;
+        assertNotNull( VmOptionsPatch.compute( first.getFingerprint(), true, first.getOptions(), WINDOWS_JRE, AGENT_OPTIONS, "BB" ) ) ;
+    }
+
+    @Test
+    public void testDisabledConfigurationIsUnpatched()
+    {
+        final String patched = VmOptionsPatch.patch( "-ea", WINDOWS_JRE, null ) ;
+        final VmOptionsPatch disabled = VmOptionsPatch.compute( null, false, patched, WINDOWS_JRE, null, null ) ;
+
+        assertNotNull( disabled ) ;
+        assertTrue( disabled.isChanged() ) ;
+        assertEquals( "-ea", disabled.getOptions() ) ;
+
+        final VmOptionsPatch again = VmOptionsPatch.compute( null, false, "-ea", WINDOWS_JRE, null, null ) ;
+
+        assertNotNull( again ) ;
+        assertFalse( again.isChanged() ) ;
+    }
+}
@@ -0,0 +1,72 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class VmOptionsTest
+{
+    @Test
+    public void testSplitsOnWhitespaceOutsideQuotes()
+    {
+        assertEquals( Arrays.asList( "-Xmx512m", "\"-Dname=a b\"", "-Dq=\\\"x\\\"" ), VmOptions.parse( "  -Xmx512m \t\"-Dname=a b\"  -Dq=\\\"x\\\" " ).getTokens() ) ;
+        assertTrue( VmOptions.parse( null ).getTokens().isEmpty() ) ;
+    }
+
+    @Test
+    public void testEscapedQuoteInsideQuotes()
+    {
+        final VmOptions options = VmOptions.parse( "\"-Dq=say \\\"hi\\\"!\" -ea" ) ;
+
+        assertEquals( 2, options.getTokens().size() ) ;
+        assertEquals( "-Dq=say \"hi\"!", VmOptions.unquote( options.getTokens().get( 0 ) ) ) ;
+    }
+
+    @Test
+    public void testBackslashBeforeClosingQuote()
+    {
+        final VmOptions options = VmOptions.parse( "\"-Ddir=C:\\Program Files\\\" -ea" ) ;
+
+        assertEquals( Arrays.asList( "\"-Ddir=C:\\Program Files\\\"", "-ea" ), options.getTokens() ) ;
+        assertEquals( "-Ddir=C:\\Program Files\\", VmOptions.unquote( options.getTokens().get( 0 ) ) ) ;
+    }
+
+    @Test
+    public void testQuoteRoundTrip()
+    {
+        for ( String value : new String[] { "-ea", "-Dname=a b", "-Dq=say \"hi\"!", "-Ddir=C:\\Program Files\\" } )
+        {
+            final String token = VmOptions.quote( value ) ;
+
+            assertEquals( Arrays.asList( token ), VmOptions.parse( token ).getTokens() ) ;
+            assertEquals( value, VmOptions.unquote( token ) ) ;
+        }
+    }
+
+    @Test
+    public void testUnchangedOptionsKeepOriginalString()
+    {
+        final String original = "-Xmx512m   -ea" ;
+        final VmOptions options = VmOptions.parse( original ) ;
+
+        options.removeHotswap() ;
+
+        assertFalse( options.isModified() ) ;
+        assertEquals( original, options.toString() ) ;
+    }
+
+    @Test
+    public void testAltJvmWithoutTrailingSeparator()
+    {
+        final VmOptions options = VmOptions.parse( "-ea" ) ;
+
+        options.setAltJvm( "C:\\Program Files\\Java\\jre\\bin\\HotswapAgent\\" ) ;
+
+        assertEquals( "-ea \"-XXaltjvm=C:\\Program Files\\Java\\jre\\bin\\HotswapAgent\"", options.toString() ) ;
+    }
+}
@@ -0,0 +1,163 @@
+package cz.datalite.plugins.idea.hotswap;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ZipExtractorTest
+{
+    private File directory ;
+
+    private File output ;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = FileUtil.createTempDirectory( "extractor", null ) ;
+        output = new File( directory, "out" ) ;
+        assertTrue( output.mkdir() ) ;
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileUtilRt.delete( directory ) ;
+    }
+
+    @Test
+    public void testExtractsFilteredEntries() throws IOException
+    {
+        final File zip = zip( "hotswap-agent/HotswapAgent.jar", "agent", "hotswap-agent/README.txt", "readme", "plugin/spring.jar", "spring" ) ;
+
+        extract( zip, new FilenameFilter()
+        {
+            @Override
+            public boolean accept( File dir, String name )
+            {
+                return name.endsWith( ".jar" ) ;
+            }
+        } ) ;
+
+        assertEquals( "agent", FileUtil.loadFile( new File( output, "HotswapAgent.jar" ) ) ) ;
+        assertEquals( "spring", FileUtil.loadFile( new File( output, "plugin/spring.jar" ) ) ) ;
+        assertFalse( new File( output, "README.txt" ).exists() ) ;
+    }
+
+    @Test
+    public void testSkipsUnchangedAndRemovesStaleFiles() throws IOException
+    {
+        extract( zip( "HotswapAgent.jar", "agent", "plugin/old.jar", "old" ), null ) ;
+
+        final ZipExtractor extractor = extract( zip( "HotswapAgent.jar", "agent", "plugin/new.jar", "new" ), null ) ;
+
+        assertEquals( 1, extractor.getSkipped() ) ;
+        assertEquals( 1, extractor.getWritten() ) ;
+        assertFalse( new File( output, "plugin/old.jar" ).exists() ) ;
+        assertEquals( "new", FileUtil.loadFile( new File( output, "plugin/new.jar" ) ) ) ;
+    }
+
+    @Test
+    public void testRejectsDuplicateTargets() throws IOException
+    {
+        final File zip = zip( "HotswapAgent.jar", "agent", "lib/HotswapAgent.jar", "other" ) ;
+
+        try
+        {
+            extract( zip, null ) ;
+            fail( "Duplicate target must fail" ) ;
+        }
+        catch ( IOException e )
+        {
+            assertFalse( new File( output, "HotswapAgent.jar" ).exists() ) ;
+        }
+
+        try
+        {
+            new ZipExtractor( output, null, true ).extract( new ZipInputStream( new FileInputStream( zip ) ) ) ;
+            fail( "Duplicate target must fail" ) ;
+        }
+        catch ( IOException e )
+        {
+            //očekáváno
+        }
+    }
+
+    @Test
+    public void testRejectsParentSegments() throws IOException
+    {
+        try
+        {
+            extract( zip( "plugin/../../evil.jar", "evil" ), null ) ;
+            fail( "Entry outside the output directory must fail" ) ;
+        }
+        catch ( IOException e )
+        {
+            assertFalse( new File( directory, "evil.jar" ).exists() ) ;
+        }
+    }
+
+    /**
+     * @param filter    filtr položek, nebo null
+     * @return použitý extractor
+     */
+    private ZipExtractor extract( File zip, FilenameFilter filter ) throws IOException
+    {
+        final ZipExtractor extractor = new ZipExtractor( output, filter, true ) ;
+        final ZipFile zipFile = new ZipFile( zip ) ;
+
+        try
+        {
+            extractor.extract( zipFile ) ;
+        }
+        finally
+        {
+            zipFile.close() ;
+        }
+
+        return extractor ;
+    }
+
+    /**
+     * @param entries   dvojice název položky a obsah
+     * @return vytvořený ZIP soubor
+     */
+    private File zip( String... entries ) throws IOException
+    {
+        final File file = File.createTempFile( "bundle", ".zip", directory ) ;
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( file ) ) ;
+
+        try
+        {
+            for ( int i = 0 ; i < entries.length ; i += 2 )
+            {
+                out.putNextEntry( new ZipEntry( entries[ i ] ) ) ;
+                out.write( entries[ i + 1 ].getBytes( "UTF-8" ) ) ;
+                out.closeEntry() ;
+            }
+        }
+        finally
+        {
+            out.close() ;
+        }
+
+        return file ;
+    }
+}